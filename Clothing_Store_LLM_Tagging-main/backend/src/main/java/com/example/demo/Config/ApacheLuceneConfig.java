@@ -2,10 +2,15 @@ package com.example.demo.Config;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.facet.FacetsConfig;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.ControlledRealTimeReopenThread;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -24,6 +29,34 @@ public class ApacheLuceneConfig {
         return new IndexWriter(dir, cfg);
 
     }
+    // one shared near-real-time searcher for every request, refreshed from the writer after upserts
+    @Bean
+    public SearcherManager searcherManager(IndexWriter writer) throws Exception {
+        return new SearcherManager(writer, null);
+    }
+
+    // background thread that refreshes the shared searcher, so new documents become searchable without a commit
+    @Bean
+    public ControlledRealTimeReopenThread<IndexSearcher> nrtReopenThread(
+            IndexWriter writer, SearcherManager searcherManager,
+            @Value("${lucene.nrt.max-stale-ms:1000}") long maxStaleMs,
+            @Value("${lucene.nrt.min-stale-ms:25}") long minStaleMs) {
+        ControlledRealTimeReopenThread<IndexSearcher> reopen =
+                new ControlledRealTimeReopenThread<>(writer, searcherManager, maxStaleMs / 1000.0, minStaleMs / 1000.0);
+        reopen.setName("lucene-nrt-reopen");
+        reopen.setDaemon(true);
+        reopen.start();
+        return reopen;
+    }
+
+    // "tag" holds every normalized llm tag of a post as its own facet value
+    @Bean
+    public FacetsConfig facetsConfig() {
+        FacetsConfig config = new FacetsConfig();
+        config.setMultiValued("tag", true);
+        return config;
+    }
+
     @Bean
     public Directory luceneDirectory() throws Exception {
 
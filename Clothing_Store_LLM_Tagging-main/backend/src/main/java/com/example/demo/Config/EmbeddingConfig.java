@@ -0,0 +1,28 @@
+package com.example.demo.Config;
+
+import com.example.demo.services.ChatGPTService;
+import com.example.demo.services.EmbeddingProvider;
+import com.example.demo.services.HashingEmbeddingProvider;
+import com.example.demo.services.OpenAiEmbeddingProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class EmbeddingConfig {
+
+    // "hashing" runs locally, "openai" uses the embeddings api. Lucene allows at most 1024 dimensions
+    @Bean
+    public EmbeddingProvider embeddingProvider(
+            ChatGPTService openAi,
+            @Value("${embedding.provider:hashing}") String provider,
+            @Value("${embedding.dimensions:256}") int dimensions,
+            @Value("${embedding.openai.model:text-embedding-3-small}") String model) {
+        int dims = Math.min(1024, Math.max(8, dimensions));
+        return switch (provider.trim().toLowerCase()) {
+            case "openai" -> new OpenAiEmbeddingProvider(openAi, model, dims);
+            case "hashing" -> new HashingEmbeddingProvider(dims);
+            default -> throw new IllegalStateException("unknown embedding.provider: " + provider);
+        };
+    }
+}
@@ -1,7 +1,10 @@
 package com.example.demo.Config;
 
+import com.google.auth.oauth2.AccessToken;
 import com.google.auth.oauth2.GoogleCredentials;
+import com.google.cloud.NoCredentials;
 import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.FirestoreOptions;
 import com.google.cloud.storage.Bucket;
 import com.google.cloud.storage.Storage;
 import com.google.cloud.storage.StorageOptions;
@@ -30,6 +33,9 @@ public class FirebaseConfig {
             @Value("${firebase.credentials:classpath:firebase/service-account.json}") String location)
             throws Exception {
 
+        // "none" is for the firestore emulator and the local provider stub, neither checks the token
+        if ("none".equals(location)) return GoogleCredentials.create(new AccessToken("owner", null));
+
         org.springframework.core.io.Resource res =
                 new org.springframework.core.io.DefaultResourceLoader().getResource(location);
 
@@ -40,13 +46,17 @@ public class FirebaseConfig {
             return GoogleCredentials.fromStream(in);
         }
     }
+    // firebase.firestore.emulator-host (host:port) talks to the firestore emulator, like FIRESTORE_EMULATOR_HOST does
     @Bean
-    public FirebaseApp firebaseApp(GoogleCredentials creds) {
-        FirebaseOptions options = FirebaseOptions.builder()
+    public FirebaseApp firebaseApp(GoogleCredentials creds, @Value("${firebase.firestore.emulator-host:}") String emulatorHost) {
+        FirebaseOptions.Builder builder = FirebaseOptions.builder()
                 .setCredentials(creds)
                 .setProjectId(projectId)
-                .setStorageBucket(bucketId)
-                .build();
+                .setStorageBucket(bucketId);
+        if (!emulatorHost.isBlank()) {
+            builder.setFirestoreOptions(FirestoreOptions.newBuilder().setEmulatorHost(emulatorHost).build());
+        }
+        FirebaseOptions options = builder.build();
         FirebaseApp app = FirebaseApp.getApps().isEmpty()
                 ? FirebaseApp.initializeApp(options)
                 : FirebaseApp.getInstance();
@@ -59,13 +69,13 @@ public class FirebaseConfig {
         return FirestoreClient.getFirestore(app);
     }
 
+    // firebase.storage.host sends storage calls to a local stub or emulator instead of google, without credentials
     @Bean
-    public Storage storage(GoogleCredentials creds) {
-        return StorageOptions.newBuilder()
-                .setProjectId(projectId)
-                .setCredentials(creds)
-                .build()
-                .getService();
+    public Storage storage(GoogleCredentials creds, @Value("${firebase.storage.host:}") String host) {
+        StorageOptions.Builder options = StorageOptions.newBuilder().setProjectId(projectId);
+        if (host.isBlank()) options.setCredentials(creds);
+        else options.setHost(host).setCredentials(NoCredentials.getInstance());
+        return options.build().getService();
     }
 
     @Bean
@@ -0,0 +1,12 @@
+package com.example.demo.Config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.PropertySource;
+
+// application.properties is kept out of git, so the actuator exposure ships in its own file.
+// /actuator/metrics lists the ingest.step, provider.*, lucene.commit and search.latency meters,
+// /actuator/prometheus serves them with their histogram buckets
+@Configuration
+@PropertySource("classpath:metrics-defaults.properties")
+public class MetricsConfig {
+}
@@ -0,0 +1,25 @@
+package com.example.demo.Config;
+
+import com.example.demo.util.AdaptiveRateLimiter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+// one limiter per provider, shared by every thread that calls it
+@Configuration
+public class RateLimitConfig {
+
+    @Bean
+    public AdaptiveRateLimiter openAiRateLimiter(
+            @Value("${openai.ratelimit.requests-per-minute:500}") double rpm,
+            @Value("${openai.ratelimit.default-pause-ms:20000}") long defaultPauseMs) {
+        return new AdaptiveRateLimiter("openai", rpm, defaultPauseMs);
+    }
+
+    @Bean
+    public AdaptiveRateLimiter azureRateLimiter(
+            @Value("${azure.vision.ratelimit.requests-per-minute:600}") double rpm,
+            @Value("${azure.vision.ratelimit.default-pause-ms:20000}") long defaultPauseMs) {
+        return new AdaptiveRateLimiter("azure", rpm, defaultPauseMs);
+    }
+}
@@ -4,6 +4,8 @@ public class Post {
     private String postID;
     private String title;
     private String imageURL;
+    // downscaled copy for product cards, null for posts created before thumbnails existed
+    private String thumbnailURL;
     private String date;
 
     // ChatGPT (LLM generated tags)
@@ -37,6 +39,14 @@ public class Post {
         this.imageURL = imageURL;
     }
 
+    public String getThumbnailURL() {
+        return thumbnailURL;
+    }
+
+    public void setThumbnailURL(String thumbnailURL) {
+        this.thumbnailURL = thumbnailURL;
+    }
+
     public String getDate() {
         return date;
     }
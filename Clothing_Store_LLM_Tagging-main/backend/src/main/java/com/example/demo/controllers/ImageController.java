@@ -3,25 +3,49 @@ package com.example.demo.controllers;
 import com.example.demo.Config.FirebaseConfig;
 import com.example.demo.Entity.Post;
 import com.example.demo.services.AltTextService;
+import com.example.demo.services.BulkJobJournal;
 import com.example.demo.services.ChatGPTService;
+import com.example.demo.services.EnrichmentCache;
+import com.example.demo.services.ImageDerivativeService;
+import com.example.demo.services.IngestMetrics;
 import com.example.demo.services.PostService;
+import com.example.demo.util.BoundedStage;
+import com.example.demo.util.RateLimitedException;
+import com.google.cloud.WriteChannel;
 import com.google.cloud.storage.BlobId;
 import com.google.cloud.storage.BlobInfo;
 import com.google.cloud.storage.Storage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.stream.Stream;
 
@@ -34,14 +58,62 @@ public class ImageController {
     private final PostService posts;
     private final ChatGPTService chat;
     private final AltTextService altText;
+    private final EnrichmentCache enrichmentCache;
+    private final ImageDerivativeService derivatives;
+    private final IngestMetrics metrics;
+    private final BulkJobJournal journal;
+    // bulk jobs of this node by id, at most one of them runs at a time
+    private final Map<String, BulkJob> jobs = new ConcurrentHashMap<>();
+    private final AtomicReference<BulkJob> activeJob = new AtomicReference<>();
+
+    // shared deadline for the parallel title, tags and alt calls of a single upload
+    @Value("${upload.enrich.timeout-ms:90000}")
+    private long uploadEnrichTimeoutMs;
+    // vision.combined switches to the single structured title+tags request, vision.combined.caption also replaces azure
+    @Value("${vision.combined:false}")
+    private boolean combinedVision;
+    @Value("${vision.combined.caption:false}")
+    private boolean combinedCaption;
+
+    // workers per bulk stage and the queue between stages
+    @Value("${bulk.upload.concurrency:4}")
+    private int bulkUploadConcurrency;
+    @Value("${bulk.enrich.concurrency:4}")
+    private int bulkEnrichConcurrency;
+    @Value("${bulk.save.concurrency:2}")
+    private int bulkSaveConcurrency;
+    @Value("${bulk.stage.queue:16}")
+    private int bulkStageQueue;
+    // a job where no file finishes for this long is stopped instead of holding the job slot forever
+    @Value("${bulk.job.stall-timeout-ms:1800000}")
+    private long bulkStallTimeoutMs;
+    // a job cut off by a crash or restart continues on its own once the app is up again
+    @Value("${bulk.jobs.resume-on-start:true}")
+    private boolean resumeJobsOnStart;
+    // both point elsewhere when running against the local provider stub, see the load testing section of the readme
+    @Value("${firebase.download-base-url:https://firebasestorage.googleapis.com}")
+    private String downloadBaseUrl;
+    @Value("${firebase.storage.host:}")
+    private String storageHost;
+    // read buffer and resumable upload chunk (a multiple of 256 KiB) used when streaming images to storage
+    private static final int UploadBufferBytes = 64 * 1024;
+    private static final int UploadChunkBytes = 1024 * 1024;
 //bulk upload folder path
-    private final Path imgDir = Paths.get("src/main/resources/images").toAbsolutePath().normalize();
+    private final Path imgDir;
 
-    public ImageController(Storage storage, PostService posts, ChatGPTService chat, AltTextService altText) {
+    public ImageController(Storage storage, PostService posts, ChatGPTService chat, AltTextService altText,
+                           EnrichmentCache enrichmentCache, ImageDerivativeService derivatives, IngestMetrics metrics,
+                           BulkJobJournal journal,
+                           @Value("${bulk.images.dir:src/main/resources/images}") String imagesDir) {
         this.storage = storage;
         this.posts = posts;
         this.chat = chat;
         this.altText = altText;
+        this.enrichmentCache = enrichmentCache;
+        this.derivatives = derivatives;
+        this.metrics = metrics;
+        this.journal = journal;
+        this.imgDir = Paths.get(imagesDir).toAbsolutePath().normalize();
         try { Files.createDirectories(imgDir); } catch (Exception ignored) {}
     }
 
@@ -64,40 +136,130 @@ public class ImageController {
     }
 
 //choose ai title
-    private static String chooseTitle(String aiTitle, String originalFilenameWithoutExt) {
+    static String chooseTitle(String aiTitle, String originalFilenameWithoutExt) {
         String candidate = (aiTitle == null) ? "" : aiTitle.trim();
         if (looksLikeFilename(candidate) || candidate.isEmpty()) return originalFilenameWithoutExt;
         return Character.toUpperCase(candidate.charAt(0)) + candidate.substring(1);
     }
-//rate limit checker
-    private static boolean isRateLimit(String msg) {
-        if (msg == null) return false;
-        String m = msg.toLowerCase(Locale.ROOT);
-        return m.contains("rate limit") || m.contains("rate_limit_exceeded") || m.contains("429");
+//one provider call of the bulk run. the services already retry transport errors and 5xx and queue 429s behind their rate
+// limiter, so the call is made once. a rate limit that outlasted that queue stops the run instead of being retried
+    private String callStopOn429(Supplier<String> fn, String label) throws RateLimitHit {
+        return callStopOn429(fn, String::isBlank, label);
     }
 
-//retry wrapper
-    private String callWithRetryStopOn429(
-            Supplier<String> fn, String label, int maxAttempts, long startDelayMs, long maxDelayMs
-    ) throws RateLimitHit {
-        long delay = startDelayMs;
-        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
-            try {
-                String out = fn.get();
-                if (out != null && !out.isBlank()) return out;
-            } catch (Exception ex) {
-                String msg = String.valueOf(ex.getMessage());
-                if (isRateLimit(msg)) throw new RateLimitHit("429/rate limit during " + label + ": " + msg);
-            }
-            try { Thread.sleep(delay); } catch (InterruptedException ignored) {}
-            delay = Math.min(maxDelayMs, delay * 2);
+    private <T> T callStopOn429(Supplier<T> fn, Predicate<T> isEmpty, String label) throws RateLimitHit {
+        // the label doubles as the ingest.step tag
+        long started = System.nanoTime();
+        String outcome = "empty";
+        try {
+            T out = fn.get();
+            if (out != null && !isEmpty.test(out)) outcome = "success";
+            return out;
+        } catch (RateLimitedException rl) {
+            outcome = "rate_limited";
+            throw new RateLimitHit("429/rate limit during " + label + ": " + rl.getMessage());
+        } finally {
+            metrics.record(label, outcome, System.nanoTime() - started);
         }
-        return "";
     }
     private static class RateLimitHit extends Exception {
         public RateLimitHit(String msg) { super(msg); }
     }
 
+    // title, tags and alt text do not depend on each other, so the three vision calls run at the same time
+    // the calls get the same deadline, after it they stop retrying instead of using up the quota for a finished upload
+    private EnrichmentCache.Entry enrichConcurrently(String imageUrl) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + uploadEnrichTimeoutMs;
+        CompletableFuture<String> titleCall, tagsCall, altCall;
+        if (combinedVision) {
+            // one structured request answers title and tags (and the caption when azure is skipped)
+            CompletableFuture<ChatGPTService.VisionResult> visionCall = metrics.timeAsync("vision", () -> chat.enrichImageAsync(imageUrl, combinedCaption, deadline));
+            titleCall = visionCall.thenApply(ChatGPTService.VisionResult::title);
+            tagsCall = visionCall.thenApply(ChatGPTService.VisionResult::tags);
+            altCall = combinedCaption
+                    ? visionCall.thenApply(ChatGPTService.VisionResult::caption)
+                    : metrics.timeAsync("alt", () -> altText.describeAsync(imageUrl, deadline));
+        } else {
+            titleCall = metrics.timeAsync("title", () -> chat.generateTitleForImageAsync(imageUrl, deadline));
+            tagsCall = metrics.timeAsync("tags", () -> chat.generateTagsForImageAsync(imageUrl, deadline));
+            altCall = metrics.timeAsync("alt", () -> altText.describeAsync(imageUrl, deadline));
+        }
+        try {
+            CompletableFuture.allOf(titleCall, tagsCall, altCall).get(uploadEnrichTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | ExecutionException ex) {
+            // whatever finished before the deadline is still used
+            System.err.println("[/images/upload] enrichment incomplete after " + uploadEnrichTimeoutMs + "ms: " + ex);
+        }
+
+        return new EnrichmentCache.Entry(resultOrEmpty(titleCall), resultOrEmpty(tagsCall), resultOrEmpty(altCall));
+    }
+
+    // copies the image into a resumable storage upload through a fixed size buffer, so heap use does not grow with
+    // the image size; the sha-256 used as the enrichment cache key is computed on the way through
+    private String streamToStorage(BlobInfo blobInfo, InputStream in) throws Exception {
+        MessageDigest digest = EnrichmentCache.newKeyDigest();
+        byte[] buffer = new byte[UploadBufferBytes];
+        try (in; WriteChannel channel = storage.writer(blobInfo)) {
+            channel.setChunkSize(UploadChunkBytes);
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+                ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, n);
+                while (chunk.hasRemaining()) channel.write(chunk);
+            }
+        }
+        return EnrichmentCache.keyOf(digest);
+    }
+
+    // firebase download url of an object, readable by anyone holding the token
+    private String downloadUrl(String bucket, String objectName, String token) {
+        String encoded = URLEncoder.encode(objectName, StandardCharsets.UTF_8);
+        return downloadBaseUrl + "/v0/b/" + bucket + "/o/" + encoded + "?alt=media&token=" + token;
+    }
+
+    // the thumbnail is stored next to the original and shares its download token
+    private String storeThumbnail(String bucket, String objectName, String token, ImageDerivativeService.Derivatives d) {
+        String thumbName = objectName + "_thumb.jpg";
+        storage.create(BlobInfo.newBuilder(BlobId.of(bucket, thumbName))
+                .setContentType("image/jpeg")
+                .setMetadata(Map.of("firebaseStorageDownloadTokens", token))
+                .build(), d.thumbnail());
+        return downloadUrl(bucket, thumbName, token);
+    }
+
+    // stores the bounded-size copy for the vision calls and returns its name, or the original's name when there is none.
+    // the copy is only read by the vision apis and is deleted again with dropAiCopy once the enrichment is over
+    private String aiCopy(String bucket, String objectName, BlobInfo original, Optional<ImageDerivativeService.Derivatives> derived) {
+        if (derived.isEmpty()) return original.getName();
+        BlobInfo target = BlobInfo.newBuilder(BlobId.of(bucket, objectName + "_ai.jpg")).setContentType("image/jpeg").build();
+        storage.create(target, derived.get().forAi());
+        return target.getName();
+    }
+
+    // nothing reads the copy after the vision calls, a failed delete only leaves a small object behind
+    private void dropAiCopy(String bucket, String aiObject, String objectName) {
+        if (aiObject == null || aiObject.equals(objectName)) return;
+        try {
+            storage.delete(BlobId.of(bucket, aiObject));
+        } catch (Exception e) {
+            System.err.println("[ImageController] could not delete " + aiObject + ": " + e.getMessage());
+        }
+    }
+
+    private String signedUrl(String bucket, String objectName) {
+        // a stub or emulator has no key to sign with and serves its objects without a signature
+        if (!storageHost.isBlank()) return downloadUrl(bucket, objectName, "local");
+        return storage.signUrl(BlobInfo.newBuilder(BlobId.of(bucket, objectName)).build(), 1, TimeUnit.DAYS,
+                Storage.SignUrlOption.withV4Signature()).toString();
+    }
+
+    //value of a finished enrichment call, or empty when it failed or missed the deadline.
+    // an unfinished call winds down on its own, its retries check the same deadline
+    private static String resultOrEmpty(CompletableFuture<String> call) {
+        if (!call.isDone() || call.isCompletedExceptionally()) return "";
+        return Optional.ofNullable(call.join()).orElse("").trim();
+    }
+
     //singlular image upload that stores the image then tags it and finally saves the post
     @PostMapping(value = "/upload", consumes = "multipart/form-data", produces = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<Map<String, Object>> upload(@RequestParam("file") MultipartFile file) {
@@ -105,7 +267,7 @@ public class ImageController {
         try {
             // error handler if bucket does not exist
             String bucket = FirebaseConfig.BUCKET; step = "bucket";
-            if (storage.get(bucket) == null) {
+            if (metrics.time("bucket", () -> storage.get(bucket)) == null) {
                 return ResponseEntity.internalServerError().body(Map.of(
                         "error", "MissingBucket",
                         "message", "Bucket '" + bucket + "' does not exist.",
@@ -126,23 +288,38 @@ public class ImageController {
                     .setContentType(contentType)
                     .setMetadata(Map.of("firebaseStorageDownloadTokens", token))
                     .build();
-            storage.create(blobInfo, file.getBytes()); step = "create";
+            // streamed through a small buffer, the whole image is never held on heap
+            String contentHash = metrics.time("create", () -> streamToStorage(blobInfo, file.getInputStream())); step = "create";
 
-            // public URL (for app) + signed URL (for AI fetch)
-            String encoded  = URLEncoder.encode(objectName, StandardCharsets.UTF_8);
-            String publicUrl = "https://firebasestorage.googleapis.com/v0/b/" + bucket + "/o/" + encoded + "?alt=media&token=" + token;
-            URL signedUrl = storage.signUrl(blobInfo, 1, TimeUnit.DAYS, Storage.SignUrlOption.withV4Signature());
+            // public URL (for app)
+            String publicUrl = downloadUrl(bucket, objectName, token);
 
-            // ai generated image title
-            step = "title";
-            String aiTitle = Optional.ofNullable(chat.generateTitleForImage(signedUrl.toString())).orElse("").trim();
-            String finalTitle = chooseTitle(aiTitle, originalBase);
+            // downscaled copies, decoded locally: a thumbnail for the cards and a small image for the vision calls
+            step = "derive";
+            Optional<ImageDerivativeService.Derivatives> derived = metrics.time("derive", () -> derivatives.derive(file.getInputStream()));
+            String thumbnailUrl = metrics.time("thumbnail", () -> derived.map(d -> storeThumbnail(bucket, objectName, token, d)).orElse(null));
 
-            // ai and alt tags
-            step = "tags";
-            String llmTags = Optional.ofNullable(chat.generateTagsForImage(signedUrl.toString())).orElse("").trim();
-            step = "alt";
-            String alt = Optional.ofNullable(altText.describe(signedUrl.toString())).orElse("").trim();
+            // a photo that was enriched before is answered from the cache, otherwise a signed URL (for AI fetch) is created
+            step = "cache";
+            Optional<EnrichmentCache.Entry> cached = enrichmentCache.get(contentHash);
+            step = "enrich";
+            EnrichmentCache.Entry enriched;
+            if (cached.isPresent()) {
+                enriched = cached.get();
+            } else {
+                // the vision APIs get a signed url to the bounded-size copy, or to the original when it could not be decoded
+                String aiObject = metrics.time("ai_copy", () -> aiCopy(bucket, objectName, blobInfo, derived));
+                try {
+                    String signed = metrics.time("sign", () -> signedUrl(bucket, aiObject));
+                    enriched = enrichConcurrently(signed);
+                } finally {
+                    dropAiCopy(bucket, aiObject, objectName);
+                }
+            }
+
+            String finalTitle = chooseTitle(enriched.title(), originalBase);
+            String llmTags = enriched.llmTags();
+            String alt = enriched.altText();
 
             if (alt.isBlank() && !llmTags.isBlank()) {
                 step = "altFromTags";
@@ -161,13 +338,17 @@ public class ImageController {
                 ));
             }
 
+            if (cached.isEmpty()) enrichmentCache.put(contentHash, new EnrichmentCache.Entry(enriched.title(), llmTags, alt));
+
             // saves the post
             Post p = new Post(null, finalTitle, publicUrl, LocalDate.now().toString(), llmTags, alt);
+            p.setThumbnailURL(thumbnailUrl);
             String id = posts.savePost(p); step = "save";
             return ResponseEntity.ok(Map.of(
                     "id", id,
                     "title", p.getTitle(),
                     "imageURL", p.getImageURL(),
+                    "thumbnailURL", Optional.ofNullable(p.getThumbnailURL()).orElse(p.getImageURL()),
                     "llmTags", p.getLlmTags(),
                     "altText", p.getAltText() ));
 
@@ -179,93 +360,511 @@ public class ImageController {
                     "step", step )); }
     }
 
+    // hit and miss counts of the enrichment cache, every hit is a set of vision calls that was not paid for
+    @GetMapping("/cache/stats")
+    public ResponseEntity<EnrichmentCache.Stats> cacheStats() {
+        return ResponseEntity.ok(enrichmentCache.stats());
+    }
+
 //bulk image upload from the "images " folder in resources
+// runs a bulk job on the request thread and answers once it is through, /images/bulk/jobs does the same in the background
     @PostMapping("/resumableBulk")
     public ResponseEntity<String> resumableBulk(@RequestParam(name = "enrich", defaultValue = "false") boolean enrich) {
-        if (!Files.isDirectory(imgDir)) {
-            return ResponseEntity.badRequest().body("Image folder not found: " + imgDir.toAbsolutePath()); }
+        BulkJob job;
+        try {
+            job = newJob(enrich);
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().body("Error scanning images: " + e.getMessage());
+        }
+        if (job == null) return ResponseEntity.badRequest().body("Image folder not found: " + imgDir.toAbsolutePath());
+        if (!activeJob.compareAndSet(null, job)) {
+            journal.delete(job.id);
+            BulkJob running = activeJob.get();
+            return ResponseEntity.status(409).body("Bulk job " + (running == null ? "" : running.id + " ") + "is already running.");
+        }
+        jobs.put(job.id, job);
+        try {
+            runJob(job);
+        } finally {
+            activeJob.set(null);
+        }
+
+        // Result summary builder
+        StringBuilder sb = new StringBuilder();
+        sb.append("Resumable bulk finished. ")
+                .append("Success=").append(job.success.get())
+                .append(" Failed=").append(job.failed.get())
+                .append(" Skipped=").append(job.skipped)
+                .append(" Job=").append(job.id);
+        String lastStoppedReason = job.stoppedReason.get();
+        if (!lastStoppedReason.isBlank()) sb.append(" | Not succesful => ").append(lastStoppedReason);
+        else sb.append(" | COMPLETED! ");
+
+        return ResponseEntity.ok(sb.toString());
+    }
+
+    // submits the image folder as a background job and answers with its id right away
+    @PostMapping("/bulk/jobs")
+    public ResponseEntity<?> submitJob(@RequestParam(name = "enrich", defaultValue = "false") boolean enrich) {
+        BulkJob running = activeJob.get();
+        if (running != null) return jobRunning(running);
+        BulkJob job;
+        try {
+            job = newJob(enrich);
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().body(Map.of("error", "JobNotCreated", "message", String.valueOf(e.getMessage())));
+        }
+        if (job == null) {
+            return ResponseEntity.badRequest().body(Map.of("error", "MissingFolder", "message", "Image folder not found: " + imgDir));
+        }
+        if (!startInBackground(job)) {
+            // never listed and never started, nothing of it may be resumed later
+            journal.delete(job.id);
+            return jobRunning(activeJob.get());
+        }
+        return ResponseEntity.accepted().body(job.status());
+    }
+
+    // newest first
+    @GetMapping("/bulk/jobs")
+    public List<BulkJobStatus> listJobs() {
+        return jobs.values().stream()
+                .map(BulkJob::status)
+                .sorted(Comparator.comparing(BulkJobStatus::createdAt).reversed())
+                .toList();
+    }
+
+    @GetMapping("/bulk/jobs/{id}")
+    public ResponseEntity<BulkJobStatus> jobStatus(@PathVariable String id) {
+        BulkJob job = jobs.get(id);
+        return job == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(job.status());
+    }
+
+    // continues a stopped, cancelled or cut off job with the files it has not saved yet, failed ones are tried again
+    @PostMapping("/bulk/jobs/{id}/resume")
+    public ResponseEntity<?> resumeJob(@PathVariable String id) {
+        BulkJob job = jobs.get(id);
+        if (job == null) return ResponseEntity.notFound().build();
+        if (!startInBackground(job)) return jobRunning(activeJob.get());
+        return ResponseEntity.accepted().body(job.status());
+    }
+
+    // files already in a stage finish it, the rest are left for a resume. a cancelled job is not resumed on restart
+    @DeleteMapping("/bulk/jobs/{id}")
+    public ResponseEntity<BulkJobStatus> cancelJob(@PathVariable String id) {
+        BulkJob job = jobs.get(id);
+        if (job == null) return ResponseEntity.notFound().build();
+        if (activeJob.get() == job) {
+            job.stop(CancelledReason);
+        } else if (job.state != BulkJobState.FINISHED && job.state != BulkJobState.CANCELLED) {
+            job.stoppedReason.set(CancelledReason);
+            job.end(BulkJobState.CANCELLED, "cancelled");
+        }
+        return ResponseEntity.ok(job.status());
+    }
+
+    // jobs found in the journal are listed again, one that was cut off by a crash or restart carries on by itself
+    @EventListener(ApplicationReadyEvent.class)
+    public void resumeJobs() {
+        BulkJob interrupted = null;
+        for (BulkJobJournal.Replay r : journal.replayAll()) {
+            BulkJob job = new BulkJob(r.jobId(), r.enrich(), r.files(), r.skipped(), r.createdAt(), r.progress(), journal);
+            // a job that never started was not cut off by anything, it waits for an explicit resume
+            job.state = !r.started() ? BulkJobState.QUEUED : switch (r.ended() == null ? "" : r.ended()) {
+                case "finished" -> BulkJobState.FINISHED;
+                case "cancelled" -> BulkJobState.CANCELLED;
+                case "stopped" -> BulkJobState.STOPPED;
+                default -> BulkJobState.INTERRUPTED;
+            };
+            job.stoppedReason.set(r.endReason() == null ? "" : r.endReason());
+            job.finishedAt = r.endedAt();
+            jobs.put(job.id, job);
+            if (job.state == BulkJobState.INTERRUPTED) interrupted = job;
+        }
+        if (interrupted != null && resumeJobsOnStart) {
+            System.err.println("[BulkJob] resuming " + interrupted.id + " after a restart");
+            startInBackground(interrupted);
+        }
+    }
+
+    // the running job may have finished in the meantime, the answer is a 409 either way
+    private ResponseEntity<Map<String, Object>> jobRunning(BulkJob running) {
+        if (running == null) return ResponseEntity.status(409).body(Map.of("error", "BulkJobRunning", "message", "a bulk job is already running"));
+        return ResponseEntity.status(409).body(Map.of(
+                "error", "BulkJobRunning", "message", "a bulk job is already running", "status", running.status()));
+    }
+
+    // lists the supported images of the folder and journals them as a new job, null when the folder is missing.
+    // the job is only listed once it holds the active slot, a caller that does not get the slot deletes its journal
+    private BulkJob newJob(boolean enrich) throws Exception {
+        if (!Files.isDirectory(imgDir)) return null;
 
         Set<String> exts = Set.of(".jpg", ".jpeg", ".png");
-        int success = 0, failed = 0, skipped = 0;
-        String lastStoppedReason = "";
+        List<String> images = new ArrayList<>();
+        int skipped = 0;
 
         try (Stream<Path> paths = Files.list(imgDir)) {
-            outer:
             for (Path img : (Iterable<Path>) paths.sorted()::iterator) {
-                String fileName = img.getFileName().toString();
-                String lcName = fileName.toLowerCase(Locale.ROOT);
+                String lcName = img.getFileName().toString().toLowerCase(Locale.ROOT);
                 boolean supported = exts.stream().anyMatch(lcName::endsWith);
                 if (!supported) { skipped++; continue; }
+                images.add(img.getFileName().toString());
+            }
+        }
+
+        String id = UUID.randomUUID().toString();
+        BulkJobJournal.Entry header = BulkJobJournal.Entry.job(images, enrich, skipped);
+        return new BulkJob(id, enrich, images, skipped, header.at(), journal.create(id, header), journal);
+    }
+
+    private boolean startInBackground(BulkJob job) {
+        if (!activeJob.compareAndSet(null, job)) return false;
+        jobs.put(job.id, job);
+        Thread t = new Thread(() -> {
+            try {
+                runJob(job);
+            } catch (Exception e) {
+                System.err.println("[BulkJob] " + job.id + " failed: " + e);
+            } finally {
+                activeJob.set(null);
+            }
+        }, "bulk-job-" + job.id.substring(0, 8));
+        t.setDaemon(true);
+        t.start();
+        return true;
+    }
+
+    // files go through three bounded stages (storage upload, vision enrichment, save) that run in parallel.
+    // saved files are left out, so a resumed job only works on what is left
+    private void runJob(BulkJob job) {
+        List<BulkItem> todo = new ArrayList<>();
+        for (String file : job.files) {
+            BulkJobJournal.Progress progress = job.progress.get(file);
+            if (progress.saved()) continue;
+            progress.retry();
+            todo.add(new BulkItem(imgDir.resolve(file), job.id, progress));
+        }
+        job.begin(todo.size());
 
+        try (BoundedStage uploadStage = new BoundedStage("bulk-upload", bulkUploadConcurrency, bulkStageQueue);
+             BoundedStage enrichStage = new BoundedStage("bulk-enrich", bulkEnrichConcurrency, bulkStageQueue);
+             BoundedStage saveStage = new BoundedStage("bulk-save", bulkSaveConcurrency, bulkStageQueue)) {
+            for (BulkItem item : todo) {
+                if (job.stopped()) { job.settle(item); continue; }
+                submit(uploadStage, job, item, () -> bulkUpload(job, item, job.enrich ? enrichStage : saveStage, saveStage));
+            }
+            awaitFiles(job);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            job.stop("interrupted");
+        }
+
+        String reason = job.stoppedReason.get();
+        if (reason.equals(CancelledReason)) job.end(BulkJobState.CANCELLED, "cancelled");
+        else if (!reason.isBlank()) job.end(BulkJobState.STOPPED, "stopped");
+        else job.end(BulkJobState.FINISHED, "finished");
+    }
+
+    // runs one stage of an item. whatever the stage throws fails the item, so the job never waits for a file no stage holds
+    private void submit(BoundedStage stage, BulkJob job, BulkItem item, Runnable body) {
+        try {
+            stage.submit(() -> {
                 try {
-                    // file is uplaoded to firebase storage
-                    byte[] data = Files.readAllBytes(img);
-                    String bucket = FirebaseConfig.BUCKET;
-                    String cloudName = "clothing/" + UUID.randomUUID() + "-" + fileName;
-                    String token = UUID.randomUUID().toString();
-
-                    BlobId blobId = BlobId.of(bucket, cloudName);
-                    String contentType = Optional.ofNullable(Files.probeContentType(img)).orElse("image/jpeg");
-                    BlobInfo blobInfo = BlobInfo.newBuilder(blobId)
-                            .setContentType(contentType)
-                            .setMetadata(Map.of("firebaseStorageDownloadTokens", token))
-                            .build();
-                    storage.create(blobInfo, data);
-                    String encoded = URLEncoder.encode(cloudName, StandardCharsets.UTF_8);
-                    String publicUrl = "https://firebasestorage.googleapis.com/v0/b/" + bucket + "/o/" + encoded + "?alt=media&token=" + token;
-                    URL signedUrl = storage.signUrl(blobInfo, 1, TimeUnit.DAYS, Storage.SignUrlOption.withV4Signature());
-                    String title;
-                    String llmTags = "";
-                    String altTextValue = "";
-                    if (enrich) {
-                        try {
-                            String t = callWithRetryStopOn429(() -> chat.generateTitleForImage(signedUrl.toString()), "title", 5, 500, 6000);
-                            title = chooseTitle(t, stripExt(fileName));
-                            llmTags = callWithRetryStopOn429(() -> chat.generateTagsForImage(signedUrl.toString()), "tags", 5, 500, 6000);
-                            try {
-                                altTextValue = callWithRetryStopOn429(() -> altText.describe(signedUrl.toString()), "alt", 3, 400, 4000);
-                            } catch (RateLimitHit rl) { lastStoppedReason = rl.getMessage(); break outer; }
-                            if (altTextValue.isBlank() && !llmTags.isBlank()) {
-                                altTextValue = Arrays.stream(llmTags.split(",")).map(String::trim).filter(s -> !s.isBlank()).limit(6).reduce((a, b) -> a + " " + b).orElse("");
-                            }
-                            if (llmTags.isBlank() || altTextValue.isBlank()) {
-                                failed++;
-                                System.err.println(" Enrichment failed => " + fileName + " the tags or alt are blank.");
-                                continue;
-                            }
-                        } catch (RateLimitHit rl) {
-                            lastStoppedReason = rl.getMessage();
-                            break;}}
-                    else {
-                        title = stripExt(fileName);
-                    }
-                    // ssave the post
-                    Post p = new Post(null, (enrich ? (title == null || title.isBlank() ? stripExt(fileName) : title) : stripExt(fileName)),
-                            publicUrl, LocalDate.now().toString(), llmTags, altTextValue);
-                    posts.savePost(p);
-                    try { Files.delete(img); } catch (Exception del) {
-                        System.err.println(" Saved but has not deleted the file succesfuly: " + img + " -> " + del.getMessage());
-                    }
-                    success++;
-                    try { Thread.sleep(enrich ? 400 : 100); } catch (InterruptedException ignored) {}
-                } catch (Exception inner) {
-                    failed++;
-                    System.err.println(" error =>" + fileName + " / " + inner.getMessage());}
+                    body.run();
+                } catch (RuntimeException | Error e) {
+                    job.fail(item, String.valueOf(e));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            job.fail(item, String.valueOf(e));
+        }
+    }
+
+    // waits until every file is settled, a job where none is for bulkStallTimeoutMs is stopped
+    private void awaitFiles(BulkJob job) throws InterruptedException {
+        long left = job.done.getCount();
+        long movedAt = System.currentTimeMillis();
+        while (!job.done.await(1, TimeUnit.SECONDS)) {
+            long now = System.currentTimeMillis();
+            if (job.done.getCount() != left) {
+                left = job.done.getCount();
+                movedAt = now;
+            } else if (now - movedAt > bulkStallTimeoutMs) {
+                System.err.println("[BulkJob] " + job.id + " stalled with " + left + " files unsettled");
+                job.stop("stalled, no file finished for " + bulkStallTimeoutMs + " ms");
+                return;
             }
         }
-        catch (Exception e) {
-            return ResponseEntity.internalServerError().body("Error scanning images: " + e.getMessage());
+    }
+
+    // stage 1: the file is uploaded to firebase storage and a signed url is created for the vision calls.
+    // object names and the download token come from the job id and file name, so uploading a file again after a crash
+    // overwrites the same objects; a file uploaded by an earlier run of the job is not uploaded at all
+    private void bulkUpload(BulkJob job, BulkItem item, BoundedStage next, BoundedStage saveStage) {
+        if (job.stopped()) { job.settle(item); return; }
+        try {
+            String bucket = FirebaseConfig.BUCKET;
+            BulkJobJournal.Entry uploaded = item.progress.uploaded();
+            BulkJobJournal.Entry enriched = item.progress.enriched();
+            Optional<EnrichmentCache.Entry> cached = Optional.empty();
+            String aiObject;
+
+            if (uploaded != null) {
+                item.publicUrl = uploaded.publicUrl();
+                item.thumbnailUrl = uploaded.thumbnailUrl();
+                item.contentHash = uploaded.contentHash();
+                aiObject = uploaded.aiObject();
+                if (job.enrich && enriched == null) cached = enrichmentCache.get(item.contentHash);
+                // the copy is gone once an earlier run finished enriching the file, the vision calls read the original then
+                if (aiObject != null && (enriched != null || cached.isPresent() || storage.get(BlobId.of(bucket, aiObject)) == null)) {
+                    aiObject = null;
+                }
+            } else {
+                if (!Files.exists(item.img)) throw new IllegalStateException("source file is gone: " + item.img);
+                String contentType = Optional.ofNullable(Files.probeContentType(item.img)).orElse("image/jpeg");
+                BlobInfo blobInfo = BlobInfo.newBuilder(BlobId.of(bucket, item.objectName))
+                        .setContentType(contentType)
+                        .setMetadata(Map.of("firebaseStorageDownloadTokens", item.token))
+                        .build();
+                String contentHash = metrics.time("create", () -> streamToStorage(blobInfo, Files.newInputStream(item.img)));
+                item.publicUrl = downloadUrl(bucket, item.objectName, item.token);
+
+                Optional<ImageDerivativeService.Derivatives> derived = metrics.time("derive", () -> derivatives.derive(Files.newInputStream(item.img)));
+                item.thumbnailUrl = metrics.time("thumbnail", () -> derived.map(d -> storeThumbnail(bucket, item.objectName, item.token, d)).orElse(null));
+                item.contentHash = contentHash;
+
+                // seen this photo before, the vision stage is skipped and no copy for it is needed
+                if (job.enrich) cached = enrichmentCache.get(contentHash);
+                aiObject = (job.enrich && cached.isEmpty())
+                        ? metrics.time("ai_copy", () -> aiCopy(bucket, item.objectName, blobInfo, derived)) : null;
+                job.checkpoint(BulkJobJournal.Entry.uploaded(item.fileName, item.publicUrl, item.thumbnailUrl, contentHash, aiObject));
+            }
+
+            if (job.enrich) {
+                if (enriched != null) {
+                    item.title = chooseTitle(enriched.title(), stripExt(item.fileName));
+                    item.llmTags = enriched.llmTags();
+                    item.altText = enriched.altText();
+                    submit(saveStage, job, item, () -> bulkSave(job, item));
+                    return;
+                }
+                if (cached.isPresent()) {
+                    item.title = chooseTitle(cached.get().title(), stripExt(item.fileName));
+                    item.llmTags = cached.get().llmTags();
+                    item.altText = cached.get().altText();
+                    submit(saveStage, job, item, () -> bulkSave(job, item));
+                    return;
+                }
+                item.aiObject = aiObject;
+                String signObject = aiObject != null ? aiObject : item.objectName;
+                item.signedUrl = metrics.time("sign", () -> signedUrl(bucket, signObject));
+            }
+        } catch (Exception e) {
+            job.fail(item, e.getMessage());
+            return;
         }
+        if (job.enrich) submit(next, job, item, () -> bulkEnrich(job, item, saveStage));
+        else submit(next, job, item, () -> bulkSave(job, item));
+    }
 
-        // Result summary builder
-        StringBuilder sb = new StringBuilder();
-        sb.append("Resumable bulk finished. ")
-                .append("Success=").append(success)
-                .append(" Failed=").append(failed)
-                .append(" Skipped=").append(skipped);
-        if (!lastStoppedReason.isBlank()) sb.append(" | Not succesful => ").append(lastStoppedReason);
-        else sb.append(" | COMPLETED! ");
+    // stage 2: title, tags and alt text, the whole run stops on the first rate limit
+    private void bulkEnrich(BulkJob job, BulkItem item, BoundedStage next) {
+        if (job.stopped()) { job.settle(item); return; }
+        String aiTitle;
+        try {
+            String signedUrl = item.signedUrl;
+            if (combinedVision) {
+                ChatGPTService.VisionResult v = callStopOn429(() -> chat.enrichImage(signedUrl, combinedCaption),
+                        ChatGPTService.VisionResult::isEmpty, "vision");
+                aiTitle = v.title();
+                item.llmTags = v.tags();
+                item.altText = combinedCaption ? v.caption()
+                        : callStopOn429(() -> altText.describe(signedUrl), "alt");
+            } else {
+                aiTitle = callStopOn429(() -> chat.generateTitleForImage(signedUrl), "title");
+                item.llmTags = callStopOn429(() -> chat.generateTagsForImage(signedUrl), "tags");
+                item.altText = callStopOn429(() -> altText.describe(signedUrl), "alt");
+            }
+            item.title = chooseTitle(aiTitle, stripExt(item.fileName));
+        } catch (RateLimitHit rl) {
+            // the copy stays for the run that resumes the job
+            job.stop(rl.getMessage());
+            job.settle(item);
+            return;
+        }
+        dropAiCopy(FirebaseConfig.BUCKET, item.aiObject, item.objectName);
+        if (item.altText.isBlank() && !item.llmTags.isBlank()) {
+            item.altText = Arrays.stream(item.llmTags.split(",")).map(String::trim).filter(s -> !s.isBlank()).limit(6).reduce((a, b) -> a + " " + b).orElse("");
+        }
+        if (item.llmTags.isBlank() || item.altText.isBlank()) {
+            System.err.println(" Enrichment failed => " + item.fileName + " the tags or alt are blank.");
+            job.fail(item, "the tags or alt are blank");
+            return;
+        }
+        enrichmentCache.put(item.contentHash, new EnrichmentCache.Entry(aiTitle, item.llmTags, item.altText));
+        job.checkpoint(BulkJobJournal.Entry.enriched(item.fileName, aiTitle, item.llmTags, item.altText));
+        submit(next, job, item, () -> bulkSave(job, item));
+    }
 
-        return ResponseEntity.ok(sb.toString());
+    // stage 3: the post is queued for the next firestore batch under an id derived from the job and file name, saving it
+    // twice overwrites the same document. the source file is removed once the batch is written and indexed
+    private void bulkSave(BulkJob job, BulkItem item) {
+        String title = (job.enrich && item.title != null && !item.title.isBlank()) ? item.title : stripExt(item.fileName);
+        Post p = new Post(item.postId, title, item.publicUrl, LocalDate.now().toString(), item.llmTags, item.altText);
+        p.setThumbnailURL(item.thumbnailUrl);
+        posts.savePostBatched(p).whenComplete((id, err) -> {
+            if (err != null) {
+                job.fail(item, err.getMessage());
+                return;
+            }
+            try {
+                job.checkpoint(BulkJobJournal.Entry.saved(item.fileName, id));
+                try { Files.deleteIfExists(item.img); } catch (Exception del) {
+                    System.err.println(" Saved but has not deleted the file succesfuly: " + item.img + " -> " + del.getMessage());
+                }
+            } finally {
+                if (job.settle(item)) {
+                    job.success.incrementAndGet();
+                    job.processed.incrementAndGet();
+                }
+            }
+        });
+    }
+
+    public enum BulkJobState { QUEUED, RUNNING, FINISHED, STOPPED, CANCELLED, INTERRUPTED }
+
+    // saved, failed and pending cover every file of the job, itemsPerSecond is the throughput of the current or last run
+    public record BulkJobStatus(String id, BulkJobState state, boolean enrich, int total, int saved, int failed, int pending,
+                                int skipped, double itemsPerSecond, String createdAt, String startedAt, String finishedAt,
+                                String stoppedReason) {}
+
+    private static final String CancelledReason = "cancelled";
+
+    // one submitted folder of images, the journal holds its progress and the counters cover the current run
+    private static class BulkJob {
+        final String id;
+        final boolean enrich;
+        final List<String> files;
+        final int skipped;
+        final String createdAt;
+        final Map<String, BulkJobJournal.Progress> progress;
+        final BulkJobJournal journal;
+
+        volatile BulkJobState state = BulkJobState.QUEUED;
+        volatile String startedAt;
+        volatile String finishedAt;
+        volatile long startedNanos;
+        volatile long endedNanos;
+        volatile CountDownLatch done = new CountDownLatch(0);
+        final AtomicInteger success = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicInteger processed = new AtomicInteger();
+        final AtomicReference<String> stoppedReason = new AtomicReference<>("");
+
+        BulkJob(String id, boolean enrich, List<String> files, int skipped, String createdAt,
+                Map<String, BulkJobJournal.Progress> progress, BulkJobJournal journal) {
+            this.id = id;
+            this.enrich = enrich;
+            this.files = files;
+            this.skipped = skipped;
+            this.createdAt = createdAt;
+            this.progress = progress;
+            this.journal = journal;
+        }
+
+        void begin(int files) {
+            done = new CountDownLatch(files);
+            success.set(0);
+            failed.set(0);
+            processed.set(0);
+            stoppedReason.set("");
+            startedAt = Instant.now().toString();
+            finishedAt = null;
+            startedNanos = System.nanoTime();
+            endedNanos = 0;
+            state = BulkJobState.RUNNING;
+            journal.append(id, progress, BulkJobJournal.Entry.run("started", null));
+        }
+
+        void end(BulkJobState to, String event) {
+            String reason = stoppedReason.get();
+            journal.append(id, progress, BulkJobJournal.Entry.run(event, reason.isBlank() ? null : reason));
+            endedNanos = System.nanoTime();
+            finishedAt = Instant.now().toString();
+            state = to;
+        }
+
+        void checkpoint(BulkJobJournal.Entry e) { journal.append(id, progress, e); }
+
+        boolean stopped() { return !stoppedReason.get().isBlank(); }
+
+        void stop(String reason) { stoppedReason.compareAndSet("", reason); }
+
+        // every item is settled exactly once, by fail() or settle(), and only that counts it down
+        void fail(BulkItem item, String msg) {
+            if (!item.settled.compareAndSet(false, true)) return;
+            try {
+                failed.incrementAndGet();
+                processed.incrementAndGet();
+                System.err.println(" error =>" + item.fileName + " / " + msg);
+                checkpoint(BulkJobJournal.Entry.failed(item.fileName, String.valueOf(msg)));
+            } finally {
+                done.countDown();
+            }
+        }
+
+        // for an item that was saved or left behind by a stopped run, false when it was settled already
+        boolean settle(BulkItem item) {
+            if (!item.settled.compareAndSet(false, true)) return false;
+            done.countDown();
+            return true;
+        }
+
+        BulkJobStatus status() {
+            int saved = 0, failedFiles = 0;
+            for (BulkJobJournal.Progress p : progress.values()) {
+                if (p.saved()) saved++;
+                else if (p.error() != null) failedFiles++;
+            }
+            double rate = 0;
+            if (startedNanos != 0) {
+                long until = endedNanos != 0 ? endedNanos : System.nanoTime();
+                double seconds = Math.max(1e-3, (until - startedNanos) / 1e9);
+                rate = Math.round(processed.get() / seconds * 100) / 100.0;
+            }
+            String reason = stoppedReason.get();
+            return new BulkJobStatus(id, state, enrich, files.size(), saved, failedFiles, files.size() - saved - failedFiles,
+                    skipped, rate, createdAt, startedAt, finishedAt, reason.isBlank() ? null : reason);
+        }
+    }
+
+    // one image moving through the stages
+    private static class BulkItem {
+        final Path img;
+        final String fileName;
+        final BulkJobJournal.Progress progress;
+        // the same for every run of the job, a repeated step overwrites what an earlier attempt left behind
+        final String postId;
+        final String objectName;
+        final String token;
+        final AtomicBoolean settled = new AtomicBoolean();
+        String publicUrl;
+        String signedUrl;
+        // the downscaled copy the vision calls read, null when they read the original
+        String aiObject;
+        String thumbnailUrl;
+        String contentHash;
+        String title;
+        String llmTags = "";
+        String altText = "";
+
+        BulkItem(Path img, String jobId, BulkJobJournal.Progress progress) {
+            this.img = img;
+            this.fileName = img.getFileName().toString();
+            this.progress = progress;
+            this.postId = UUID.nameUUIDFromBytes((jobId + "/" + fileName).getBytes(StandardCharsets.UTF_8)).toString();
+            this.objectName = "clothing/" + postId + "-" + fileName;
+            this.token = UUID.nameUUIDFromBytes((jobId + "/" + fileName + "/token").getBytes(StandardCharsets.UTF_8)).toString();
+        }
     }
 }
@@ -0,0 +1,143 @@
+package com.example.demo.controllers;
+
+import com.example.demo.services.ImageCache;
+import com.example.demo.services.ImageProxyService;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.bind.annotation.*;
+
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+
+// Serves the images of a post from the node's disk cache, so product cards stop loading them from Firebase Storage.
+// Bodies go out through tomcat's sendfile when the connector supports it, otherwise through FileChannel.transferTo.
+@RestController
+@RequestMapping("/images/posts")
+public class ImageProxyController {
+
+    private static final String SendfileSupport = "org.apache.tomcat.sendfile.support";
+    private static final String SendfileFile = "org.apache.tomcat.sendfile.filename";
+    private static final String SendfileStart = "org.apache.tomcat.sendfile.start";
+    private static final String SendfileEnd = "org.apache.tomcat.sendfile.end";
+
+    private final ImageProxyService proxy;
+
+    // an image never changes under its url, browsers and cdns may keep it this long
+    @Value("${images.proxy.max-age-seconds:86400}")
+    private long maxAgeSeconds;
+
+    public ImageProxyController(ImageProxyService proxy) {
+        this.proxy = proxy;
+    }
+
+    // size is original (default), thumb or one of images.proxy.sizes. supports If-None-Match and a single byte range
+    @GetMapping("/{postId}")
+    public void image(@PathVariable String postId,
+                      @RequestParam(defaultValue = "original") String size,
+                      HttpServletRequest req, HttpServletResponse res) throws Exception {
+        Optional<ImageCache.Cached> found;
+        try {
+            found = proxy.image(postId, size);
+        } catch (IllegalArgumentException e) {
+            res.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return;
+        }
+        if (found.isEmpty()) {
+            res.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        ImageCache.Cached img = found.get();
+        String etag = "\"" + img.etag() + "\"";
+        res.setHeader(HttpHeaders.ETAG, etag);
+        res.setHeader(HttpHeaders.CACHE_CONTROL, "public, max-age=" + maxAgeSeconds);
+        res.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (matches(req.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+            res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        long length = img.length();
+        long start = 0, end = length - 1;
+        String range = req.getHeader(HttpHeaders.RANGE);
+        String ifRange = req.getHeader(HttpHeaders.IF_RANGE);
+        // a range of an older version is answered with the whole current image
+        if (range != null && (ifRange == null || ifRange.trim().equals(etag))) {
+            long[] r = parseRange(range, length);
+            if (r != null && r.length == 0) {
+                res.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+                res.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+            if (r != null) {
+                start = r[0];
+                end = r[1];
+                res.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                res.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + length);
+            }
+        }
+        res.setContentType(img.contentType());
+        res.setContentLengthLong(end - start + 1);
+        if ("HEAD".equals(req.getMethod()) || length == 0) return;
+
+        if (Boolean.TRUE.equals(req.getAttribute(SendfileSupport))) {
+            req.setAttribute(SendfileFile, img.file().toString());
+            req.setAttribute(SendfileStart, start);
+            req.setAttribute(SendfileEnd, end + 1);
+            return;
+        }
+        try (FileChannel in = FileChannel.open(img.file(), StandardOpenOption.READ)) {
+            WritableByteChannel out = Channels.newChannel(res.getOutputStream());
+            for (long pos = start; pos <= end; ) {
+                long sent = in.transferTo(pos, end + 1 - pos, out);
+                if (sent <= 0) break;
+                pos += sent;
+            }
+        }
+    }
+
+    // hit and miss counts of the image cache and how much of its budget is used
+    @GetMapping("/cache/stats")
+    public ImageCache.Stats cacheStats() {
+        return proxy.stats();
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) return false;
+        for (String candidate : ifNoneMatch.split(",")) {
+            String c = candidate.trim();
+            if (c.equals("*") || c.equals(etag) || c.equals("W/" + etag)) return true;
+        }
+        return false;
+    }
+
+    // {start, end} of a single "bytes=" range, an empty array when it can not be satisfied and null when the header is
+    // malformed or asks for several ranges, which is answered with the whole image
+    private static long[] parseRange(String header, long length) {
+        String h = header.trim();
+        if (!h.startsWith("bytes=") || h.contains(",")) return null;
+        String spec = h.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) return null;
+        try {
+            String from = spec.substring(0, dash).trim(), to = spec.substring(dash + 1).trim();
+            if (from.isEmpty()) {
+                // the last n bytes
+                long n = Long.parseLong(to);
+                if (n <= 0 || length == 0) return new long[0];
+                return new long[]{Math.max(0, length - n), length - 1};
+            }
+            long start = Long.parseLong(from);
+            long end = to.isEmpty() ? length - 1 : Math.min(Long.parseLong(to), length - 1);
+            if (start >= length) return new long[0];
+            if (end < start) return null;
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
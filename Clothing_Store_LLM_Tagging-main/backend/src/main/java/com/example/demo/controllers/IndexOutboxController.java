@@ -0,0 +1,21 @@
+package com.example.demo.controllers;
+
+import com.example.demo.services.IndexOutbox;
+import org.springframework.web.bind.annotation.*;
+
+// Shows how far the search index is behind the saved posts.
+@RestController
+@RequestMapping("/admin/outbox")
+public class IndexOutboxController {
+
+    private final IndexOutbox outbox;
+
+    public IndexOutboxController(IndexOutbox outbox) {
+        this.outbox = outbox;
+    }
+
+    @GetMapping
+    public IndexOutbox.Status status() {
+        return outbox.status();
+    }
+}
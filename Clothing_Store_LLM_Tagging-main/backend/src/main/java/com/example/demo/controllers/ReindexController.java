@@ -0,0 +1,32 @@
+package com.example.demo.controllers;
+
+import com.example.demo.services.ReindexService;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+// Starts and watches a full rebuild of the search index from Firestore.
+@RestController
+@RequestMapping("/admin/reindex")
+public class ReindexController {
+
+    private final ReindexService reindexService;
+
+    public ReindexController(ReindexService reindexService) {
+        this.reindexService = reindexService;
+    }
+
+    // resumes an interrupted run from its checkpoint unless fresh=true
+    @PostMapping
+    public ResponseEntity<?> start(@RequestParam(defaultValue = "false") boolean fresh) {
+        if (!reindexService.start(fresh)) {
+            return ResponseEntity.status(409).body(java.util.Map.of(
+                    "error", "ReindexRunning", "message", "a reindex is already running", "status", reindexService.status()));
+        }
+        return ResponseEntity.accepted().body(reindexService.status());
+    }
+
+    @GetMapping
+    public ReindexService.Status status() {
+        return reindexService.status();
+    }
+}
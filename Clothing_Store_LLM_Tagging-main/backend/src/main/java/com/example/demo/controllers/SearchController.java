@@ -1,6 +1,10 @@
 package com.example.demo.controllers;
 
+import com.example.demo.services.QueryGuard;
+import com.example.demo.services.SearchResultCache;
 import com.example.demo.services.SearchService;
+import com.example.demo.services.SuggestService;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
@@ -8,25 +12,57 @@ import org.springframework.web.bind.annotation.*;
 @RequestMapping("/search")
 public class SearchController {
     private final SearchService searchService;
+    private final SearchResultCache searchCache;
+    private final SuggestService suggestService;
 
-    public SearchController(SearchService searchService) {
+    public SearchController(SearchService searchService, SearchResultCache searchCache, SuggestService suggestService) {
         this.searchService = searchService;
+        this.searchCache = searchCache;
+        this.suggestService = suggestService;
     }
 
     @GetMapping
     public ResponseEntity<?> search(
             @RequestParam String q,
             @RequestParam(defaultValue = "llm") String mode,
-            @RequestParam(defaultValue = "20") int limit) {
+            @RequestParam(defaultValue = "20") int limit,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) java.util.List<String> tag,
+            @RequestParam(defaultValue = "10") int facets,
+            @RequestParam(required = false) java.util.List<String> fields) {
         try {
-            return ResponseEntity.ok(searchService.search(q, mode, limit));
+            SearchService.SearchPage page = searchService.search(q, mode, limit, cursor, tag, facets, fields);
+            // the body is still a normal page, the header tells clients it was cut short by the time budget
+            return page.partial()
+                    ? ResponseEntity.ok().header("X-Search-Partial", "true").body(page)
+                    : ResponseEntity.ok(page);
+        } catch (QueryGuard.SearchBusyException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(
+                    java.util.Map.of("error", "Busy", "message", e.getMessage()));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(
+                    java.util.Map.of("error", "BadRequest", "message", e.getMessage()));
         } catch (Exception e) {
             return ResponseEntity.internalServerError().body(
                     java.util.Map.of("error", e.getClass().getSimpleName(), "message", e.getMessage()));
         }
     }
 
+    // typeahead for the search box, titles and tags that contain words starting with q
+    @GetMapping("/suggest")
+    public ResponseEntity<?> suggest(
+            @RequestParam String q,
+            @RequestParam(defaultValue = "8") int limit) {
+        try {
+            return ResponseEntity.ok(suggestService.suggest(q, limit));
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().body(
+                    java.util.Map.of("error", e.getClass().getSimpleName(), "message", e.getMessage()));
+        }
+    }
 
-
-
+    @GetMapping("/cache/stats")
+    public SearchResultCache.Stats cacheStats() {
+        return searchCache.stats();
+    }
 }
@@ -1,20 +1,25 @@
 package com.example.demo.services;
 
+import com.example.demo.util.AdaptiveRateLimiter;
+import com.example.demo.util.RateLimitedException;
 import com.example.demo.util.JSON_Util;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.net.URI;
 import java.net.http.HttpClient;
-import java.net.http.HttpHeaders;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
-import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 
 @Service
 public class AltTextService {
@@ -33,11 +38,30 @@ public class AltTextService {
     private static final int MaxRetries = 6;
     private static final long StartMiliseconds = 500;
     private static final long MaximumMiliseconds = 6_000;
-    private static final long SleepMiliseconds = 60_000;
+    private static final long MaxQueueMiliseconds = 600_000;
+
+    private final AdaptiveRateLimiter limiter;
+    private final IngestMetrics metrics;
+
+    public AltTextService(@Qualifier("azureRateLimiter") AdaptiveRateLimiter limiter, IngestMetrics metrics) {
+        this.limiter = limiter;
+        this.metrics = metrics;
+        metrics.bind(limiter);
+    }
 
 
 // describes using the azure computer vision
     public String describe(String imageUrl) {
+        return RateLimitedException.join(describeAsync(imageUrl));
+    }
+
+    // non-blocking version, the dense captions request only goes out when the plain caption came back empty
+    public CompletableFuture<String> describeAsync(String imageUrl) {
+        return describeAsync(imageUrl, ChatGPTService.NoDeadline);
+    }
+
+    // nothing is sent or retried after the deadline (epoch ms)
+    public CompletableFuture<String> describeAsync(String imageUrl, long deadline) {
         try {
             // Azure computer vision is called with the help of the "caption" request
             String apiUrl = endpoint
@@ -59,42 +83,55 @@ public class AltTextService {
                     .POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8))
                     .build();
 
-            HttpResponse<String> res = sendWithRetry(req, "azure-caption");
+            return sendWithRetryAsync(req, "azure-caption", deadline).thenCompose(res -> {
+                //error handler returns empty string if an error is encountered
+                if (res.statusCode() / 100 != 2) {
+                    System.err.println("Computer Vision error: " + res.statusCode() + " -> " + res.body());
+                    return CompletableFuture.completedFuture("");
+                }
 
-            //error handler returns empty string if an error is encountered
-            if (res.statusCode() / 100 != 2) {
-                System.err.println("Computer Vision error: " + res.statusCode() + " -> " + res.body());
+                JsonNode root = readJson(res.body());
+                String caption = root.path("captionResult").path("text").asText("");
+                if (caption != null && !caption.isBlank()) {
+                    return CompletableFuture.completedFuture(caption.trim());
+                }
+                return denseCaptionAsync(body, deadline);
+            }).exceptionally(e -> {
+                // a rate limit is passed on, the caller decides whether to stop
+                RateLimitedException rl = RateLimitedException.in(e);
+                if (rl != null) throw rl;
+                System.err.println("Azure Vision exception: " + messageOf(e));
                 return "";
-            }
-
-            JsonNode root = mapper.readTree(res.body());
-            String caption = root.path("captionResult").path("text").asText("");
-            if (caption != null && !caption.isBlank()) {
-                return caption.trim();
-            }
-
-
-            String denseCaption_API = endpoint
-                    + "/computervision/imageanalysis:analyze"
-                    + "?api-version=2024-02-01"
-                    + "&features=denseCaptions"
-                    + "&language=en";
-
-            HttpRequest denseCaptionsRequest = HttpRequest.newBuilder()
-                    .uri(URI.create(denseCaption_API))
-                    .timeout(Duration.ofSeconds(60))
-                    .header("Ocp-Apim-Subscription-Key", apiKey)
-                    .header("Content-Type", "application/json")
-                    .POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8))
-                    .build();
+            });
+        } catch (Exception e) {
+            System.err.println("Azure Vision exception: " + e.getMessage());
+            return CompletableFuture.completedFuture("");
+        }
+    }
 
-            HttpResponse<String> dcRes = sendWithRetry(denseCaptionsRequest, "azure-denseCaptions");
+    // fallback when the caption feature returned nothing
+    private CompletableFuture<String> denseCaptionAsync(String body, long deadline) {
+        String denseCaption_API = endpoint
+                + "/computervision/imageanalysis:analyze"
+                + "?api-version=2024-02-01"
+                + "&features=denseCaptions"
+                + "&language=en";
+
+        HttpRequest denseCaptionsRequest = HttpRequest.newBuilder()
+                .uri(URI.create(denseCaption_API))
+                .timeout(Duration.ofSeconds(60))
+                .header("Ocp-Apim-Subscription-Key", apiKey)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8))
+                .build();
+
+        return sendWithRetryAsync(denseCaptionsRequest, "azure-denseCaptions", deadline).thenApply(dcRes -> {
             if (dcRes.statusCode() / 100 != 2) {
                 System.err.println("Azure Vision denseCaptions error: " + dcRes.statusCode() + " -> " + dcRes.body());
                 return "";
             }
 
-            JsonNode denseCaptionsRoot = mapper.readTree(dcRes.body());
+            JsonNode denseCaptionsRoot = readJson(dcRes.body());
             //The caption is taken from densecapitons
             JsonNode items = denseCaptionsRoot.path("denseCaptionsResult").path("values");
             if (items.isArray() && items.size() > 0) {
@@ -103,78 +140,101 @@ public class AltTextService {
             }
 
             return "";
-        } catch (Exception e) {
-            System.err.println("Azure Vision exception: " + e.getMessage());
-            return "";
-        }
+        });
     }
 
-    // Send request with retry in case of rate limiting
-
-    private HttpResponse<String> sendWithRetry(HttpRequest req, String label) throws Exception {
-        long backoff = StartMiliseconds;
-
-        for (int attempt = 1; attempt <= MaxRetries; attempt++) {
-            try {
-                HttpResponse<String> res =
-                        http.send(req, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+    // Send request with retry in case of rate limiting, no thread is held while waiting.
+    // Attempts are scheduled for the slot the shared azure limiter hands out, a 429 pauses it for every caller and the
+    // request queues again without using up an attempt, until it has been waiting for MaxQueueMiliseconds, then it fails
+    // with a RateLimitedException.
+    // Past the deadline nothing is reserved or sent again.
+    private CompletableFuture<HttpResponse<String>> sendWithRetryAsync(HttpRequest req, String label, long deadline) {
+        return attemptAsync(req, label, 1, StartMiliseconds, System.currentTimeMillis(), deadline);
+    }
 
-                int code = res.statusCode();
-                String body = res.body();
+    private CompletableFuture<HttpResponse<String>> attemptAsync(HttpRequest req, String label, int attempt, long backoff, long queuedSince, long deadline) {
+        if (attempt > MaxRetries) {
+            return CompletableFuture.failedFuture(new RuntimeException("[Azure/" + label + "] exhausted retries."));
+        }
+        String provider = limiter.name();
+        long slot = limiter.reserveMillis(deadline - System.currentTimeMillis());
+        if (slot < 0) return deadlinePassed(label);
+        metrics.waited(provider, "limiter", slot);
+        return later(slot, () -> http.sendAsync(req, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8)))
+                .handle((res, err) -> {
+                    if (err != null) {
+                        System.err.println("[Azure/" + label + "] transport error: " + messageOf(err) +
+                                " | backing off " + backoff + "ms (attempt " + attempt + "/" + MaxRetries + ")");
+                        metrics.response(provider, "transport_error");
+                        if (System.currentTimeMillis() + backoff >= deadline) return deadlinePassed(label);
+                        metrics.retry(provider, "transport_error");
+                        metrics.waited(provider, "backoff", backoff);
+                        return later(backoff, () -> attemptAsync(req, label, attempt + 1, Math.min(MaximumMiliseconds, backoff * 2), queuedSince, deadline));
+                    }
+
+                    int code = res.statusCode();
+                    String body = res.body();
+                    boolean looks429 = code == 429 || (code / 100 != 2 && containsRateLimit(body));
+                    limiter.onResponse(looks429 ? 429 : code, res.headers());
+                    metrics.response(provider, looks429 ? "rate_limited" : IngestMetrics.outcomeOf(code));
 
 //if statement, returned if success
-                if (code / 100 == 2) return res;
-
-                // A 429 error code means rate limitation, this will trigger retry.
-                if (code == 429 || containsRateLimit(body)) {
-                    long sleepMs = retryAfterToMillis(res.headers()).orElse(SleepMiliseconds);
-                    System.err.println("[Azure/" + label + "] 429 rate limit. Sleeping ~" + (sleepMs / 1000) + "s (attempt " + attempt + "/" + MaxRetries + "). Body: " + truncate(body, 300));
-                    safeSleep(sleepMs);
-                    continue;
-                }
+                    if (code / 100 == 2) return CompletableFuture.completedFuture(res);
+
+                    // A 429 error code means rate limitation, the limiter has paused and this request queues again.
+                    if (looks429) {
+                        if (System.currentTimeMillis() - queuedSince > MaxQueueMiliseconds) {
+                            System.err.println("[Azure/" + label + "] 429, gave up after queueing " + (MaxQueueMiliseconds / 1000) + "s. Body: " + truncate(body, 300));
+                            return CompletableFuture.<HttpResponse<String>>failedFuture(new RateLimitedException(
+                                    "[Azure/" + label + "] still rate limited after queueing " + (MaxQueueMiliseconds / 1000) + "s"));
+                        }
+                        System.err.println("[Azure/" + label + "] 429 rate limit, queued behind the rate limiter (attempt " + attempt + "/" + MaxRetries + "). Body: " + truncate(body, 300));
+                        metrics.retry(provider, "rate_limited");
+                        return attemptAsync(req, label, attempt, backoff, queuedSince, deadline);
+                    }
+
+                    // 5xx — transient server error: exponential backoff
+                    if (code / 100 == 5) {
+                        System.err.println("[Azure/" + label + "] " + code + " server error. Backing off " + backoff + "ms (attempt " + attempt + "/" + MaxRetries + "). Body: " + truncate(body, 300));
+                        if (System.currentTimeMillis() + backoff >= deadline) return deadlinePassed(label);
+                        metrics.retry(provider, "server_error");
+                        metrics.waited(provider, "backoff", backoff);
+                        return later(backoff, () -> attemptAsync(req, label, attempt + 1, Math.min(MaximumMiliseconds, backoff * 2), queuedSince, deadline));
+                    }
+
+                    // Non-retriavlable if image size is too big or other 4xx error
+                    if (body != null && body.contains("InvalidImageSize")) {
+                        System.err.println("[Azure - " + label + " InvalidImageSize – the image is too large for this current model.");
+                    } else {
+                        System.err.println("Azure - " + label + " non-retriable " + code + ": " + truncate(body, 500));
+                    }
+                    return CompletableFuture.completedFuture(res);
+                })
+                .thenCompose(f -> f);
+    }
 
-                // 5xx — transient server error: exponential backoff
-                if (code / 100 == 5) {
-                    System.err.println("[Azure/" + label + "] " + code + " server error. Backing off " + backoff + "ms (attempt " + attempt + "/" + MaxRetries + "). Body: " + truncate(body, 300));
-                    safeSleep(backoff);
-                    backoff = Math.min(MaximumMiliseconds, backoff * 2);
-                    continue;
-                }
+    private static CompletableFuture<HttpResponse<String>> deadlinePassed(String label) {
+        return CompletableFuture.failedFuture(new TimeoutException("[Azure/" + label + "] deadline passed, not sent again"));
+    }
 
-                // Non-retriavlable if image size is too big or other 4xx error
-                if (body != null && body.contains("InvalidImageSize")) {
-                    System.err.println("[Azure - " + label + " InvalidImageSize – the image is too large for this current model.");
-                } else {
-                    System.err.println("Azure - " + label + " non-retriable " + code + ": " + truncate(body, 500));
-                }
-                return res;
+    // the next step runs after the delay on the shared delay scheduler instead of sleeping
+    private static <T> CompletableFuture<T> later(long delayMs, Supplier<CompletableFuture<T>> next) {
+        if (delayMs <= 0) return next.get();
+        return CompletableFuture.supplyAsync(next, CompletableFuture.delayedExecutor(delayMs, TimeUnit.MILLISECONDS))
+                .thenCompose(f -> f);
+    }
 
-            } catch (Exception io) {
-                System.err.println("[Azure/" + label + "] transport error: " + io.getMessage() +
-                        " | backing off " + backoff + "ms (attempt " + attempt + "/" + MaxRetries + ")");
-                safeSleep(backoff);
-                backoff = Math.min(MaximumMiliseconds, backoff * 2);
-            }
+    private JsonNode readJson(String body) {
+        try {
+            return mapper.readTree(body);
+        } catch (Exception e) {
+            throw new CompletionException(e);
         }
-        throw new RuntimeException("[Azure/" + label + "] exhausted retries.");
     }
 
-
-
-//Converts Retry-after header to miliseconds
-    private static Optional<Long> retryAfterToMillis(HttpHeaders headers) {
-        try {
-            Optional<String> ra = headers.firstValue("retry-after");
-            if (ra.isEmpty()) return Optional.empty();
-            String v = ra.get().trim();
-            //If the number returned is not in miliseconds then convert it to miliseconds.
-            if (v.matches("\\d+")) {
-                return Optional.of(TimeUnit.SECONDS.toMillis(Long.parseLong(v)));
-            }
-            //
-        } catch (Exception ignored) {}
-        //return empty if there is neither an error present or a header statiting the time required.
-        return Optional.empty();
+    private static String messageOf(Throwable t) {
+        Throwable cause = (t instanceof CompletionException && t.getCause() != null) ? t.getCause() : t;
+        return cause.getMessage();
     }
 
     //check if rate limit text is present in responce body
@@ -183,11 +243,6 @@ public class AltTextService {
         String lc = body.toLowerCase();
         return lc.contains("rate limit") || lc.contains("rate_limit");
     }
-//The thread is paused for a select number of seconds.
-    private static void safeSleep(long ms) {
-        try { Thread.sleep(ms); } catch (InterruptedException ignored) {}
-    }
-
     //Make sure strings are shorter for improved readability in case error messages are too long.
     private static String truncate(String s, int max) {
         if (s == null) return "";
@@ -1,44 +1,313 @@
 package com.example.demo.services;
 
 import com.example.demo.Entity.Post;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
 import org.apache.lucene.document.*;
+import org.apache.lucene.facet.FacetsConfig;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetField;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.VectorSimilarityFunction;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ControlledRealTimeReopenThread;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
 // Apaches' search indexing is synced to the Post object, to be avalable for searching later.
 @Service
 public class ApacheIndexingService {
 
+    // PER_UPDATE commits (fsyncs) after every post, GROUP batches commits by count or by time
+    public enum CommitMode { PER_UPDATE, GROUP }
+
+    // set on the documents of a rebuilt index, so a swap can tell them from the live ones
+    public static final String ReindexRunField = "reindexRun";
 
     private volatile IndexWriter writer;
+    private final ControlledRealTimeReopenThread<IndexSearcher> reopenThread;
+    private final FacetsConfig facetsConfig;
+    private final EmbeddingProvider embedder;
+
+    private final CommitMode commitMode;
+    private final int maxPending;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicBoolean commitQueued = new AtomicBoolean();
+    private final ReentrantLock commitLock = new ReentrantLock();
+    // commit latency is the fsync cost, the batch size shows how many upserts one fsync covered
+    private final Timer commitTimer;
+    private final DistributionSummary commitBatch;
+    // upserts and commits share the read side, a reindex swap takes the write side
+    private final ReentrantReadWriteLock swapLock = new ReentrantReadWriteLock();
+    // held by the refreshing thread while it opens a new reader, so no searcher ever sees a half swapped index
+    private final ReentrantReadWriteLock refreshGate = new ReentrantReadWriteLock();
+    // sees every upserted post while a reindex is running
+    private volatile Consumer<Post> captureListener;
+    // highest position handed to upsertAll, and who is told which position a commit made durable
+    private final AtomicLong writtenPosition = new AtomicLong();
+    private volatile LongConsumer commitListener;
+    private final ScheduledExecutorService committer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "lucene-group-commit");
+        t.setDaemon(true);
+        return t;
+    });
 
-    public ApacheIndexingService( IndexWriter writer) {
+    public ApacheIndexingService(IndexWriter writer,
+                                 ControlledRealTimeReopenThread<IndexSearcher> reopenThread,
+                                 FacetsConfig facetsConfig,
+                                 EmbeddingProvider embedder,
+                                 @Value("${lucene.commit.mode:group}") String commitMode,
+                                 @Value("${lucene.commit.max-pending:500}") int maxPending,
+                                 @Value("${lucene.commit.interval-ms:2000}") long commitIntervalMs,
+                                 MeterRegistry meters) {
 
         this.writer = writer;
+        this.reopenThread = reopenThread;
+        this.facetsConfig = facetsConfig;
+        this.embedder = embedder;
+        this.commitMode = CommitMode.valueOf(commitMode.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        this.maxPending = Math.max(1, maxPending);
+        this.commitTimer = Timer.builder("lucene.commit")
+                .description("index commit latency")
+                .tag("mode", this.commitMode.name().toLowerCase(Locale.ROOT))
+                .publishPercentileHistogram()
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofSeconds(30))
+                .register(meters);
+        this.commitBatch = DistributionSummary.builder("lucene.commit.batch")
+                .description("upserts made durable by one commit")
+                .register(meters);
+        Gauge.builder("lucene.commit.pending", pending, AtomicInteger::get).register(meters);
+        if (this.commitMode == CommitMode.GROUP) {
+            committer.scheduleWithFixedDelay(this::commitQuietly, commitIntervalMs, commitIntervalMs, TimeUnit.MILLISECONDS);
+        }
     }
 
     private static String ns(String s) { return s == null ? "" : s; }
 
+    // comma separated llm tags as facet values: trimmed, lower case, no duplicates
+    public static List<String> normalizeTags(String llmTags) {
+        LinkedHashSet<String> tags = new LinkedHashSet<>();
+        for (String t : ns(llmTags).split(",")) {
+            String tag = t.trim().toLowerCase(Locale.ROOT);
+            if (!tag.isEmpty()) tags.add(tag);
+        }
+        return new ArrayList<>(tags);
+    }
+
 
 //Post is converted to a document and stored in "d" variable
-    private Document toDoc(Post p) {
+    Document toDoc(Post p) throws IOException {
+        return toDoc(p, embedder.embed(EmbeddingProvider.textOf(p)));
+    }
+
+    // a whole batch at once, so providers that call an api embed it in one request
+    List<Document> toDocs(List<Post> posts) throws IOException {
+        List<float[]> vectors = embedder.embedAll(posts.stream().map(EmbeddingProvider::textOf).toList());
+        List<Document> docs = new ArrayList<>(posts.size());
+        for (int i = 0; i < posts.size(); i++) docs.add(toDoc(posts.get(i), vectors.get(i)));
+        return docs;
+    }
+
+    private Document toDoc(Post p, float[] embedding) throws IOException {
         Document d = new Document();
         //each field is stored in the new document
         d.add(new StringField("postID", ns(p.getPostID()), Field.Store.YES));
+        // doc values copy of the id, the tie breaker that search cursors continue after
+        d.add(new SortedDocValuesField("postIDSort", new BytesRef(ns(p.getPostID()))));
         d.add(new TextField("title", ns(p.getTitle()), Field.Store.YES));
         d.add(new TextField("llmTags", ns(p.getLlmTags()), Field.Store.YES));
-        d.add(new TextField("altText", ns(p.getAltText()), Field.Store.YES));
         d.add(new StoredField("imageURL", ns(p.getImageURL())));
+        d.add(new StoredField("thumbnailURL", ns(p.getThumbnailURL())));
         d.add(new StoredField("date", ns(p.getDate())));
-        // finally the document is returned
-        return d;
+        // the long alt text is stored last, result loading that only wants the short fields stops before reaching it
+        d.add(new TextField("altText", ns(p.getAltText()), Field.Store.YES));
+        // every tag also goes into doc values, facet counts are read from there instead of the stored llmTags
+        for (String tag : normalizeTags(p.getLlmTags())) d.add(new SortedSetDocValuesFacetField("tag", tag));
+        // unit length vector of title, tags and alt text for the semantic mode, posts without one are only found by keywords
+        if (embedding != null) d.add(new KnnFloatVectorField("embedding", embedding, VectorSimilarityFunction.DOT_PRODUCT));
+        // finally the document is returned, built through the facets config which turns the facet fields into index fields
+        return facetsConfig.build(d);
+    }
+// index is updated with the new post. IndexWriter is thread safe, so concurrent uploads do not share a lock here.
+    public void upsert(Post p) throws Exception {
+        long generation;
+        swapLock.readLock().lock();
+        try {
+            generation = writer.updateDocument(new Term("postID", ns(p.getPostID())), toDoc(p));
+            Consumer<Post> capture = captureListener;
+            if (capture != null) capture.accept(p);
+        } finally {
+            swapLock.readLock().unlock();
+        }
+        afterWrite(generation, 1);
+    }
+
+    // a batch saved together, embedded in one request and made durable by at most one commit
+    public void upsertAll(List<Post> posts) throws Exception {
+        upsertAll(posts, 0);
+    }
+
+    // same, position is the caller's sequence number of the batch. the commit listener learns once it is durable
+    public void upsertAll(List<Post> posts, long position) throws Exception {
+        if (posts.isEmpty()) return;
+        List<Document> docs = toDocs(posts);
+        long generation = 0;
+        swapLock.readLock().lock();
+        try {
+            Consumer<Post> capture = captureListener;
+            for (int i = 0; i < posts.size(); i++) {
+                generation = writer.updateDocument(new Term("postID", ns(posts.get(i).getPostID())), docs.get(i));
+                if (capture != null) capture.accept(posts.get(i));
+            }
+        } finally {
+            swapLock.readLock().unlock();
+        }
+        // raised only after the documents are in the writer, so a commit that reads it covers them
+        writtenPosition.accumulateAndGet(position, Math::max);
+        afterWrite(generation, posts.size());
     }
-// index is updated with the new post.
-    public synchronized void upsert(Post p) throws Exception {
-        writer.updateDocument(new Term("postID", ns(p.getPostID())), toDoc(p));
-        writer.commit();
+
+    private void afterWrite(long generation, int updates) throws Exception {
+        if (commitMode == CommitMode.PER_UPDATE) {
+            commit();
+            // keeps the old behaviour of the post being searchable as soon as upsert returns
+            reopenThread.waitForGeneration(generation);
+            return;
+        }
+
+        // in group mode the reopen thread makes the post searchable, the commit only makes it durable
+        if (pending.addAndGet(updates) >= maxPending && commitQueued.compareAndSet(false, true)) {
+            committer.execute(() -> {
+                commitQueued.set(false);
+                commitQuietly();
+            });
+        }
+    }
+
+    // commits everything written so far, one fsync covers all pending updates
+    public void commit() throws Exception {
+        long covered;
+        swapLock.readLock().lock();
+        commitLock.lock();
+        int batch = pending.getAndSet(0);
+        long started = System.nanoTime();
+        try {
+            covered = writtenPosition.get();
+            writer.commit();
+            commitTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+            commitBatch.record(batch);
+        } catch (Exception e) {
+            pending.addAndGet(batch);
+            throw e;
+        } finally {
+            commitLock.unlock();
+            swapLock.readLock().unlock();
+        }
+        LongConsumer listener = commitListener;
+        if (listener != null && covered > 0) listener.accept(covered);
+    }
+
+    // after every commit the listener gets the highest position passed to upsertAll that the commit made durable,
+    // from whichever thread committed. null stops it
+    public void setCommitListener(LongConsumer listener) {
+        this.commitListener = listener;
+    }
+
+    // posts upserted from now on are also handed to the listener, null stops it
+    public void setCaptureListener(Consumer<Post> listener) {
+        this.captureListener = listener;
+    }
+
+    // registered on the SearcherManager: a refresh waits while a swap is in progress
+    public ReferenceManager.RefreshListener refreshGate() {
+        return new ReferenceManager.RefreshListener() {
+            @Override
+            public void beforeRefresh() {
+                refreshGate.readLock().lock();
+            }
+
+            @Override
+            public void afterRefresh(boolean didRefresh) {
+                refreshGate.readLock().unlock();
+            }
+        };
+    }
+
+    // replaces every document with the contents of a rebuilt index whose documents all carry ReindexRunField=run.
+    // upserts wait until it is done, whileBlocked runs first so the caller can add what was captured meanwhile and close
+    // its writer. the rebuilt documents are added before the old ones are deleted: addIndexes adds all of them or none,
+    // so a failed swap (disk full) leaves the live index as it was instead of empty
+    public void swapIn(Directory rebuilt, String run, Callable<?> whileBlocked) throws Exception {
+        swapLock.writeLock().lock();
+        try {
+            whileBlocked.call();
+            refreshGate.writeLock().lock();
+            try {
+                writer.addIndexes(rebuilt);
+                try {
+                    writer.deleteDocuments(new BooleanQuery.Builder()
+                            .add(new MatchAllDocsQuery(), BooleanClause.Occur.FILTER)
+                            .add(new TermQuery(new Term(ReindexRunField, run)), BooleanClause.Occur.MUST_NOT)
+                            .build());
+                } catch (Exception e) {
+                    // takes the rebuilt documents out again rather than showing every post twice
+                    writer.deleteDocuments(new Term(ReindexRunField, run));
+                    throw e;
+                }
+                commit();
+            } finally {
+                refreshGate.writeLock().unlock();
+            }
+        } finally {
+            swapLock.writeLock().unlock();
+        }
+    }
+
+    private void commitQuietly() {
+        if (pending.get() == 0) return;
+        try {
+            commit();
+        } catch (Exception e) {
+            System.err.println("[Lucene] group commit failed: " + e.getMessage());
+        }
+    }
+
+    //pending updates are flushed before the writer is closed
+    @PreDestroy
+    public void shutdown() {
+        committer.shutdown();
+        commitQuietly();
     }
 
 }
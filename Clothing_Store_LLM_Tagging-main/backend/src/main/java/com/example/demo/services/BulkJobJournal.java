@@ -0,0 +1,215 @@
+package com.example.demo.services;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+// Append-only journal of the bulk ingestion jobs, one file of json lines per job under bulk.jobs.dir.
+// The first line lists the files the job covers. Every later line is a checkpoint of one file (uploaded, enriched,
+// saved, failed) or marks a run (started, then stopped, cancelled or finished). Replaying a journal tells a restarted node
+// which files still need work and how far each of them got, so nothing that was paid for is done twice.
+@Service
+public class BulkJobJournal {
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record Entry(String event, String at, String file, Boolean enrich, List<String> files, Integer skipped,
+                        String publicUrl, String thumbnailUrl, String contentHash, String aiObject,
+                        String title, String llmTags, String altText, String postId, String reason) {
+
+        public static Entry job(List<String> files, boolean enrich, int skipped) {
+            return new Entry("job", now(), null, enrich, files, skipped, null, null, null, null, null, null, null, null, null);
+        }
+
+        // aiObject is the downscaled copy the vision calls read, null when they read the original or were answered from the cache
+        public static Entry uploaded(String file, String publicUrl, String thumbnailUrl, String contentHash, String aiObject) {
+            return new Entry("uploaded", now(), file, null, null, null, publicUrl, thumbnailUrl, contentHash, aiObject, null, null, null, null, null);
+        }
+
+        public static Entry enriched(String file, String title, String llmTags, String altText) {
+            return new Entry("enriched", now(), file, null, null, null, null, null, null, null, title, llmTags, altText, null, null);
+        }
+
+        public static Entry saved(String file, String postId) {
+            return new Entry("saved", now(), file, null, null, null, null, null, null, null, null, null, null, postId, null);
+        }
+
+        public static Entry failed(String file, String reason) {
+            return new Entry("failed", now(), file, null, null, null, null, null, null, null, null, null, null, null, reason);
+        }
+
+        // started, stopped (a rate limit ended the run, resumable), cancelled or finished
+        public static Entry run(String event, String reason) {
+            return new Entry(event, now(), null, null, null, null, null, null, null, null, null, null, null, null, reason);
+        }
+
+        private static String now() { return Instant.now().toString(); }
+    }
+
+    // how far one file of a job got, updated by the pipeline while it runs and rebuilt from the journal after a restart
+    public static final class Progress {
+        private volatile Entry uploaded;
+        private volatile Entry enriched;
+        private volatile boolean saved;
+        private volatile String error;
+
+        public Entry uploaded() { return uploaded; }
+        public Entry enriched() { return enriched; }
+        public boolean saved() { return saved; }
+        public String error() { return error; }
+
+        // a retried file does not count as failed while it is being worked on again
+        public void retry() { error = null; }
+
+        void apply(Entry e) {
+            switch (e.event()) {
+                case "uploaded" -> uploaded = e;
+                case "enriched" -> enriched = e;
+                case "saved" -> { saved = true; error = null; }
+                case "failed" -> error = e.reason();
+                default -> { }
+            }
+        }
+    }
+
+    // a job as its journal describes it. started is false when no run ever began, ended is how the last run ended and
+    // null when it was cut off (or never started)
+    public record Replay(String jobId, boolean enrich, List<String> files, int skipped, Map<String, Progress> progress,
+                         String createdAt, boolean started, String ended, String endReason, String endedAt) {}
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Path dir;
+
+    public BulkJobJournal(@Value("${bulk.jobs.dir:bulk-jobs}") String dir) {
+        this.dir = Paths.get(dir).toAbsolutePath().normalize();
+    }
+
+    // writes the first line of a new job, the job only exists once this succeeded
+    public synchronized Map<String, Progress> create(String jobId, Entry job) throws Exception {
+        Files.createDirectories(dir);
+        Files.writeString(fileFor(jobId), mapper.writeValueAsString(job) + "\n", StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        Map<String, Progress> progress = new LinkedHashMap<>();
+        for (String f : job.files()) progress.put(f, new Progress());
+        return progress;
+    }
+
+    // removes the journal of a job that never ran, e.g. because another one was running when it was submitted
+    public synchronized void delete(String jobId) {
+        try {
+            Files.deleteIfExists(fileFor(jobId));
+        } catch (Exception e) {
+            System.err.println("[BulkJobJournal] could not delete " + jobId + ": " + e.getMessage());
+        }
+    }
+
+    // records a checkpoint and applies it to the live progress. a lost line only means the step is repeated after a
+    // restart, every step is idempotent, so a failed write is logged and the pipeline carries on
+    public void append(String jobId, Map<String, Progress> progress, Entry e) {
+        if (e.file() != null) {
+            Progress p = progress.get(e.file());
+            if (p != null) p.apply(e);
+        }
+        try {
+            String line = mapper.writeValueAsString(e) + "\n";
+            synchronized (this) {
+                Files.writeString(fileFor(jobId), line, StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+            }
+        } catch (Exception ex) {
+            System.err.println("[BulkJobJournal] could not record " + e.event() + " of " + jobId + ": " + ex.getMessage());
+        }
+    }
+
+    // every journal on disk, oldest first
+    public List<Replay> replayAll() {
+        if (!Files.isDirectory(dir)) return List.of();
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(f -> f.getFileName().toString().endsWith(".log"))
+                    .sorted(Comparator.comparingLong(f -> f.toFile().lastModified()))
+                    .map(this::replay)
+                    .filter(r -> r != null)
+                    .toList();
+        } catch (Exception e) {
+            System.err.println("[BulkJobJournal] could not list " + dir + ": " + e.getMessage());
+            return List.of();
+        }
+    }
+
+    private Replay replay(Path file) {
+        String name = file.getFileName().toString();
+        String jobId = name.substring(0, name.length() - 4);
+        try {
+            cutTornTail(file);
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            if (lines.isEmpty()) return null;
+            Entry job = mapper.readValue(lines.get(0), Entry.class);
+            Map<String, Progress> progress = new LinkedHashMap<>();
+            for (String f : job.files()) progress.put(f, new Progress());
+            Entry lastRun = null;
+            for (String line : lines.subList(1, lines.size())) {
+                Entry e;
+                try {
+                    e = mapper.readValue(line, Entry.class);
+                } catch (Exception unreadable) {
+                    // torn lines are cut off above, the step a line that still can not be read described is done again
+                    continue;
+                }
+                if (e.file() != null) {
+                    Progress p = progress.get(e.file());
+                    if (p != null) p.apply(e);
+                } else {
+                    lastRun = e;
+                }
+            }
+            Entry end = (lastRun == null || lastRun.event().equals("started")) ? null : lastRun;
+            return new Replay(jobId, Boolean.TRUE.equals(job.enrich()), job.files(), job.skipped() == null ? 0 : job.skipped(),
+                    progress, job.at(), lastRun != null, end == null ? null : end.event(), end == null ? null : end.reason(), end == null ? null : end.at());
+        } catch (Exception e) {
+            System.err.println("[BulkJobJournal] unreadable journal " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // a node that died mid write leaves a line without its newline. the next checkpoint would be glued onto it and lost as
+    // well, so the journal is cut back to its last whole line
+    private static void cutTornTail(Path file) throws Exception {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long end = ch.size();
+            long keep = 0;
+            // scans back from the end a block at a time for the last newline
+            ByteBuffer block = ByteBuffer.allocate(8192);
+            for (long to = end; to > 0 && keep == 0; ) {
+                long from = Math.max(0, to - block.capacity());
+                block.clear().limit((int) (to - from));
+                while (block.hasRemaining() && ch.read(block, from + block.position()) > 0) {}
+                for (int i = block.position() - 1; i >= 0; i--) {
+                    if (block.get(i) == '\n') {
+                        keep = from + i + 1;
+                        break;
+                    }
+                }
+                to = from;
+            }
+            if (keep < end) {
+                System.err.println("[BulkJobJournal] cutting off a torn line of " + (end - keep) + " bytes in " + file.getFileName());
+                ch.truncate(keep);
+            }
+        }
+    }
+
+    private Path fileFor(String jobId) { return dir.resolve(jobId + ".log"); }
+}
@@ -1,23 +1,29 @@
 package com.example.demo.services;
 
+import com.example.demo.util.AdaptiveRateLimiter;
+import com.example.demo.util.RateLimitedException;
 import com.example.demo.util.JSON_Util;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.ai.chat.client.ChatClient;
 import org.springframework.ai.openai.OpenAiChatOptions;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.net.URI;
 import java.net.http.HttpClient;
-import java.net.http.HttpHeaders;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.Arrays;
-import java.util.Optional;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 @Service
@@ -27,6 +33,9 @@ public class ChatGPTService {
 
     @Value("${spring.ai.openai.api-key}")
     private String chatGPT_API_KEY;
+    // the same property spring ai reads, pointing it at a proxy or the local stub moves every openai call
+    @Value("${spring.ai.openai.base-url:https://api.openai.com}")
+    private String openAiBaseUrl;
 
     private final ObjectMapper mapper = new ObjectMapper();
     private final HttpClient http = HttpClient.newBuilder()
@@ -36,10 +45,18 @@ public class ChatGPTService {
     private static final int MaxRetries = 6; // total trries including the initial try
     private static final long StartMiliseconds = 500;
     private static final long MaximumMiliseconds = 6_000;
-    private static final long SleepMiliseconds = 60_000; //60s when the retry-after header absent
+    private static final long MaxQueueMiliseconds = 600_000; // how long a request may wait out 429s before giving up
+    // deadline (epoch ms) of calls nobody is waiting for with a timeout
+    public static final long NoDeadline = Long.MAX_VALUE;
 
-    public ChatGPTService(ChatClient chatClient) {
+    private final AdaptiveRateLimiter limiter;
+    private final IngestMetrics metrics;
+
+    public ChatGPTService(ChatClient chatClient, @Qualifier("openAiRateLimiter") AdaptiveRateLimiter limiter, IngestMetrics metrics) {
         this.chatClient = chatClient;
+        this.limiter = limiter;
+        this.metrics = metrics;
+        metrics.bind(limiter);
     }
 
     public String chatTest() {
@@ -54,57 +71,94 @@ public class ChatGPTService {
                 .content();
     }
 
-    // RETRY send function to circumvent rate limtation.
-    private HttpResponse<String> sendWithRetry(HttpRequest req, String label) throws Exception {
-        long backoff = StartMiliseconds;
-        for (int attempt = 1; attempt <= MaxRetries; attempt++) {
-            try {
-                HttpResponse<String> res = http.send(req, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
-                int code = res.statusCode();
-                String body = res.body();
-                //if succesful
-                if (code / 100 == 2) return res;
-                //rate limit handling
-                boolean looks429 = (code == 429) || containsRateLimitCode(body);
-                if (looks429) {
-                    long sleepMs = retryAfterToMillis(res.headers()).orElse(SleepMiliseconds);
-                    System.err.printf("[OpenAI/%s] 429 (attempt %d/%d). Sleeping %ds. Body=%s%n",
-                            label, attempt, MaxRetries, sleepMs/1000, truncate(body, 400));
-                    safe_sleep(sleepMs);
-                    continue;
-                }
+    // RETRY send function to circumvent rate limtation, without holding a thread while waiting.
+    // Every attempt is scheduled for the slot the shared openai limiter hands out. A 429 pauses the limiter for all
+    // callers and the request queues again without using up an attempt, until it has been waiting for MaxQueueMiliseconds;
+    // after that it fails with a RateLimitedException.
+    // Once the deadline has passed nothing is reserved or sent again, so a call the caller gave up on stops using the quota.
+    private CompletableFuture<HttpResponse<String>> sendWithRetryAsync(HttpRequest req, String label, long deadline) {
+        return attemptAsync(req, label, 1, StartMiliseconds, System.currentTimeMillis(), deadline);
+    }
 
-                if (code / 100 == 5) {
-                    System.err.printf("[OpenAI/%s] %d server error (attempt %d/%d). Backoff %dms. Body=%s%n",
-                            label, code, attempt, MaxRetries, backoff, truncate(body, 400));
-                    safe_sleep(backoff);
-                    backoff = Math.min(MaximumMiliseconds, backoff * 2);
-                    continue;
-                }
+    private CompletableFuture<HttpResponse<String>> attemptAsync(HttpRequest req, String label, int attempt, long backoff, long queuedSince, long deadline) {
+        if (attempt > MaxRetries) {
+            return CompletableFuture.failedFuture(new RuntimeException("Exhausted retries for " + label));
+        }
+        String provider = limiter.name();
+        long slot = limiter.reserveMillis(deadline - System.currentTimeMillis());
+        if (slot < 0) return deadlinePassed(label);
+        metrics.waited(provider, "limiter", slot);
+        return later(slot, () -> http.sendAsync(req, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8)))
+                .handle((res, err) -> {
+                    if (err != null) {
+                        Throwable io = (err instanceof CompletionException && err.getCause() != null) ? err.getCause() : err;
+                        System.err.printf("[OpenAI/%s] Transport error (attempt %d/%d): %s (%s)%n",
+                                label, attempt, MaxRetries, io.getClass().getSimpleName(), io.getMessage());
+                        metrics.response(provider, "transport_error");
+                        if (System.currentTimeMillis() + backoff >= deadline) return deadlinePassed(label);
+                        metrics.retry(provider, "transport_error");
+                        metrics.waited(provider, "backoff", backoff);
+                        return later(backoff, () -> attemptAsync(req, label, attempt + 1, Math.min(MaximumMiliseconds, backoff * 2), queuedSince, deadline));
+                    }
+                    int code = res.statusCode();
+                    String body = res.body();
+                    boolean looks429 = (code == 429) || (code / 100 != 2 && containsRateLimitCode(body));
+                    limiter.onResponse(looks429 ? 429 : code, res.headers());
+                    metrics.response(provider, looks429 ? "rate_limited" : IngestMetrics.outcomeOf(code));
+                    //if succesful
+                    if (code / 100 == 2) return CompletableFuture.completedFuture(res);
+                    //rate limit handling
+                    if (looks429) {
+                        if (System.currentTimeMillis() - queuedSince > MaxQueueMiliseconds) {
+                            System.err.printf("[OpenAI/%s] 429, gave up after queueing %ds. Body=%s%n",
+                                    label, MaxQueueMiliseconds / 1000, truncate(body, 400));
+                            return CompletableFuture.<HttpResponse<String>>failedFuture(new RateLimitedException(
+                                    "[OpenAI/" + label + "] still rate limited after queueing " + (MaxQueueMiliseconds / 1000) + "s"));
+                        }
+                        System.err.printf("[OpenAI/%s] 429 (attempt %d/%d), queued behind the rate limiter. Body=%s%n",
+                                label, attempt, MaxRetries, truncate(body, 400));
+                        metrics.retry(provider, "rate_limited");
+                        return attemptAsync(req, label, attempt, backoff, queuedSince, deadline);
+                    }
 
-                System.err.printf("[OpenAI/%s] Non-retriable %d. Body=%s%n", label, code, truncate(body, 800));
-                return res;
+                    if (code / 100 == 5) {
+                        System.err.printf("[OpenAI/%s] %d server error (attempt %d/%d). Backoff %dms. Body=%s%n",
+                                label, code, attempt, MaxRetries, backoff, truncate(body, 400));
+                        if (System.currentTimeMillis() + backoff >= deadline) return deadlinePassed(label);
+                        metrics.retry(provider, "server_error");
+                        metrics.waited(provider, "backoff", backoff);
+                        return later(backoff, () -> attemptAsync(req, label, attempt + 1, Math.min(MaximumMiliseconds, backoff * 2), queuedSince, deadline));
+                    }
 
-            } catch (Exception io) {
-                System.err.printf("[OpenAI/%s] Transport error (attempt %d/%d): %s (%s)%n",
-                        label, attempt, MaxRetries, io.getClass().getSimpleName(), io.getMessage());
-                safe_sleep(backoff);
-                backoff = Math.min(MaximumMiliseconds, backoff * 2);
-            }
-        }
-        throw new RuntimeException("Exhausted retries for " + label);
+                    System.err.printf("[OpenAI/%s] Non-retriable %d. Body=%s%n", label, code, truncate(body, 800));
+                    return CompletableFuture.completedFuture(res);
+                })
+                .thenCompose(f -> f);
     }
 
-    private static Optional<Long> retryAfterToMillis(HttpHeaders headers) {
-        try {
-            Optional<String> ra = headers.firstValue("retry-after");
-            if (ra.isEmpty()) return Optional.empty();
-            String v = ra.get().trim();
+    private static CompletableFuture<HttpResponse<String>> deadlinePassed(String label) {
+        return CompletableFuture.failedFuture(new TimeoutException("[OpenAI/" + label + "] deadline passed, not sent again"));
+    }
+
+    // runs the next step after a delay on the shared delay scheduler, nothing sleeps in the meantime
+    private static <T> CompletableFuture<T> later(long delayMs, Supplier<CompletableFuture<T>> next) {
+        if (delayMs <= 0) return next.get();
+        return CompletableFuture.supplyAsync(next, CompletableFuture.delayedExecutor(delayMs, TimeUnit.MILLISECONDS))
+                .thenCompose(f -> f);
+    }
 
-            if (v.matches("\\d+")) return Optional.of(TimeUnit.SECONDS.toMillis(Long.parseLong(v)));
+    private JsonNode readJson(String body) {
+        try {
+            return mapper.readTree(body);
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
 
-            return Optional.empty();
-        } catch (Exception ignored) { return Optional.empty(); }
+    // failures inside a future arrive wrapped in a CompletionException
+    private static String messageOf(Throwable t) {
+        Throwable cause = (t instanceof CompletionException && t.getCause() != null) ? t.getCause() : t;
+        return cause.getMessage();
     }
 
     private boolean containsRateLimitCode(String body) {
@@ -122,8 +176,6 @@ public class ChatGPTService {
         }
     }
 
-    private static void safe_sleep(long ms) { try { Thread.sleep(ms); } catch (InterruptedException ignored) {} }
-
     private static String truncate(String s, int max) {
         if (s == null) return "";
         return s.length() <= max ? s : s.substring(0, max) + "…";
@@ -131,10 +183,18 @@ public class ChatGPTService {
 
     // generate between 6 to 12 tags from chatgpt4o mini model
     public String generateTagsForImage(String imageUrl) {
+        return RateLimitedException.join(generateTagsForImageAsync(imageUrl));
+    }
+
+    public CompletableFuture<String> generateTagsForImageAsync(String imageUrl) {
+        return generateTagsForImageAsync(imageUrl, NoDeadline);
+    }
+
+    public CompletableFuture<String> generateTagsForImageAsync(String imageUrl, long deadline) {
         try {
             if (chatGPT_API_KEY == null || chatGPT_API_KEY.isBlank()) {
                 System.err.println("OpenAI key missing (spring.ai.openai.api-key).");
-                return "";
+                return CompletableFuture.completedFuture("");
             }
 
             // prompt
@@ -161,49 +221,61 @@ public class ChatGPTService {
             """.formatted(JSON_Util.escape(prompt), JSON_Util.escape(imageUrl));
 
             HttpRequest req = HttpRequest.newBuilder()
-                    .uri(URI.create("https://api.openai.com/v1/responses"))
+                    .uri(openAiUri("responses"))
                     .timeout(Duration.ofSeconds(90))
                     .header("Authorization", "Bearer " + chatGPT_API_KEY)
                     .header("Content-Type", "application/json")
                     .POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8))
                     .build();
 
-            HttpResponse<String> res = sendWithRetry(req, "vision-tags");
-            if (res.statusCode() / 100 != 2) {
-                System.err.println("[vision-tags] HTTP " + res.statusCode() + " -> " + truncate(res.body(), 600));
-                return "";
-            }
+            return sendWithRetryAsync(req, "vision-tags", deadline).thenApply(res -> {
+                if (res.statusCode() / 100 != 2) {
+                    System.err.println("[vision-tags] HTTP " + res.statusCode() + " -> " + truncate(res.body(), 600));
+                    return "";
+                }
 
 
-            JsonNode root = mapper.readTree(res.body());
-            String raw = root.path("output_text").path(0).asText("");
+                JsonNode root = readJson(res.body());
+                String raw = root.path("output_text").path(0).asText("");
 
-            if (raw.isBlank()) {
+                if (raw.isBlank()) {
 
-                JsonNode contentArr = root.path("output").path(0).path("content");
-                if (contentArr.isArray()) {
-                    for (JsonNode c : contentArr) {
-                        if ("output_text".equals(c.path("type").asText(""))) {
-                            raw = c.path("text").asText("");
-                            if (!raw.isBlank()) break;
+                    JsonNode contentArr = root.path("output").path(0).path("content");
+                    if (contentArr.isArray()) {
+                        for (JsonNode c : contentArr) {
+                            if ("output_text".equals(c.path("type").asText(""))) {
+                                raw = c.path("text").asText("");
+                                if (!raw.isBlank()) break;
+                            }
                         }
                     }
                 }
-            }
-            if (raw.isBlank()) {
-                raw = root.path("choices").path(0).path("message").path("content").asText("");
-            }
+                if (raw.isBlank()) {
+                    raw = root.path("choices").path(0).path("message").path("content").asText("");
+                }
 
-            return postProcessTags(raw);
+                return postProcessTags(raw);
 
+            }).exceptionally(e -> {
+                // a rate limit is passed on, the caller decides whether to stop
+                RateLimitedException rl = RateLimitedException.in(e);
+                if (rl != null) throw rl;
+                System.err.println("vision-tags - >" + messageOf(e));
+                return "";
+            });
         } catch (Exception e) {
             System.err.println("vision-tags - >" + e.getMessage());
-            return "";
+            return CompletableFuture.completedFuture("");
         }
     }
 
+    private URI openAiUri(String path) {
+        String base = openAiBaseUrl.endsWith("/") ? openAiBaseUrl.substring(0, openAiBaseUrl.length() - 1) : openAiBaseUrl;
+        return URI.create(base + "/v1/" + path);
+    }
+
     // Format tags to be usable in the post
-    private static String postProcessTags(String raw) {
+    static String postProcessTags(String raw) {
         return Arrays.stream((raw == null ? "" : raw).split("[,\\n]"))
                 .map(String::trim)
                 .map(s -> s.replaceAll("[^a-zA-Z0-9\\s\\-/]", ""))
@@ -216,10 +288,18 @@ public class ChatGPTService {
 
     // generate a title (3 to 6 words)
     public String generateTitleForImage(String imageUrlReadableByModel) {
+        return RateLimitedException.join(generateTitleForImageAsync(imageUrlReadableByModel));
+    }
+
+    public CompletableFuture<String> generateTitleForImageAsync(String imageUrlReadableByModel) {
+        return generateTitleForImageAsync(imageUrlReadableByModel, NoDeadline);
+    }
+
+    public CompletableFuture<String> generateTitleForImageAsync(String imageUrlReadableByModel, long deadline) {
         try {
             if (chatGPT_API_KEY == null || chatGPT_API_KEY.isBlank()) {
                 System.err.println("The api key is NOT PRESENT (spring.ai.openai.api-key).");
-                return "";
+                return CompletableFuture.completedFuture("");
             }
 
             String prompt =
@@ -245,29 +325,193 @@ public class ChatGPTService {
             """.formatted(JSON_Util.escape(prompt), JSON_Util.escape(imageUrlReadableByModel));
 
             HttpRequest req = HttpRequest.newBuilder()
-                    .uri(URI.create("https://api.openai.com/v1/chat/completions"))
+                    .uri(openAiUri("chat/completions"))
                     .timeout(Duration.ofSeconds(60))
                     .header("Authorization", "Bearer " + chatGPT_API_KEY)
                     .header("Content-Type", "application/json")
                     .POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8))
                     .build();
 
-            HttpResponse<String> res = sendWithRetry(req, "vision-title");
-            if (res.statusCode() / 100 != 2) {
-                System.err.println("[vision-title] HTTP " + res.statusCode() + " -> " + truncate(res.body(), 500));
+            return sendWithRetryAsync(req, "vision-title", deadline).thenApply(res -> {
+                if (res.statusCode() / 100 != 2) {
+                    System.err.println("[vision-title] HTTP " + res.statusCode() + " -> " + truncate(res.body(), 500));
+                    return "";
+                }
+
+                String title = readJson(res.body())
+                        .path("choices").path(0).path("message").path("content").asText("");
+
+                return normalizeTitle(title);
+
+            }).exceptionally(e -> {
+                // a rate limit is passed on, the caller decides whether to stop
+                RateLimitedException rl = RateLimitedException.in(e);
+                if (rl != null) throw rl;
+                System.err.println("[vision-title] " + messageOf(e));
                 return "";
+            });
+        } catch (Exception e) {
+            System.err.println("[vision-title] " + e.getMessage());
+            return CompletableFuture.completedFuture("");
+        }
+    }
+
+    // title, tags and (optionally) a caption from ONE vision request, so the image is downloaded and tokenized once
+    public VisionResult enrichImage(String imageUrl, boolean withCaption) {
+        return RateLimitedException.join(enrichImageAsync(imageUrl, withCaption));
+    }
+
+    public CompletableFuture<VisionResult> enrichImageAsync(String imageUrl, boolean withCaption) {
+        return enrichImageAsync(imageUrl, withCaption, NoDeadline);
+    }
+
+    public CompletableFuture<VisionResult> enrichImageAsync(String imageUrl, boolean withCaption, long deadline) {
+        try {
+            if (chatGPT_API_KEY == null || chatGPT_API_KEY.isBlank()) {
+                System.err.println("The api key is NOT PRESENT (spring.ai.openai.api-key).");
+                return CompletableFuture.completedFuture(VisionResult.EMPTY);
             }
 
-            String title = mapper.readTree(res.body())
-                    .path("choices").path(0).path("message").path("content").asText("");
+            String prompt =
+                    "You are tagging a clothing product image for a storefront. " +
+                            "title: a concise 3–6 word title in Title Case, WITHOUT emojis, hashtags or raw filenames. " +
+                            "tags: 6-12 short lowercase tags WITHOUT hashtags, include the colors, types of garment, and the styles if they are relevant. " +
+                            (withCaption ? "caption: one plain sentence describing the image for visually impaired shoppers." : "");
+
+            // strict structured output, the caption property only exists in the schema when it was asked for
+            String captionProperty = withCaption ? ", \"caption\": { \"type\": \"string\" }" : "";
+            String captionRequired = withCaption ? ", \"caption\"" : "";
+            String body = """
+            {
+              "model": "gpt-4o-mini",
+              "temperature": 0.3,
+              "max_tokens": 200,
+              "response_format": {
+                "type": "json_schema",
+                "json_schema": {
+                  "name": "clothing_enrichment",
+                  "strict": true,
+                  "schema": {
+                    "type": "object",
+                    "properties": {
+                      "title": { "type": "string" },
+                      "tags": { "type": "array", "items": { "type": "string" } }%s
+                    },
+                    "required": ["title", "tags"%s],
+                    "additionalProperties": false
+                  }
+                }
+              },
+              "messages": [
+                {
+                  "role": "user",
+                  "content": [
+                    { "type": "text", "text": %s },
+                    { "type": "image_url", "image_url": { "url": %s } }
+                  ]
+                }
+              ]
+            }
+            """.formatted(captionProperty, captionRequired, JSON_Util.escape(prompt), JSON_Util.escape(imageUrl));
+
+            HttpRequest req = HttpRequest.newBuilder()
+                    .uri(openAiUri("chat/completions"))
+                    .timeout(Duration.ofSeconds(90))
+                    .header("Authorization", "Bearer " + chatGPT_API_KEY)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8))
+                    .build();
+
+            return sendWithRetryAsync(req, "vision-enrich", deadline).thenApply(res -> {
+                if (res.statusCode() / 100 != 2) {
+                    System.err.println("[vision-enrich] HTTP " + res.statusCode() + " -> " + truncate(res.body(), 600));
+                    return VisionResult.EMPTY;
+                }
 
-            return normalizeTitle(title);
+                String content = readJson(res.body())
+                        .path("choices").path(0).path("message").path("content").asText("");
+                JsonNode out = readJson(content.isBlank() ? "{}" : content);
 
+                // same validation as the separate title and tags calls
+                StringBuilder rawTags = new StringBuilder();
+                for (JsonNode tag : out.path("tags")) rawTags.append(tag.asText("")).append(',');
+                String caption = withCaption ? out.path("caption").asText("").replaceAll("[\\r\\n]+", " ").trim() : "";
+
+                return new VisionResult(normalizeTitle(out.path("title").asText("")), postProcessTags(rawTags.toString()), caption);
+
+            }).exceptionally(e -> {
+                // a rate limit is passed on, the caller decides whether to stop
+                RateLimitedException rl = RateLimitedException.in(e);
+                if (rl != null) throw rl;
+                System.err.println("[vision-enrich] " + messageOf(e));
+                return VisionResult.EMPTY;
+            });
         } catch (Exception e) {
-            System.err.println("[vision-title] " + e.getMessage());
-            return "";
+            System.err.println("[vision-enrich] " + e.getMessage());
+            return CompletableFuture.completedFuture(VisionResult.EMPTY);
+        }
+    }
+
+    // one embedding per input, in input order. empty when the request failed
+    public List<float[]> embed(List<String> inputs, String model, int dimensions) {
+        return embedAsync(inputs, model, dimensions).join();
+    }
+
+    public CompletableFuture<List<float[]>> embedAsync(List<String> inputs, String model, int dimensions) {
+        try {
+            if (chatGPT_API_KEY == null || chatGPT_API_KEY.isBlank()) {
+                System.err.println("The api key is NOT PRESENT (spring.ai.openai.api-key).");
+                return CompletableFuture.completedFuture(List.of());
+            }
+            if (inputs.isEmpty()) return CompletableFuture.completedFuture(List.of());
+
+            String input = inputs.stream().map(JSON_Util::escape).collect(Collectors.joining(", ", "[", "]"));
+            String body = """
+            {
+              "model": %s,
+              "dimensions": %d,
+              "input": %s
+            }
+            """.formatted(JSON_Util.escape(model), dimensions, input);
+
+            HttpRequest req = HttpRequest.newBuilder()
+                    .uri(openAiUri("embeddings"))
+                    .timeout(Duration.ofSeconds(30))
+                    .header("Authorization", "Bearer " + chatGPT_API_KEY)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8))
+                    .build();
+
+            return sendWithRetryAsync(req, "embeddings", NoDeadline).thenApply(res -> {
+                if (res.statusCode() / 100 != 2) {
+                    System.err.println("[embeddings] HTTP " + res.statusCode() + " -> " + truncate(res.body(), 500));
+                    return List.<float[]>of();
+                }
+                // results carry their input index, they are put back in input order
+                float[][] out = new float[inputs.size()][];
+                for (JsonNode item : readJson(res.body()).path("data")) {
+                    JsonNode values = item.path("embedding");
+                    float[] v = new float[values.size()];
+                    for (int i = 0; i < v.length; i++) v[i] = (float) values.get(i).asDouble();
+                    out[item.path("index").asInt()] = v;
+                }
+                return Arrays.asList(out);
+            }).exceptionally(e -> {
+                System.err.println("[embeddings] " + messageOf(e));
+                return List.of();
+            });
+        } catch (Exception e) {
+            System.err.println("[embeddings] " + e.getMessage());
+            return CompletableFuture.completedFuture(List.of());
         }
     }
+
+    public record VisionResult(String title, String tags, String caption) {
+        public static final VisionResult EMPTY = new VisionResult("", "", "");
+
+        public boolean isEmpty() { return tags.isBlank() && title.isBlank(); }
+    }
+
 //removes line breaks , strings that are too long and would not fit the post alongside additional punctuation that is not needed.
     private static String normalizeTitle(String s) {
         if (s == null) return "";
@@ -0,0 +1,45 @@
+package com.example.demo.services;
+
+import com.example.demo.Entity.Post;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Turns text into a fixed size vector for the semantic search mode. Selected with embedding.provider (see EmbeddingConfig),
+// the same provider and dimensions must be used for indexing and for queries, changing either needs a reindex.
+public interface EmbeddingProvider {
+
+    int dimensions();
+
+    // null when no embedding could be produced, the post is then indexed without a vector
+    float[] embed(String text);
+
+    // one vector (or null) per text, providers that can batch override this
+    default List<float[]> embedAll(List<String> texts) {
+        List<float[]> out = new ArrayList<>(texts.size());
+        for (String t : texts) out.add(embed(t));
+        return out;
+    }
+
+    // what gets embedded for a post: title, tags and alt text
+    static String textOf(Post p) {
+        StringBuilder sb = new StringBuilder();
+        for (String part : new String[]{p.getTitle(), p.getLlmTags(), p.getAltText()}) {
+            if (part == null || part.isBlank()) continue;
+            if (sb.length() > 0) sb.append(". ");
+            sb.append(part.trim());
+        }
+        return sb.toString();
+    }
+
+    // unit length, so the dot product of two vectors is their cosine similarity
+    static float[] normalize(float[] v) {
+        double sum = 0;
+        for (float x : v) sum += x * x;
+        if (sum == 0) return null;
+        float inv = (float) (1 / Math.sqrt(sum));
+        float[] out = new float[v.length];
+        for (int i = 0; i < v.length; i++) out[i] = v[i] * inv;
+        return out;
+    }
+}
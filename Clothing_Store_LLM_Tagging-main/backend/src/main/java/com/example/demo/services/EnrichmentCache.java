@@ -0,0 +1,127 @@
+package com.example.demo.services;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+// Enrichment results (title, tags, alt text) keyed by the sha-256 of the image bytes.
+// A re-uploaded photo skips the OpenAI and Azure calls. Entries live in memory in LRU order and are persisted one file per hash.
+@Service
+public class EnrichmentCache {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Path dir;
+    private final int maxEntries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    // access ordered, so the eldest entry is the least recently used one
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() <= maxEntries) return false;
+            evictions.incrementAndGet();
+            try { Files.deleteIfExists(fileFor(eldest.getKey())); } catch (Exception ignored) {}
+            return true;
+        }
+    };
+
+    public EnrichmentCache(@Value("${enrichment.cache.dir:enrichment-cache}") String dir,
+                           @Value("${enrichment.cache.max-entries:10000}") int maxEntries,
+                           MeterRegistry meters) {
+        this.dir = Paths.get(dir).toAbsolutePath().normalize();
+        this.maxEntries = Math.max(1, maxEntries);
+        load();
+
+        FunctionCounter.builder("enrichment.cache.requests", hits, AtomicLong::get).tag("result", "hit").register(meters);
+        FunctionCounter.builder("enrichment.cache.requests", misses, AtomicLong::get).tag("result", "miss").register(meters);
+        FunctionCounter.builder("enrichment.cache.evictions", evictions, AtomicLong::get).register(meters);
+        Gauge.builder("enrichment.cache.size", this, EnrichmentCache::size).register(meters);
+    }
+
+    public record Entry(String title, String llmTags, String altText) {}
+
+    public record Stats(long hits, long misses, long evictions, int size) {}
+
+    // digest that produces cache keys, fed with the image bytes while they stream to storage
+    public static MessageDigest newKeyDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (Exception e) {
+            throw new IllegalStateException("SHA-256 unavailable", e);
+        }
+    }
+
+    // cache key for a piece of image content
+    public static String keyOf(MessageDigest digest) {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    public synchronized Optional<Entry> get(String key) {
+        Entry e = entries.get(key);
+        if (e == null) {
+            misses.incrementAndGet();
+            return Optional.empty();
+        }
+        hits.incrementAndGet();
+        // touching the file keeps the LRU order across restarts
+        fileFor(key).toFile().setLastModified(System.currentTimeMillis());
+        return Optional.of(e);
+    }
+
+    public synchronized void put(String key, Entry e) {
+        entries.put(key, e);
+        try {
+            Path tmp = dir.resolve(key + ".tmp");
+            mapper.writeValue(tmp.toFile(), e);
+            Files.move(tmp, fileFor(key), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (Exception ex) {
+            System.err.println("[EnrichmentCache] could not persist " + key + ": " + ex.getMessage());
+        }
+    }
+
+    public synchronized int size() { return entries.size(); }
+
+    public Stats stats() { return new Stats(hits.get(), misses.get(), evictions.get(), size()); }
+
+    private Path fileFor(String key) { return dir.resolve(key + ".json"); }
+
+    // entries are read back oldest first, so the most recently used ones survive the size bound
+    private synchronized void load() {
+        try {
+            Files.createDirectories(dir);
+            try (Stream<Path> files = Files.list(dir)) {
+                files.filter(f -> f.getFileName().toString().endsWith(".json"))
+                        .sorted(Comparator.comparingLong(f -> f.toFile().lastModified()))
+                        .forEach(f -> {
+                            String name = f.getFileName().toString();
+                            try {
+                                entries.put(name.substring(0, name.length() - 5), mapper.readValue(f.toFile(), Entry.class));
+                            } catch (Exception ex) {
+                                f.toFile().delete();
+                            }
+                        });
+            }
+        } catch (Exception e) {
+            System.err.println("[EnrichmentCache] could not load " + dir + ": " + e.getMessage());
+        }
+    }
+}
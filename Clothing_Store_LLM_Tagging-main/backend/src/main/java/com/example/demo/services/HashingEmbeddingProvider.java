@@ -0,0 +1,45 @@
+package com.example.demo.services;
+
+import java.util.Locale;
+
+// Local, deterministic embedder: words and their character trigrams are hashed into the vector (feature hashing).
+// No network and no model, so it is what tests and benchmarks use. It catches shared words and spelling variants
+// ("jacket" / "jackets") but not synonyms, for that configure the openai provider.
+public class HashingEmbeddingProvider implements EmbeddingProvider {
+
+    private final int dimensions;
+
+    public HashingEmbeddingProvider(int dimensions) {
+        this.dimensions = Math.max(8, dimensions);
+    }
+
+    @Override
+    public int dimensions() { return dimensions; }
+
+    @Override
+    public float[] embed(String text) {
+        if (text == null || text.isBlank()) return null;
+        float[] v = new float[dimensions];
+        for (String word : text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+")) {
+            if (word.isEmpty()) continue;
+            add(v, word, 1.0f);
+            String padded = "#" + word + "#";
+            for (int i = 0; i + 3 <= padded.length(); i++) add(v, padded.substring(i, i + 3), 0.35f);
+        }
+        return EmbeddingProvider.normalize(v);
+    }
+
+    // the hash picks the slot and the sign, collisions then cancel out on average instead of piling up
+    private void add(float[] v, String feature, float weight) {
+        int h = mix(feature.hashCode());
+        v[Math.floorMod(h, dimensions)] += ((h >>> 31) == 0 ? weight : -weight);
+    }
+
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,278 @@
+package com.example.demo.services;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+// Images served by the proxy, one file per image and variant under image.cache.dir, bounded by image.cache.max-bytes.
+// Entries live in memory in LRU order, so the catalog images that are viewed all the time stay on disk while the budget holds
+// them. The file name carries the key hash, the content hash (the etag) and the type, nothing else has to be persisted.
+@Service
+public class ImageCache {
+
+    public record Cached(Path file, long length, String etag, String contentType) {}
+
+    public record Stats(long hits, long misses, long evictions, int entries, long bytes, long maxBytes) {}
+
+    // writes the image into the given file and returns its content type, null when there is no such image
+    public interface Loader {
+        String load(Path into) throws Exception;
+    }
+
+    private final Path dir;
+    private final long maxBytes;
+    private final long evictGraceMs;
+    private final long touchIntervalMs;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private long bytes;
+
+    // access ordered, so the eldest entry is the least recently used one
+    private final LinkedHashMap<String, Cached> entries = new LinkedHashMap<>(256, 0.75f, true);
+    // files the entries point at, an evicted file that was filled again with the same content is not deleted
+    private final Set<Path> live = new HashSet<>();
+    // files being moved into place, not live yet but not to be deleted either
+    private final Set<Path> arriving = new HashSet<>();
+    // one download per key, concurrent misses of the same image wait for it
+    private final Map<String, CompletableFuture<Optional<Cached>>> loading = new ConcurrentHashMap<>();
+    // an evicted file may still be about to be sent, it is deleted a little later
+    private final ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "image-cache-reaper");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public ImageCache(@Value("${image.cache.dir:image-cache}") String dir,
+                      @Value("${image.cache.max-bytes:1073741824}") long maxBytes,
+                      @Value("${image.cache.evict-grace-ms:60000}") long evictGraceMs,
+                      @Value("${image.cache.touch-interval-ms:60000}") long touchIntervalMs,
+                      MeterRegistry meters) {
+        this.dir = Paths.get(dir).toAbsolutePath().normalize();
+        this.maxBytes = Math.max(1, maxBytes);
+        this.evictGraceMs = Math.max(0, evictGraceMs);
+        this.touchIntervalMs = Math.max(0, touchIntervalMs);
+        load();
+
+        FunctionCounter.builder("image.cache.requests", hits, AtomicLong::get).tag("result", "hit").register(meters);
+        FunctionCounter.builder("image.cache.requests", misses, AtomicLong::get).tag("result", "miss").register(meters);
+        FunctionCounter.builder("image.cache.evictions", evictions, AtomicLong::get).register(meters);
+        Gauge.builder("image.cache.bytes", this, ImageCache::bytes).baseUnit("bytes").register(meters);
+    }
+
+    // the cached image for the key, loaded on a miss. empty when the loader has no such image
+    public Optional<Cached> get(String key, Loader loader) throws Exception {
+        String hash = hash(key);
+        Cached c;
+        synchronized (this) {
+            c = entries.get(hash);
+        }
+        if (c != null) {
+            // the file system calls stay outside the lock. touching the file keeps the LRU order across restarts, at most
+            // once per touchIntervalMs, a file removed behind our back is loaded again
+            long now = System.currentTimeMillis();
+            long modified = c.file().toFile().lastModified();
+            if (modified != 0 && (now - modified < touchIntervalMs || c.file().toFile().setLastModified(now))) {
+                hits.incrementAndGet();
+                return Optional.of(c);
+            }
+            synchronized (this) {
+                if (entries.remove(hash, c)) {
+                    live.remove(c.file());
+                    bytes -= c.length();
+                }
+            }
+        }
+        misses.incrementAndGet();
+        CompletableFuture<Optional<Cached>> mine = new CompletableFuture<>();
+        CompletableFuture<Optional<Cached>> running = loading.putIfAbsent(hash, mine);
+        if (running != null) {
+            try {
+                return running.get();
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof Exception cause ? cause : e;
+            }
+        }
+        try {
+            Optional<Cached> filled = fill(hash, loader);
+            mine.complete(filled);
+            return filled;
+        } catch (Exception e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(hash);
+        }
+    }
+
+    public synchronized long bytes() { return bytes; }
+
+    public synchronized Stats stats() {
+        return new Stats(hits.get(), misses.get(), evictions.get(), entries.size(), bytes, maxBytes);
+    }
+
+    private Optional<Cached> fill(String hash, Loader loader) throws Exception {
+        Path tmp = dir.resolve(UUID.randomUUID() + ".tmp");
+        try {
+            String contentType = loader.load(tmp);
+            if (contentType == null || !Files.exists(tmp)) return Optional.empty();
+            String ext = extensionOf(contentType);
+            String etag = contentHash(tmp);
+            Path file = dir.resolve(hash + "." + etag + "." + ext);
+            Cached c = new Cached(file, Files.size(tmp), etag, contentTypeOf(ext));
+            // the reaper leaves an arriving file alone, so an evicted file of the same name is not deleted right after it
+            // was replaced. the move itself runs outside the lock
+            synchronized (this) {
+                arriving.add(file);
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                synchronized (this) {
+                    add(hash, c);
+                }
+            } finally {
+                synchronized (this) {
+                    arriving.remove(file);
+                }
+            }
+            return Optional.of(c);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    // the least recently used entries go until the budget holds, the one just added always stays
+    private void add(String hash, Cached c) {
+        Cached replaced = entries.put(hash, c);
+        if (replaced != null) {
+            bytes -= replaced.length();
+            live.remove(replaced.file());
+            retire(replaced.file());
+        }
+        bytes += c.length();
+        live.add(c.file());
+        Iterator<Map.Entry<String, Cached>> eldest = entries.entrySet().iterator();
+        while (bytes > maxBytes && entries.size() > 1) {
+            Map.Entry<String, Cached> e = eldest.next();
+            if (e.getKey().equals(hash)) continue;
+            eldest.remove();
+            bytes -= e.getValue().length();
+            live.remove(e.getValue().file());
+            evictions.incrementAndGet();
+            retire(e.getValue().file());
+        }
+    }
+
+    private void retire(Path file) {
+        try {
+            reaper.schedule(() -> deleteUnlessLive(file), evictGraceMs, TimeUnit.MILLISECONDS);
+        } catch (Exception shuttingDown) {
+            deleteUnlessLive(file);
+        }
+    }
+
+    private synchronized void deleteUnlessLive(Path file) {
+        if (live.contains(file) || arriving.contains(file)) return;
+        try { Files.deleteIfExists(file); } catch (Exception ignored) {}
+    }
+
+    // strong etag: the first 128 bits of the sha-256 of the bytes that are served
+    private static String contentHash(Path file) throws Exception {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buf = ByteBuffer.allocate(64 * 1024);
+            while (ch.read(buf) > 0) {
+                buf.flip();
+                digest.update(buf);
+                buf.clear();
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest(), 0, 16);
+    }
+
+    private static String hash(String key) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8)));
+        } catch (Exception e) {
+            throw new IllegalStateException("SHA-256 unavailable", e);
+        }
+    }
+
+    private static String extensionOf(String contentType) {
+        return switch (contentType.toLowerCase()) {
+            case "image/jpeg", "image/jpg" -> "jpg";
+            case "image/png" -> "png";
+            case "image/webp" -> "webp";
+            case "image/gif" -> "gif";
+            default -> "bin";
+        };
+    }
+
+    private static String contentTypeOf(String ext) {
+        return switch (ext) {
+            case "jpg" -> "image/jpeg";
+            case "png" -> "image/png";
+            case "webp" -> "image/webp";
+            case "gif" -> "image/gif";
+            default -> "application/octet-stream";
+        };
+    }
+
+    // files are read back oldest first, so the most recently used ones survive the size bound. leftovers of interrupted
+    // downloads are removed
+    private synchronized void load() {
+        try {
+            Files.createDirectories(dir);
+            try (Stream<Path> files = Files.list(dir)) {
+                files.sorted(Comparator.comparingLong(f -> f.toFile().lastModified()))
+                        .forEach(f -> {
+                            String[] parts = f.getFileName().toString().split("\\.");
+                            try {
+                                if (parts.length != 3 || parts[2].equals("tmp")) throw new IllegalArgumentException();
+                                add(parts[0], new Cached(f, Files.size(f), parts[1], contentTypeOf(parts[2])));
+                            } catch (Exception ex) {
+                                f.toFile().delete();
+                            }
+                        });
+            }
+        } catch (Exception e) {
+            System.err.println("[ImageCache] could not load " + dir + ": " + e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        reaper.shutdown();
+    }
+}
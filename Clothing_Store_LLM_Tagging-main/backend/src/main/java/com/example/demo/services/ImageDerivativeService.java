@@ -0,0 +1,184 @@
+package com.example.demo.services;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.w3c.dom.Node;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataNode;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.Optional;
+
+// Downscaled copies of an uploaded photo: a bounded-size image for the vision calls and a thumbnail for the storefront.
+// The original is decoded with source subsampling, so a 12MP phone photo never becomes a full-size raster on heap.
+@Service
+public class ImageDerivativeService {
+
+    @Value("${images.ai.max-edge:1024}")
+    private int aiMaxEdge;
+    @Value("${images.thumbnail.max-edge:320}")
+    private int thumbnailMaxEdge;
+    @Value("${images.jpeg-quality:0.85}")
+    private float jpegQuality;
+
+    public record Derivatives(byte[] forAi, byte[] thumbnail) {}
+
+    // empty when the image can not be decoded, callers then keep using the original
+    public Optional<Derivatives> derive(InputStream in) {
+        return decode(in, aiMaxEdge, (decoded, orientation) -> {
+            BufferedImage forAi = scale(decoded, aiMaxEdge, orientation);
+            BufferedImage thumbnail = scale(forAi, thumbnailMaxEdge, 1);
+            return new Derivatives(jpeg(forAi), jpeg(thumbnail));
+        });
+    }
+
+    // a jpeg that fits into maxEdge, for the resized variants the image proxy serves. empty when it can not be decoded
+    public Optional<byte[]> resize(InputStream in, int maxEdge) {
+        return decode(in, maxEdge, (decoded, orientation) -> jpeg(scale(decoded, maxEdge, orientation)));
+    }
+
+    private interface Encoder<T> {
+        T encode(BufferedImage decoded, int orientation) throws Exception;
+    }
+
+    private <T> Optional<T> decode(InputStream in, int maxEdge, Encoder<T> encoder) {
+        try (in; ImageInputStream iis = ImageIO.createImageInputStream(in)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            if (!readers.hasNext()) return Optional.empty();
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis, true, false);
+                int w = reader.getWidth(0), h = reader.getHeight(0);
+                // the largest subsampling step that still leaves at least maxEdge pixels on the long edge
+                int step = Math.max(1, Math.max(w, h) / maxEdge);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                BufferedImage decoded = reader.read(0, param);
+                return Optional.of(encoder.encode(decoded, exifOrientation(reader.getImageMetadata(0))));
+            } finally {
+                reader.dispose();
+            }
+        } catch (Exception e) {
+            System.err.println("[ImageDerivatives] could not derive: " + e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    // fits the image into maxEdge, applies the exif rotation and flattens transparency onto white for jpeg
+    private static BufferedImage scale(BufferedImage src, int maxEdge, int orientation) {
+        double factor = Math.min(1.0, (double) maxEdge / Math.max(src.getWidth(), src.getHeight()));
+        int w = Math.max(1, (int) Math.round(src.getWidth() * factor));
+        int h = Math.max(1, (int) Math.round(src.getHeight() * factor));
+        boolean quarterTurn = orientation >= 5;
+
+        BufferedImage out = new BufferedImage(quarterTurn ? h : w, quarterTurn ? w : h, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = out.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, out.getWidth(), out.getHeight());
+            g.transform(orientationTransform(orientation, w, h));
+            g.drawImage(src, 0, 0, w, h, null);
+        } finally {
+            g.dispose();
+        }
+        return out;
+    }
+
+    // exif orientation values: 3 = upside down, 6 = rotate right, 8 = rotate left (mirrored variants are treated the same)
+    private static AffineTransform orientationTransform(int orientation, int w, int h) {
+        AffineTransform t = new AffineTransform();
+        switch (orientation) {
+            case 3, 4 -> { t.translate(w, h); t.rotate(Math.PI); }
+            case 5, 6 -> { t.translate(h, 0); t.rotate(Math.PI / 2); }
+            case 7, 8 -> { t.translate(0, w); t.rotate(-Math.PI / 2); }
+            default -> { }
+        }
+        return t;
+    }
+
+    private byte[] jpeg(BufferedImage img) throws Exception {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (MemoryCacheImageOutputStream out = new MemoryCacheImageOutputStream(bytes)) {
+            writer.setOutput(out);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(jpegQuality);
+            writer.write(null, new IIOImage(img, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+
+    // reads the orientation tag from the jpeg APP1 (exif) segment, 1 when there is none
+    private static int exifOrientation(IIOMetadata metadata) {
+        try {
+            if (metadata == null || !"javax_imageio_jpeg_image_1.0".equals(metadata.getNativeMetadataFormatName())) return 1;
+            Node root = metadata.getAsTree("javax_imageio_jpeg_image_1.0");
+            Node markers = findChild(root, "markerSequence");
+            if (markers == null) return 1;
+            for (Node n = markers.getFirstChild(); n != null; n = n.getNextSibling()) {
+                if (!"unknown".equals(n.getNodeName())) continue;
+                Node tag = n.getAttributes().getNamedItem("MarkerTag");
+                if (tag == null || !"225".equals(tag.getNodeValue())) continue;
+                Object data = ((IIOMetadataNode) n).getUserObject();
+                if (data instanceof byte[] exif) return orientationFromExif(exif);
+            }
+        } catch (Exception ignored) {}
+        return 1;
+    }
+
+    private static Node findChild(Node parent, String name) {
+        for (Node n = parent.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if (name.equals(n.getNodeName())) return n;
+        }
+        return null;
+    }
+
+    // "Exif\0\0" followed by a tiff header, the orientation (0x0112) lives in the first IFD
+    private static int orientationFromExif(byte[] b) {
+        if (b.length < 14 || b[0] != 'E' || b[1] != 'x' || b[2] != 'i' || b[3] != 'f') return 1;
+        int tiff = 6;
+        boolean little = b[tiff] == 'I';
+        int ifd = tiff + readInt(b, tiff + 4, little);
+        if (ifd + 2 > b.length) return 1;
+        int entries = readShort(b, ifd, little);
+        for (int i = 0; i < entries; i++) {
+            int e = ifd + 2 + i * 12;
+            if (e + 12 > b.length) break;
+            if (readShort(b, e, little) == 0x0112) {
+                int value = readShort(b, e + 8, little);
+                return (value >= 1 && value <= 8) ? value : 1;
+            }
+        }
+        return 1;
+    }
+
+    private static int readShort(byte[] b, int at, boolean little) {
+        return little ? (b[at] & 0xff) | (b[at + 1] & 0xff) << 8
+                : (b[at] & 0xff) << 8 | (b[at + 1] & 0xff);
+    }
+
+    private static int readInt(byte[] b, int at, boolean little) {
+        return little ? readShort(b, at, true) | readShort(b, at + 2, true) << 16
+                : readShort(b, at, false) << 16 | readShort(b, at + 2, false);
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.demo.services;
+
+import com.example.demo.Entity.Post;
+import com.google.cloud.ReadChannel;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobId;
+import com.google.cloud.storage.Storage;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+// The images of a post as this node serves them: the original, the stored thumbnail or a resized copy. Only a cache miss
+// reads the post from Firestore and the image from storage, every later view is answered from the local ImageCache.
+@Service
+public class ImageProxyService {
+
+    private final Firestore db;
+    private final Storage storage;
+    private final ImageDerivativeService derivatives;
+    private final ImageCache cache;
+    // resized variants are limited to these long edges, so the cache can not be filled with arbitrary sizes
+    private final Set<Integer> sizes;
+    private final int thumbnailMaxEdge;
+
+    public ImageProxyService(Firestore db, Storage storage, ImageDerivativeService derivatives, ImageCache cache,
+                             @Value("${images.proxy.sizes:160,320,640,1024}") String sizes,
+                             @Value("${images.thumbnail.max-edge:320}") int thumbnailMaxEdge) {
+        this.db = db;
+        this.storage = storage;
+        this.derivatives = derivatives;
+        this.cache = cache;
+        this.sizes = Arrays.stream(sizes.split(","))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .map(Integer::parseInt)
+                .collect(Collectors.toCollection(TreeSet::new));
+        this.thumbnailMaxEdge = thumbnailMaxEdge;
+    }
+
+    // size is "original", "thumb" or one of images.proxy.sizes. empty when the post or its image does not exist
+    public Optional<ImageCache.Cached> image(String postId, String size) throws Exception {
+        String variant = variantOf(size);
+        return cache.get(postId + "/" + variant, into -> load(postId, variant, into));
+    }
+
+    public ImageCache.Stats stats() { return cache.stats(); }
+
+    private String variantOf(String size) {
+        String s = size == null ? "original" : size.trim().toLowerCase();
+        if (s.equals("original") || s.equals("thumb")) return s;
+        try {
+            if (sizes.contains(Integer.parseInt(s))) return s;
+        } catch (NumberFormatException ignored) {}
+        throw new IllegalArgumentException("size must be original, thumb or one of " + sizes);
+    }
+
+    private String load(String postId, String variant, Path into) throws Exception {
+        DocumentSnapshot doc = db.collection("posts").document(postId).get().get();
+        if (!doc.exists()) return null;
+        Post post = doc.toObject(Post.class);
+        BlobId original = blobOf(post.getImageURL());
+        if (original == null) return null;
+
+        if (variant.equals("original")) return download(original, into);
+        if (variant.equals("thumb")) {
+            // posts from before thumbnails existed get one made from the original
+            BlobId thumb = blobOf(post.getThumbnailURL());
+            String type = thumb == null ? null : download(thumb, into);
+            return type != null ? type : resized(original, thumbnailMaxEdge, into);
+        }
+        return resized(original, Integer.parseInt(variant), into);
+    }
+
+    // streamed to the file, the image is never held on heap
+    private String download(BlobId id, Path into) {
+        Blob blob = storage.get(id);
+        if (blob == null) return null;
+        blob.downloadTo(into);
+        return Optional.ofNullable(blob.getContentType()).orElse("image/jpeg");
+    }
+
+    // an image that can not be decoded is served as it is
+    private String resized(BlobId id, int maxEdge, Path into) throws Exception {
+        Optional<byte[]> jpeg;
+        try (ReadChannel reader = storage.reader(id)) {
+            jpeg = derivatives.resize(Channels.newInputStream(reader), maxEdge);
+        }
+        if (jpeg.isEmpty()) return download(id, into);
+        Files.write(into, jpeg.get());
+        return "image/jpeg";
+    }
+
+    // download urls look like <base>/v0/b/<bucket>/o/<url encoded object name>?alt=media&token=<token>
+    static BlobId blobOf(String url) {
+        if (url == null || url.isBlank()) return null;
+        try {
+            String path = URI.create(url).getRawPath();
+            int b = path.indexOf("/v0/b/");
+            int o = path.indexOf("/o/", b + 6);
+            if (b < 0 || o < 0) return null;
+            String bucket = path.substring(b + 6, o);
+            String object = URLDecoder.decode(path.substring(o + 3), StandardCharsets.UTF_8);
+            return object.isEmpty() ? null : BlobId.of(bucket, object);
+        } catch (IllegalArgumentException malformed) {
+            return null;
+        }
+    }
+}
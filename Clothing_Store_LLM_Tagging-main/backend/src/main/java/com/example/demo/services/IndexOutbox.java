@@ -0,0 +1,342 @@
+package com.example.demo.services;
+
+import com.example.demo.Entity.Post;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Write-ahead outbox between Firestore and the Lucene index. A saved post is appended to outbox.log and fsynced before the
+// upload answers, a background thread indexes what was appended in batches. It does not commit them itself: the index's
+// own (group) commit reports the highest sequence number it made durable, and that is recorded in outbox.acked. Whatever
+// was appended but not acked is indexed again after a restart, so every post reaches the index at least once. Once
+// everything is acked the log is truncated.
+@Service
+public class IndexOutbox {
+
+    // pending counts posts appended but not yet committed in the index, oldestPendingMs is how long the oldest of them waited
+    public record Status(long pending, long lastSeq, long ackedSeq, Long oldestPendingMs, long indexed, long failedAttempts,
+                         String lastIndexedAt, String lastError) {}
+
+    record Entry(long seq, long at, Post post) {}
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ApacheIndexingService indexer;
+    private final SuggestService suggestions;
+    private final IngestMetrics metrics;
+    private final Path log;
+    private final Path acked;
+    private final FileChannel channel;
+    private final int batchMax;
+    private final long retryMaxMs;
+    private final long compactBytes;
+
+    // entries are queued in sequence order under the lock that assigns the sequence, and only once an fsync covered them
+    private final LinkedBlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    // written to the log but not fsynced yet, oldest first
+    private final ArrayDeque<Entry> unsynced = new ArrayDeque<>();
+    private long lastSeq;
+    // a failed write could not be cut off again, the next append starts on a fresh line
+    private boolean torn;
+    private volatile long ackedSeq;
+    // first entry of the batch being indexed, it stays the oldest pending one until the batch is in the index
+    private volatile Entry inFlight;
+    // first entries of the batches that are in the index but not committed yet, oldest first
+    private final ConcurrentLinkedQueue<Entry> uncommitted = new ConcurrentLinkedQueue<>();
+    // commits of different threads may report at the same time, the acked file is written by one of them at a time
+    private final Object ackLock = new Object();
+    private final AtomicLong indexed = new AtomicLong();
+    private final AtomicLong failedAttempts = new AtomicLong();
+    private volatile String lastIndexedAt;
+    private volatile String lastError;
+
+    private final Thread drainer;
+    private volatile boolean running = true;
+    private volatile boolean closing;
+
+    public IndexOutbox(ApacheIndexingService indexer, SuggestService suggestions, IngestMetrics metrics, MeterRegistry meters,
+                       @Value("${index.outbox.dir:index-outbox}") String dir,
+                       @Value("${index.outbox.batch-max:200}") int batchMax,
+                       @Value("${index.outbox.retry-max-ms:30000}") long retryMaxMs,
+                       @Value("${index.outbox.compact-bytes:1048576}") long compactBytes) throws Exception {
+        this.indexer = indexer;
+        this.suggestions = suggestions;
+        this.metrics = metrics;
+        Path root = Paths.get(dir).toAbsolutePath().normalize();
+        Files.createDirectories(root);
+        this.log = root.resolve("outbox.log");
+        this.acked = root.resolve("outbox.acked");
+        this.batchMax = Math.max(1, batchMax);
+        this.retryMaxMs = Math.max(100, retryMaxMs);
+        this.compactBytes = Math.max(0, compactBytes);
+
+        replay();
+        this.channel = FileChannel.open(log, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+
+        Gauge.builder("index.outbox.pending", this, o -> o.lastSeq() - o.ackedSeq)
+                .description("posts saved but not yet committed in the index")
+                .register(meters);
+        TimeGauge.builder("index.outbox.lag", this, TimeUnit.MILLISECONDS, o -> {
+                    Long age = o.oldestPendingMs();
+                    return age == null ? 0 : age;
+                })
+                .description("how long the oldest pending post has been waiting for the index")
+                .register(meters);
+
+        indexer.setCommitListener(this::committed);
+        drainer = new Thread(this::drain, "index-outbox");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    // makes the posts durable in the outbox, they are indexed shortly after. concurrent callers share the fsync.
+    // a write that fails half way is cut off again, so the next append never continues a torn line. the posts are
+    // handed to the indexer only after an fsync covered them, a failed fsync leaves them to the next one that succeeds
+    public void append(List<Post> posts) throws Exception {
+        if (posts.isEmpty()) return;
+        long upTo;
+        synchronized (this) {
+            List<Entry> entries = new ArrayList<>(posts.size());
+            StringBuilder lines = new StringBuilder();
+            if (torn) lines.append('\n');
+            long at = System.currentTimeMillis();
+            for (Post p : posts) {
+                Entry e = new Entry(lastSeq + entries.size() + 1, at, p);
+                entries.add(e);
+                lines.append(mapper.writeValueAsString(e)).append('\n');
+            }
+            ByteBuffer buf = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+            long start = channel.size();
+            try {
+                while (buf.hasRemaining()) channel.write(buf);
+            } catch (Exception e) {
+                try {
+                    channel.truncate(start);
+                } catch (Exception stillTorn) {
+                    torn = true;
+                }
+                throw e;
+            }
+            torn = false;
+            lastSeq += entries.size();
+            unsynced.addAll(entries);
+            upTo = lastSeq;
+        }
+        channel.force(false);
+        synced(upTo);
+    }
+
+    // for posts the log could not take: they are indexed like the others but are not replayed after a restart. whatever
+    // waits for an fsync is queued first, so the queue stays in sequence order and an ack never skips an entry
+    public void appendUnlogged(List<Post> posts) {
+        if (posts.isEmpty()) return;
+        synchronized (this) {
+            long at = System.currentTimeMillis();
+            synced(lastSeq);
+            for (Post p : posts) queue.add(new Entry(++lastSeq, at, p));
+        }
+    }
+
+    // queues the written entries up to seq, in order
+    private synchronized void synced(long seq) {
+        for (Entry head = unsynced.peek(); head != null && head.seq() <= seq; head = unsynced.peek()) queue.add(unsynced.poll());
+    }
+
+    public Status status() {
+        long last = lastSeq();
+        long ack = ackedSeq;
+        return new Status(last - ack, last, ack, oldestPendingMs(), indexed.get(), failedAttempts.get(), lastIndexedAt, lastError);
+    }
+
+    private synchronized long lastSeq() { return lastSeq; }
+
+    private synchronized Entry unsyncedHead() { return unsynced.peek(); }
+
+    private Long oldestPendingMs() {
+        Entry head = uncommitted.peek();
+        if (head == null) head = inFlight;
+        if (head == null) head = queue.peek();
+        if (head == null) head = unsyncedHead();
+        return head == null ? null : Math.max(0, System.currentTimeMillis() - head.at());
+    }
+
+    // indexes the queue in batches of up to batch-max posts. a failed batch is retried with a growing pause and is never
+    // skipped, so later posts wait behind it. the acked sequence only moves with a commit that covers it
+    private void drain() {
+        List<Entry> batch = new ArrayList<>();
+        long backoff = 0;
+        while (running) {
+            try {
+                if (batch.isEmpty()) {
+                    Entry first = queue.poll(200, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        if (closing) return;
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, batchMax - 1);
+                    inFlight = first;
+                }
+                List<Post> posts = batch.stream().map(Entry::post).toList();
+                long last = batch.get(batch.size() - 1).seq();
+                // listed before the write, a per update commit reports it before upsertAll returns
+                Entry first = batch.get(0);
+                uncommitted.add(first);
+                try {
+                    metrics.time("upsert.batch", () -> {
+                        indexer.upsertAll(posts, last);
+                        return null;
+                    });
+                } catch (Exception e) {
+                    uncommitted.remove(first);
+                    throw e;
+                }
+                // counted before the ack can happen, so a status without pending posts also shows them as indexed
+                indexed.addAndGet(posts.size());
+                lastIndexedAt = Instant.now().toString();
+                for (Post p : posts) suggestions.onPostIndexed(p);
+                lastError = null;
+                inFlight = null;
+                batch.clear();
+                backoff = 0;
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                failedAttempts.incrementAndGet();
+                lastError = e.getMessage();
+                System.err.println("[IndexOutbox] indexing " + batch.size() + " posts failed, retrying: " + e.getMessage());
+                // what is left is indexed after the next start
+                if (closing) return;
+                backoff = Math.min(retryMaxMs, backoff == 0 ? 500 : backoff * 2);
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    // called by the index after a commit, seq is the last outbox entry it made durable. a failed write is retried with
+    // the next commit, until then the entries would only be indexed once more after a restart
+    private void committed(long seq) {
+        synchronized (ackLock) {
+            if (seq <= ackedSeq || !channel.isOpen()) return;
+            try {
+                ack(seq);
+            } catch (Exception e) {
+                lastError = e.getMessage();
+                System.err.println("[IndexOutbox] could not record ack " + seq + ": " + e.getMessage());
+                return;
+            }
+        }
+        for (Entry head = uncommitted.peek(); head != null && head.seq() <= seq; head = uncommitted.peek()) uncommitted.poll();
+    }
+
+    // the acked sequence is replaced in one move, a crash leaves either the old or the new value
+    private void ack(long seq) throws Exception {
+        Path tmp = acked.resolveSibling("outbox.acked.tmp");
+        Files.writeString(tmp, Long.toString(seq), StandardCharsets.UTF_8);
+        Files.move(tmp, acked, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        ackedSeq = seq;
+        synchronized (this) {
+            // nothing in the log is needed anymore, sequence numbers keep counting from the acked file
+            if (seq == lastSeq && channel.size() > compactBytes) channel.truncate(0);
+        }
+    }
+
+    // queues every entry that was appended after the last ack. a torn last line was never confirmed to its caller, it is
+    // cut off so the next append starts on a line of its own
+    private void replay() throws Exception {
+        cutTornTail();
+        long ack = Files.exists(acked) ? Long.parseLong(Files.readString(acked, StandardCharsets.UTF_8).trim()) : 0;
+        long last = ack;
+        if (Files.exists(log)) {
+            for (String line : Files.readAllLines(log, StandardCharsets.UTF_8)) {
+                Entry e;
+                try {
+                    e = mapper.readValue(line, Entry.class);
+                } catch (Exception torn) {
+                    continue;
+                }
+                if (e.seq() > ack) queue.add(e);
+                last = Math.max(last, e.seq());
+            }
+        }
+        ackedSeq = ack;
+        lastSeq = last;
+        if (!queue.isEmpty()) System.err.println("[IndexOutbox] replaying " + queue.size() + " posts that were not indexed yet");
+    }
+
+    private void cutTornTail() throws Exception {
+        if (!Files.exists(log)) return;
+        try (FileChannel ch = FileChannel.open(log, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long end = ch.size();
+            long keep = 0;
+            // scans back from the end a block at a time for the last newline
+            ByteBuffer block = ByteBuffer.allocate(8192);
+            for (long to = end; to > 0 && keep == 0; ) {
+                long from = Math.max(0, to - block.capacity());
+                block.clear().limit((int) (to - from));
+                while (block.hasRemaining() && ch.read(block, from + block.position()) > 0) {}
+                for (int i = block.position() - 1; i >= 0; i--) {
+                    if (block.get(i) == '\n') {
+                        keep = from + i + 1;
+                        break;
+                    }
+                }
+                to = from;
+            }
+            if (keep < end) {
+                System.err.println("[IndexOutbox] cutting off a torn line of " + (end - keep) + " bytes");
+                ch.truncate(keep);
+                ch.force(false);
+            }
+        }
+    }
+
+    // gives the drainer a moment to finish the queue and commits what it indexed, anything left over is replayed on the
+    // next start
+    @PreDestroy
+    public void shutdown() {
+        closing = true;
+        try {
+            drainer.join(10_000);
+            running = false;
+            drainer.join(30_000);
+            indexer.commit();
+        } catch (Exception e) {
+            System.err.println("[IndexOutbox] final commit: " + e.getMessage());
+        }
+        indexer.setCommitListener(null);
+        try {
+            synchronized (ackLock) {
+                channel.close();
+            }
+        } catch (Exception e) {
+            System.err.println("[IndexOutbox] shutdown: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.demo.services;
+
+import com.example.demo.util.AdaptiveRateLimiter;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Meters shared by the upload pipeline and the provider clients, all readable under /actuator/metrics.
+//   ingest.step{step,outcome}            one timer per pipeline step (bucket, create, derive, thumbnail, ai_copy,
+//                                        sign, title, tags, alt, vision, save, outbox,
+//                                        save.batch, upsert.batch)
+//   provider.requests{provider,outcome}  every response or transport error, outcome rate_limited counts the 429s
+//   provider.retries{provider,reason}    attempts that were sent again (rate_limited, server_error, transport_error)
+//   provider.wait{provider,cause}        time spent waiting for a limiter slot or sitting out a backoff
+//   provider.rate{provider}              the per-minute rate the adaptive limiter currently allows
+@Component
+public class IngestMetrics {
+
+    private final MeterRegistry meters;
+    // builders are not free, every tag combination is registered once and looked up afterwards
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+    public IngestMetrics(MeterRegistry meters) {
+        this.meters = meters;
+    }
+
+    // times a blocking step, a thrown exception is recorded with outcome=error and passed on
+    public <T> T time(String step, Callable<T> body) throws Exception {
+        long started = System.nanoTime();
+        String outcome = "error";
+        try {
+            T out = body.call();
+            outcome = "success";
+            return out;
+        } finally {
+            step(step, outcome).record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // times a step that finishes later, the clock stops when the future completes
+    public <T> CompletableFuture<T> timeAsync(String step, Supplier<CompletableFuture<T>> body) {
+        long started = System.nanoTime();
+        return body.get().whenComplete((out, err) ->
+                step(step, err == null ? "success" : "error").record(System.nanoTime() - started, TimeUnit.NANOSECONDS));
+    }
+
+    public void record(String step, String outcome, long nanos) {
+        step(step, outcome).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void response(String provider, String outcome) {
+        counter("provider.requests", provider, "outcome", outcome).increment();
+    }
+
+    public void retry(String provider, String reason) {
+        counter("provider.retries", provider, "reason", reason).increment();
+    }
+
+    public void waited(String provider, String cause, long millis) {
+        if (millis <= 0) return;
+        timers.computeIfAbsent("provider.wait/" + provider + "/" + cause, k -> Timer.builder("provider.wait")
+                .description("time a provider request waited before it was sent")
+                .tag("provider", provider)
+                .tag("cause", cause)
+                .publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofMinutes(10))
+                .register(meters)).record(millis, TimeUnit.MILLISECONDS);
+    }
+
+    // the limiter is the one object that knows the rate it settled on after the last 429s
+    public void bind(AdaptiveRateLimiter limiter) {
+        Gauge.builder("provider.rate", limiter, AdaptiveRateLimiter::currentRatePerMinute)
+                .description("requests per minute the adaptive limiter currently allows")
+                .tag("provider", limiter.name())
+                .register(meters);
+    }
+
+    // outcome tag of provider.requests for a response that was not a rate limit
+    public static String outcomeOf(int code) {
+        if (code / 100 == 2) return "success";
+        return code / 100 == 5 ? "server_error" : "client_error";
+    }
+
+    private Timer step(String step, String outcome) {
+        return timers.computeIfAbsent("ingest.step/" + step + "/" + outcome, k -> Timer.builder("ingest.step")
+                .description("duration of one upload pipeline step")
+                .tag("step", step)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofMinutes(2))
+                .register(meters));
+    }
+
+    private Counter counter(String name, String provider, String tag, String value) {
+        return counters.computeIfAbsent(name + "/" + provider + "/" + value, k -> Counter.builder(name)
+                .tag("provider", provider)
+                .tag(tag, value)
+                .register(meters));
+    }
+}
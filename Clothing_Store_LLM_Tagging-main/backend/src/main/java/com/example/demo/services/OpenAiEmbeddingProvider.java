@@ -0,0 +1,39 @@
+package com.example.demo.services;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Embeddings from the OpenAI embeddings endpoint, sent through ChatGPTService so they share its retries and rate limiter.
+// text-embedding-3 models accept a dimensions parameter, which keeps vectors within Lucene's 1024 dimension limit.
+public class OpenAiEmbeddingProvider implements EmbeddingProvider {
+
+    private final ChatGPTService openAi;
+    private final String model;
+    private final int dimensions;
+
+    public OpenAiEmbeddingProvider(ChatGPTService openAi, String model, int dimensions) {
+        this.openAi = openAi;
+        this.model = model;
+        this.dimensions = dimensions;
+    }
+
+    @Override
+    public int dimensions() { return dimensions; }
+
+    @Override
+    public float[] embed(String text) {
+        return embedAll(List.of(text)).get(0);
+    }
+
+    // one request for the whole batch
+    @Override
+    public List<float[]> embedAll(List<String> texts) {
+        List<float[]> out = new ArrayList<>(texts.size());
+        List<float[]> vectors = openAi.embed(texts.stream().map(t -> t == null ? "" : t).toList(), model, dimensions);
+        for (int i = 0; i < texts.size(); i++) {
+            float[] v = i < vectors.size() ? vectors.get(i) : null;
+            out.add(v == null || v.length != dimensions ? null : EmbeddingProvider.normalize(v));
+        }
+        return out;
+    }
+}
@@ -3,34 +3,147 @@ package com.example.demo.services;
 import com.example.demo.Entity.Post;
 import com.google.api.core.ApiFuture;
 import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.WriteBatch;
 import com.google.cloud.firestore.WriteResult;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 @Service
 public class PostService {
 
     private final Firestore db;
-    private final ApacheIndexingService indexer;
+    // the index is updated from the outbox, off the request path
+    private final IndexOutbox outbox;
+    private final IngestMetrics metrics;
 
+    // bulk saves are queued and written as one firestore batch when max-posts are waiting or the oldest waited max-delay-ms.
+    // firestore allows 500 writes per batch
+    private final int batchMaxPosts;
+    private final long batchMaxDelayMs;
+    private final List<Queued> queue = new ArrayList<>();
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "firestore-batch");
+        t.setDaemon(true);
+        return t;
+    });
 
-    public PostService(Firestore db, ApacheIndexingService indexer) {
+    private record Queued(Post post, CompletableFuture<String> saved) {}
+
+
+    public PostService(Firestore db, IndexOutbox outbox, IngestMetrics metrics,
+                       @Value("${firestore.batch.max-posts:100}") int batchMaxPosts,
+                       @Value("${firestore.batch.max-delay-ms:100}") long batchMaxDelayMs) {
         this.db = db;
-        this.indexer = indexer;
+        this.outbox = outbox;
+        this.metrics = metrics;
+        this.batchMaxPosts = Math.max(1, Math.min(500, batchMaxPosts));
+        this.batchMaxDelayMs = Math.max(0, batchMaxDelayMs);
     }
 
     public String savePost(Post post) throws Exception {
+        String id = assignId(post);
+        ApiFuture<WriteResult> write = db.collection("posts").document(id).set(post);
+        metrics.time("save", write::get);
+        toOutbox(List.of(post));
+
+        return id;
+    }
+
+    // queues the post for the next batch, the future completes with its id once firestore acknowledged the batch,
+    // or fails together with the rest of the batch
+    public CompletableFuture<String> savePostBatched(Post post) {
+        assignId(post);
+        Queued q = new Queued(post, new CompletableFuture<>());
+        int waiting;
+        synchronized (queue) {
+            queue.add(q);
+            waiting = queue.size();
+        }
+        if (waiting == batchMaxPosts) flusher.execute(this::flush);
+        else if (waiting == 1) flusher.schedule(this::flush, batchMaxDelayMs, TimeUnit.MILLISECONDS);
+        return q.saved();
+    }
+
+    private static String assignId(Post post) {
         String id = (post.getPostID() == null ||  post.getPostID().isBlank())
                 ? UUID.randomUUID().toString()
                 : post.getPostID();
-
         post.setPostID(id);
-        ApiFuture<WriteResult> write = db.collection("posts").document(id).set(post);
-        write.get();
-        indexer.upsert(post);
-
         return id;
     }
 
+    // the posts are saved by now, so an outbox that can not take them (disk full, failed fsync) must not fail the save.
+    // they are then indexed from memory only: a restart before that leaves them out of the index until the next reindex
+    private void toOutbox(List<Post> posts) {
+        try {
+            metrics.time("outbox", () -> {
+                outbox.append(posts);
+                return null;
+            });
+        } catch (Exception e) {
+            System.err.println("[PostService] outbox append of " + posts.size() + " posts failed, indexing them without it: " + e.getMessage());
+            outbox.appendUnlogged(posts);
+        }
+    }
+
+    // writes up to max-posts queued posts in one batch, then hands all of them to the outbox in one append.
+    // runs on the single flusher thread, so batches go out one after the other
+    private void flush() {
+        List<Queued> batch;
+        int left;
+        synchronized (queue) {
+            if (queue.isEmpty()) return;
+            int n = Math.min(batchMaxPosts, queue.size());
+            batch = new ArrayList<>(queue.subList(0, n));
+            queue.subList(0, n).clear();
+            left = queue.size();
+        }
+        // whatever arrived meanwhile gets its own deadline, or goes out right after this batch when it is full.
+        // after shutdown the draining task picks it up instead
+        if (!flusher.isShutdown()) {
+            if (left >= batchMaxPosts) flusher.execute(this::flush);
+            else if (left > 0) flusher.schedule(this::flush, batchMaxDelayMs, TimeUnit.MILLISECONDS);
+        }
+
+        List<Post> posts = batch.stream().map(Queued::post).toList();
+        try {
+            WriteBatch write = db.batch();
+            for (Post p : posts) write.set(db.collection("posts").document(p.getPostID()), p);
+            metrics.time("save.batch", () -> write.commit().get());
+        } catch (Exception e) {
+            System.err.println("[PostService] batch of " + posts.size() + " posts failed: " + e.getMessage());
+            for (Queued q : batch) q.saved().completeExceptionally(e);
+            return;
+        }
+        toOutbox(posts);
+        for (Queued q : batch) q.saved().complete(q.post().getPostID());
+    }
+
+    // posts still queued are written before the app goes down
+    @PreDestroy
+    public void shutdown() {
+        flusher.execute(() -> {
+            while (true) {
+                synchronized (queue) {
+                    if (queue.isEmpty()) return;
+                }
+                flush();
+            }
+        });
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
 }
@@ -0,0 +1,153 @@
+package com.example.demo.services;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.MultiTermQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryVisitor;
+import org.apache.lucene.util.automaton.ByteRunAutomaton;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+
+// Turns raw search box input into a query that is cheap to run.
+// Constructs that scan the whole term dictionary are rewritten (leading wildcards, regexes, one letter prefixes),
+// wildcard, prefix, range and fuzzy terms expand to a bounded number of terms, and oversized queries are rejected.
+// Queries with such multi term parts share a small number of permits, so a burst of them can not occupy every search thread.
+@Service
+public class QueryGuard {
+
+    private static final Pattern LEADING_WILDCARD = Pattern.compile("(^|[\\s(+\\-:\"])[*?]+(?=[^\\s*?])");
+    private static final Pattern LONE_WILDCARD = Pattern.compile("(^|[\\s(+\\-:])[*?]+(?=\\s|\\)|$)");
+    private static final Pattern SHORT_PREFIX = Pattern.compile("(?<![\\p{L}\\p{N}*?])([\\p{L}\\p{N}])[*?]+");
+
+    private final int maxLength;
+    private final int maxClauses;
+    private final int maxExpansions;
+    private final int fuzzyPrefixLength;
+    private final Semaphore multiTermPermits;
+
+    public QueryGuard(@Value("${search.query.max-length:256}") int maxLength,
+                      @Value("${search.query.max-clauses:64}") int maxClauses,
+                      @Value("${search.query.max-expansions:64}") int maxExpansions,
+                      @Value("${search.query.fuzzy-prefix-length:2}") int fuzzyPrefixLength,
+                      @Value("${search.query.max-concurrent-multiterm:4}") int maxConcurrentMultiTerm) {
+        this.maxLength = maxLength;
+        this.maxClauses = maxClauses;
+        this.maxExpansions = maxExpansions;
+        this.fuzzyPrefixLength = fuzzyPrefixLength;
+        this.multiTermPermits = new Semaphore(Math.max(1, maxConcurrentMultiTerm), true);
+    }
+
+    // the user gets a 400 for these, the message says what to change
+    public static class QueryRejectedException extends IllegalArgumentException {
+        public QueryRejectedException(String message) { super(message); }
+    }
+
+    // every multi term permit stayed taken for the whole time budget, the caller answers 503
+    public static class SearchBusyException extends RuntimeException {
+        public SearchBusyException(String message) { super(message); }
+    }
+
+    public record Guarded(Query query, boolean multiTerm) {}
+
+    public Guarded parse(String raw, String[] fields, Analyzer analyzer) {
+        if (raw.length() > maxLength) {
+            throw new QueryRejectedException("query is longer than " + maxLength + " characters");
+        }
+        String safe = rewrite(raw);
+        Query query;
+        try {
+            query = parser(fields, analyzer).parse(safe);
+        } catch (ParseException pe) {
+            // unbalanced quotes or brackets: the input is searched as plain words instead of coming back empty
+            try {
+                query = parser(fields, analyzer).parse(QueryParser.escape(safe));
+            } catch (ParseException stillBad) {
+                throw new QueryRejectedException("query could not be parsed");
+            }
+        }
+
+        Cost cost = new Cost();
+        query.visit(cost);
+        if (cost.clauses > maxClauses) {
+            throw new QueryRejectedException("query expands to " + cost.clauses + " clauses, at most " + maxClauses + " are allowed");
+        }
+        return new Guarded(query, cost.multiTerm);
+    }
+
+    // runs the search holding a multi term permit when the query needs one, waiting at most budgetMs for it.
+    // the wait does not count against the search's own time budget, the search starts that once it runs
+    public <T> T run(Guarded guarded, long budgetMs, Callable<T> search) throws Exception {
+        if (!guarded.multiTerm()) return search.call();
+        boolean acquired;
+        try {
+            acquired = multiTermPermits.tryAcquire(budgetMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new SearchBusyException("interrupted while waiting for a search slot");
+        }
+        if (!acquired) throw new SearchBusyException("too many wildcard or fuzzy searches at once, try again");
+        try {
+            return search.call();
+        } finally {
+            multiTermPermits.release();
+        }
+    }
+
+    private MultiFieldQueryParser parser(String[] fields, Analyzer analyzer) {
+        MultiFieldQueryParser parser = new MultiFieldQueryParser(fields, analyzer);
+        parser.setAllowLeadingWildcard(false);
+        parser.setFuzzyPrefixLength(fuzzyPrefixLength);
+        // wildcard, prefix and range terms keep only their best matching terms instead of every term in the index
+        parser.setMultiTermRewriteMethod(new MultiTermQuery.TopTermsBlendedFreqScoringRewrite(maxExpansions));
+        return parser;
+    }
+
+    // "*shirt" -> "shirt", "a*" -> "a", "/re.ex/" is not run as a regex, a lone "*" inside a query is dropped
+    static String rewrite(String raw) {
+        String s = raw.replace("/", "\\/");
+        s = LEADING_WILDCARD.matcher(s).replaceAll("$1");
+        s = LONE_WILDCARD.matcher(s).replaceAll("$1");
+        s = SHORT_PREFIX.matcher(s).replaceAll("$1");
+        s = s.trim();
+        return s.isEmpty() ? "\"\"" : s;
+    }
+
+    // counts leaf clauses across every field, and whether any part expands to multiple terms
+    private static final class Cost extends QueryVisitor {
+        int clauses;
+        boolean multiTerm;
+
+        @Override
+        public void consumeTerms(Query query, Term... terms) {
+            clauses += terms.length;
+        }
+
+        @Override
+        public void visitLeaf(Query query) {
+            clauses++;
+        }
+
+        // wildcard, prefix, range and fuzzy parts report the automaton of terms they match
+        @Override
+        public void consumeTermsMatching(Query query, String field, Supplier<ByteRunAutomaton> automaton) {
+            clauses++;
+            multiTerm = true;
+        }
+
+        @Override
+        public QueryVisitor getSubVisitor(BooleanClause.Occur occur, Query parent) {
+            return this;
+        }
+    }
+}
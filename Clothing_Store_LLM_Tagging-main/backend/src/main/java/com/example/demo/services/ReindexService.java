@@ -0,0 +1,340 @@
+package com.example.demo.services;
+
+import com.example.demo.Entity.Post;
+import com.example.demo.util.BoundedStage;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+// Rebuilds the Lucene index from the Firestore "posts" collection, for a lost or corrupted lucene-index or a new node.
+// Pages are read in document id order and indexed in parallel into a separate directory with a writer tuned for bulk loading.
+// Every few pages the rebuilt index is committed together with the last document id, an interrupted run continues from there.
+// When the scan is done the rebuilt index replaces the live one in a single step, searches keep working throughout.
+@Service
+public class ReindexService {
+
+    public enum State { IDLE, RUNNING, SWAPPING, DONE, FAILED }
+
+    // capturing is true while saved posts are recorded for an unfinished run, which a failed run keeps doing until
+    // a later run finishes or starts over
+    public record Status(State state, long indexed, int pages, String lastDocId, boolean resumed,
+                         String startedAt, String finishedAt, String error, boolean capturing) {}
+
+    private static final String LastDocKey = "reindex.lastDocId";
+    private static final String IndexedKey = "reindex.indexed";
+    private static final String RunKey = "reindex.run";
+
+    private final Firestore db;
+    private final ApacheIndexingService indexer;
+    private final SearcherManager searcherManager;
+    private final SuggestService suggestions;
+    private final Analyzer analyzer;
+
+    private final Path dir;
+    private final int pageSize;
+    private final int threads;
+    private final int checkpointPages;
+    private final double ramBufferMb;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile Status status = new Status(State.IDLE, 0, 0, null, false, null, null, null, false);
+    // posts upserted during the current run, re-applied on top of the rebuilt index right before the swap
+    private volatile Map<String, Post> runCaptures;
+    // captured.log stays open while posts are captured, a capture is one write under the indexer's swap lock
+    private volatile FileChannel captured;
+
+    public ReindexService(Firestore db, ApacheIndexingService indexer, SearcherManager searcherManager,
+                          SuggestService suggestions, Analyzer analyzer,
+                          @Value("${reindex.dir:lucene-reindex}") String dir,
+                          @Value("${reindex.page-size:500}") int pageSize,
+                          @Value("${reindex.threads:4}") int threads,
+                          @Value("${reindex.checkpoint-pages:10}") int checkpointPages,
+                          @Value("${reindex.ram-buffer-mb:256}") double ramBufferMb) {
+        this.db = db;
+        this.indexer = indexer;
+        this.searcherManager = searcherManager;
+        this.suggestions = suggestions;
+        this.analyzer = analyzer;
+        this.dir = Paths.get(dir).toAbsolutePath().normalize();
+        this.pageSize = Math.max(1, pageSize);
+        this.threads = Math.max(1, threads);
+        this.checkpointPages = Math.max(1, checkpointPages);
+        this.ramBufferMb = ramBufferMb;
+
+        searcherManager.addListener(indexer.refreshGate());
+        // an unfinished run keeps recording saved posts across restarts, so resuming it does not miss them
+        if (Files.exists(capturedLog())) {
+            try {
+                startCapture();
+            } catch (Exception e) {
+                System.err.println("[Reindex] could not reopen " + capturedLog() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    public Status status() {
+        Status s = status;
+        return new Status(s.state(), s.indexed(), s.pages(), s.lastDocId(), s.resumed(), s.startedAt(), s.finishedAt(), s.error(),
+                captured != null);
+    }
+
+    // runs the reindex on a background thread, false when one is already running
+    public boolean start(boolean fromScratch) {
+        if (!running.compareAndSet(false, true)) return false;
+        Thread t = new Thread(() -> {
+            try {
+                runNow(fromScratch);
+            } finally {
+                running.set(false);
+            }
+        }, "lucene-reindex");
+        t.setDaemon(true);
+        t.start();
+        return true;
+    }
+
+    // the whole job on the calling thread. fromScratch drops the checkpoint of an earlier run instead of resuming it
+    public Status runNow(boolean fromScratch) {
+        String startedAt = Instant.now().toString();
+        try {
+            if (fromScratch) {
+                stopCapture();
+                deleteRecursively(dir);
+            }
+            Files.createDirectories(dir);
+            runCaptures = new ConcurrentHashMap<>();
+            startCapture();
+
+            try (Directory fresh = FSDirectory.open(dir.resolve("index"))) {
+                String after = null;
+                long already = 0;
+                String earlierRun = null;
+                if (DirectoryReader.indexExists(fresh)) {
+                    Map<String, String> checkpoint = SegmentInfos.readLatestCommit(fresh).getUserData();
+                    // without a run id the documents of the checkpoint are not marked, the run starts over
+                    earlierRun = checkpoint.get(RunKey);
+                    if (earlierRun != null) {
+                        after = checkpoint.get(LastDocKey);
+                        already = Long.parseLong(checkpoint.getOrDefault(IndexedKey, "0"));
+                    }
+                }
+                boolean resumed = after != null;
+                // every document of the rebuilt index carries the run id, the swap keeps those and deletes the rest
+                String run = resumed ? earlierRun : UUID.randomUUID().toString();
+                AtomicLong indexed = new AtomicLong(already);
+                int pages = 0;
+                status = new Status(State.RUNNING, already, 0, after, resumed, startedAt, null, null, false);
+
+                IndexWriter bulk = new IndexWriter(fresh, bulkConfig(resumed));
+                try {
+                    try (BoundedStage stage = new BoundedStage("reindex", threads, threads * 2)) {
+                        List<CompletableFuture<Void>> window = new ArrayList<>();
+                        while (true) {
+                            Query page = db.collection("posts").orderBy(FieldPath.documentId()).limit(pageSize);
+                            if (after != null) page = page.startAfter(after);
+                            List<QueryDocumentSnapshot> docs = page.get().get().getDocuments();
+                            if (docs.isEmpty()) break;
+
+                            // the next page is fetched while the workers index this one
+                            CompletableFuture<Void> done = new CompletableFuture<>();
+                            stage.submit(() -> {
+                                try {
+                                    List<Post> posts = new ArrayList<>();
+                                    for (QueryDocumentSnapshot snap : docs) {
+                                        Post p = toPost(snap);
+                                        if (p != null) posts.add(p);
+                                    }
+                                    // converted as a batch, embeddings for the whole page come from one request
+                                    List<Document> converted = indexer.toDocs(posts);
+                                    for (int i = 0; i < posts.size(); i++) {
+                                        bulk.updateDocument(new Term("postID", posts.get(i).getPostID()), marked(converted.get(i), run));
+                                        indexed.incrementAndGet();
+                                    }
+                                    done.complete(null);
+                                } catch (Exception e) {
+                                    done.completeExceptionally(e);
+                                }
+                            });
+                            window.add(done);
+                            after = docs.get(docs.size() - 1).getId();
+                            pages++;
+
+                            if (pages % checkpointPages == 0) checkpoint(bulk, window, run, after, indexed.get());
+                            status = new Status(State.RUNNING, indexed.get(), pages, after, resumed, startedAt, null, null, false);
+                            if (docs.size() < pageSize) break;
+                        }
+                        checkpoint(bulk, window, run, after, indexed.get());
+                    }
+
+                    // posts saved while an earlier, interrupted run was going on are read back from Firestore
+                    Set<String> earlier = readCapturedIds();
+                    earlier.removeAll(runCaptures.keySet());
+                    for (String id : earlier) {
+                        Post p = toPost(db.collection("posts").document(id).get().get());
+                        if (p != null) bulk.updateDocument(new Term("postID", p.getPostID()), marked(indexer.toDoc(p), run));
+                    }
+
+                    status = new Status(State.SWAPPING, indexed.get(), pages, after, resumed, startedAt, null, null, false);
+                    indexer.swapIn(fresh, run, () -> {
+                        for (Post p : runCaptures.values()) {
+                            bulk.updateDocument(new Term("postID", p.getPostID()), marked(indexer.toDoc(p), run));
+                        }
+                        bulk.close();
+                        return null;
+                    });
+                    stopCapture();
+                    searcherManager.maybeRefreshBlocking();
+                } catch (Exception e) {
+                    // uncommitted pages are dropped, the last checkpoint stays on disk and the write lock is released
+                    bulk.rollback();
+                    throw e;
+                }
+
+                status = new Status(State.DONE, indexed.get(), pages, after, resumed, startedAt, Instant.now().toString(), null, false);
+            }
+            deleteRecursively(dir);
+            suggestions.rebuild();
+            System.err.println("[Reindex] done, " + status.indexed() + " posts in " + status.pages() + " pages");
+        } catch (Exception e) {
+            System.err.println("[Reindex] failed, the checkpoint is kept for the next run: " + e.getMessage());
+            Status s = status;
+            status = new Status(State.FAILED, s.indexed(), s.pages(), s.lastDocId(), s.resumed(), startedAt,
+                    Instant.now().toString(), e.getClass().getSimpleName() + ": " + e.getMessage(), false);
+        } finally {
+            runCaptures = null;
+        }
+        return status;
+    }
+
+    // waits for every submitted page, then commits them together with the position to resume from
+    private void checkpoint(IndexWriter bulk, List<CompletableFuture<Void>> window, String run, String lastDocId, long indexed) throws Exception {
+        CompletableFuture.allOf(window.toArray(CompletableFuture[]::new)).join();
+        window.clear();
+        if (lastDocId == null) return;
+        bulk.setLiveCommitData(Map.of(RunKey, run, LastDocKey, lastDocId, IndexedKey, Long.toString(indexed)).entrySet());
+        bulk.commit();
+    }
+
+    // the swap keeps the documents of this run and deletes every other one
+    private static Document marked(Document d, String run) {
+        d.add(new StringField(ApacheIndexingService.ReindexRunField, run, Field.Store.NO));
+        return d;
+    }
+
+    // large ram buffer and no compound files: fewer, bigger segments are flushed while loading
+    private IndexWriterConfig bulkConfig(boolean resumed) {
+        IndexWriterConfig cfg = new IndexWriterConfig(analyzer);
+        cfg.setOpenMode(resumed ? IndexWriterConfig.OpenMode.CREATE_OR_APPEND : IndexWriterConfig.OpenMode.CREATE);
+        cfg.setRAMBufferSizeMB(ramBufferMb);
+        cfg.setMaxBufferedDocs(IndexWriterConfig.DISABLE_AUTO_FLUSH);
+        cfg.setUseCompoundFile(false);
+        return cfg;
+    }
+
+    // only documents written by PostService are posts, test documents without an image are skipped
+    private static Post toPost(DocumentSnapshot snap) {
+        if (!snap.exists() || snap.getString("imageURL") == null) return null;
+        Post p = snap.toObject(Post.class);
+        if (p == null) return null;
+        if (p.getPostID() == null || p.getPostID().isBlank()) p.setPostID(snap.getId());
+        return p;
+    }
+
+    private synchronized void startCapture() throws Exception {
+        if (captured == null) {
+            captured = FileChannel.open(capturedLog(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+        indexer.setCaptureListener(this::capture);
+    }
+
+    private synchronized void stopCapture() {
+        indexer.setCaptureListener(null);
+        if (captured == null) return;
+        try {
+            captured.close();
+        } catch (Exception e) {
+            System.err.println("[Reindex] could not close " + capturedLog() + ": " + e.getMessage());
+        }
+        captured = null;
+    }
+
+    private void capture(Post p) {
+        Map<String, Post> current = runCaptures;
+        if (current != null) current.put(p.getPostID(), p);
+        FileChannel out = captured;
+        if (out == null) return;
+        try {
+            // one write per id, appends of concurrent upserts do not interleave
+            ByteBuffer line = ByteBuffer.wrap((p.getPostID() + "\n").getBytes(StandardCharsets.UTF_8));
+            while (line.hasRemaining()) out.write(line);
+        } catch (Exception e) {
+            System.err.println("[Reindex] could not record " + p.getPostID() + ": " + e.getMessage());
+            // an interrupted write closes the channel, later captures get a new one
+            if (!out.isOpen()) reopenCapture(out);
+        }
+    }
+
+    private synchronized void reopenCapture(FileChannel closed) {
+        if (captured != closed) return;
+        try {
+            captured = FileChannel.open(capturedLog(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (Exception e) {
+            System.err.println("[Reindex] could not reopen " + capturedLog() + ": " + e.getMessage());
+        }
+    }
+
+    private Set<String> readCapturedIds() throws Exception {
+        Set<String> ids = new LinkedHashSet<>();
+        if (!Files.exists(capturedLog())) return ids;
+        for (String line : Files.readAllLines(capturedLog())) {
+            if (!line.isBlank()) ids.add(line.trim());
+        }
+        return ids;
+    }
+
+    private Path capturedLog() { return dir.resolve("captured.log"); }
+
+    private static void deleteRecursively(Path root) throws Exception {
+        if (!Files.exists(root)) return;
+        try (Stream<Path> files = Files.walk(root)) {
+            for (Path f : files.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(f);
+        }
+    }
+}
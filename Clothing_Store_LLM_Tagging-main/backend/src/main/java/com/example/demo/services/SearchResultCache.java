@@ -0,0 +1,124 @@
+package com.example.demo.services;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Recently returned search pages, keyed by normalized query, mode, limit, cursor and drill-down tags.
+// Entries belong to one index version: as soon as a search sees a newer reader (after an upsert was refreshed in),
+// everything is dropped, so a cached result is never older than what the index would return.
+// The cache is bounded by an estimate of the bytes held by the cached hits, the least recently used go first.
+@Service
+public class SearchResultCache {
+
+    private static final int EntryOverheadBytes = 64;
+    private static final int HitOverheadBytes = 48;
+
+    private final long maxBytes;
+    private long usedBytes;
+    private long version = -1;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(256, 0.75f, true);
+
+    public SearchResultCache(@Value("${search.cache.max-bytes:33554432}") long maxBytes, MeterRegistry meters) {
+        this.maxBytes = maxBytes;
+
+        FunctionCounter.builder("search.cache.requests", hits, AtomicLong::get).tag("result", "hit").register(meters);
+        FunctionCounter.builder("search.cache.requests", misses, AtomicLong::get).tag("result", "miss").register(meters);
+        FunctionCounter.builder("search.cache.evictions", evictions, AtomicLong::get).register(meters);
+        FunctionCounter.builder("search.cache.invalidations", invalidations, AtomicLong::get).register(meters);
+        Gauge.builder("search.cache.bytes", this, SearchResultCache::usedBytes).register(meters);
+        Gauge.builder("search.cache.hit.ratio", this, c -> c.stats().hitRatio()).register(meters);
+    }
+
+    public record Key(String query, String mode, int limit, String cursor, List<String> tags, int facetCount, List<String> fields) {
+        // whitespace is collapsed, case is kept because the parser treats AND / OR differently from and / or
+        public static Key of(String q, String mode, int limit, String cursor, List<String> tags, int facetCount, List<String> fields) {
+            String query = (q == null) ? "" : q.trim().replaceAll("\\s+", " ");
+            return new Key(query, (mode == null ? "llm" : mode.toLowerCase(Locale.ROOT)), limit, (cursor == null ? "" : cursor),
+                    List.copyOf(tags), facetCount, List.copyOf(fields));
+        }
+    }
+
+    public record Stats(long hits, long misses, double hitRatio, long evictions, long invalidations, int entries, long bytes) {}
+
+    private record Entry(SearchService.SearchPage page, long bytes) {}
+
+    // null on a miss, indexVersion is the version of the reader the caller is searching
+    public synchronized SearchService.SearchPage get(Key key, long indexVersion) {
+        if (maxBytes <= 0) return null;
+        invalidateIfStale(indexVersion);
+        // a page deeper in a pinned, older snapshot never matches what the cache holds for the current one
+        Entry e = (indexVersion == version) ? entries.get(key) : null;
+        if (e == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return e.page();
+    }
+
+    public synchronized void put(Key key, long indexVersion, SearchService.SearchPage result) {
+        if (maxBytes <= 0) return;
+        invalidateIfStale(indexVersion);
+        // results computed on an older reader than the cache has already seen are not kept
+        if (indexVersion != version) return;
+
+        long bytes = estimate(key, result);
+        if (bytes > maxBytes) return;
+        Entry old = entries.put(key, new Entry(new SearchService.SearchPage(List.copyOf(result.items()), result.total(), result.nextCursor(), List.copyOf(result.facets()), result.partial()), bytes));
+        if (old != null) usedBytes -= old.bytes();
+        usedBytes += bytes;
+
+        Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+        while (usedBytes > maxBytes && eldest.hasNext()) {
+            usedBytes -= eldest.next().getValue().bytes();
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    public synchronized long usedBytes() { return usedBytes; }
+
+    public synchronized Stats stats() {
+        long h = hits.get(), m = misses.get();
+        double ratio = (h + m == 0) ? 0 : (double) h / (h + m);
+        return new Stats(h, m, ratio, evictions.get(), invalidations.get(), entries.size(), usedBytes);
+    }
+
+    private void invalidateIfStale(long indexVersion) {
+        if (indexVersion <= version) return;
+        if (!entries.isEmpty()) invalidations.incrementAndGet();
+        entries.clear();
+        usedBytes = 0;
+        version = indexVersion;
+    }
+
+    // rough heap size: two bytes per char plus object overheads
+    private static long estimate(Key key, SearchService.SearchPage result) {
+        long bytes = EntryOverheadBytes + 2L * (key.query().length() + key.cursor().length() + len(result.nextCursor()));
+        for (String t : key.tags()) bytes += 2L * t.length();
+        for (SearchService.FacetCount f : result.facets()) bytes += HitOverheadBytes + 2L * f.tag().length();
+        for (SearchService.SearchHit h : result.items()) {
+            bytes += HitOverheadBytes + 2L * (len(h.postID()) + len(h.title()) + len(h.imageURL()) + len(h.thumbnailURL())
+                    + len(h.llmTags()) + len(h.altText()) + len(h.date()));
+        }
+        return bytes;
+    }
+
+    private static int len(String s) { return s == null ? 0 : s.length(); }
+}
@@ -1,76 +1,389 @@
-
 package com.example.demo.services;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.document.Document;
+import org.apache.lucene.facet.DrillDownQuery;
+import org.apache.lucene.facet.FacetResult;
+import org.apache.lucene.facet.FacetsCollector;
+import org.apache.lucene.facet.FacetsConfig;
+import org.apache.lucene.facet.LabelAndValue;
+import org.apache.lucene.facet.sortedset.DefaultSortedSetDocValuesReaderState;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetCounts;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesReaderState;
 import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexNotFoundException;
-import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
-import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.QueryTimeoutImpl;
+import org.apache.lucene.index.StoredFieldVisitor;
+import org.apache.lucene.index.StoredFields;
 import org.apache.lucene.search.*;
-import org.apache.lucene.store.Directory;
+import org.apache.lucene.util.BytesRef;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 @Service
 public class SearchService {
-    private final Directory directory;
+    // score first, the postID breaks ties so every hit has a unique position to continue after
+    private static final Sort PAGE_SORT = new Sort(SortField.FIELD_SCORE, new SortField("postIDSort", SortField.Type.STRING));
+
+    // every stored field a hit can carry, ?fields= picks a subset. postID is always returned, cursors continue after it
+    public static final List<String> HIT_FIELDS = List.of("postID", "title", "imageURL", "thumbnailURL", "llmTags", "altText", "date");
+
+    private final SearcherManager searcherManager;
     private final Analyzer analyzer;
+    private final SearchResultCache cache;
+    private final FacetsConfig facetsConfig;
+    private final EmbeddingProvider embedder;
+    private final int semanticCandidates;
+    private final QueryGuard queryGuard;
+    // how long collecting a page may take, and separately how long a multi term query may wait for its permit
+    private final long budgetMs;
+    // search.latency{mode,outcome}, outcome is cached, complete, partial or error
+    private final MeterRegistry meters;
+    private final Map<String, Timer> latency = new ConcurrentHashMap<>();
+
+    // ordinal maps for the tag facet, built once per reader and dropped when the reader closes
+    private final Map<IndexReader.CacheKey, SortedSetDocValuesReaderState> facetStates = new ConcurrentHashMap<>();
+
+    // readers handed out with a cursor are kept for a while, so later pages see the same snapshot of the index
+    private final SearcherLifetimeManager pinned = new SearcherLifetimeManager();
+    private final double cursorMaxAgeSeconds;
+    private volatile long lastPruneNanos = System.nanoTime();
 
-    public SearchService(Directory directory, Analyzer analyzer) {
-        this.directory = directory;
+    public SearchService(SearcherManager searcherManager, Analyzer analyzer, SearchResultCache cache, FacetsConfig facetsConfig,
+                         EmbeddingProvider embedder, QueryGuard queryGuard, MeterRegistry meters,
+                         @Value("${search.cursor.max-age-seconds:600}") double cursorMaxAgeSeconds,
+                         @Value("${search.semantic.candidates:200}") int semanticCandidates,
+                         @Value("${search.budget-ms:250}") long budgetMs) {
+        this.searcherManager = searcherManager;
         this.analyzer = analyzer;
+        this.cache = cache;
+        this.facetsConfig = facetsConfig;
+        this.embedder = embedder;
+        this.cursorMaxAgeSeconds = cursorMaxAgeSeconds;
+        this.semanticCandidates = Math.max(1, semanticCandidates);
+        this.queryGuard = queryGuard;
+        this.budgetMs = budgetMs;
+        this.meters = meters;
     }
 
-    public List<SearchHit> search(String q, String mode, int limit) throws Exception {
-        DirectoryReader reader;
+    // a page of results, nextCursor is null on the last page. facets are only counted for the first page.
+    // partial pages ran out of search.budget-ms, they hold the best hits found until then and the total is a lower bound
+    public record SearchPage(List<SearchHit> items, long total, String nextCursor, List<FacetCount> facets, boolean partial) {}
+
+    public record FacetCount(String tag, int count) {}
+
+    // searches run on the shared searcher, which is acquired per request and released afterwards.
+    // with a cursor the page continues after the last hit of the previous one, on the reader that page came from when it is still pinned.
+    // tags narrow the results to posts carrying all of them, facetCount is how many top tags to count (0 for none).
+    // fields limits what is loaded per hit, null or empty loads all of HIT_FIELDS
+    public SearchPage search(String q, String mode, int limit, String cursor, List<String> tags, int facetCount,
+                             List<String> fields) throws Exception {
+        List<String> projection = projection(fields);
+        List<String> drillDown = (tags == null) ? List.of()
+                : tags.stream().flatMap(t -> ApacheIndexingService.normalizeTags(t).stream()).distinct().sorted().toList();
+        Cursor after = (cursor == null || cursor.isBlank()) ? null : Cursor.decode(cursor);
+        pruneOccasionally();
+
+        IndexSearcher searcher = (after == null) ? null : pinned.acquire(after.version());
+        boolean fromPinned = searcher != null;
+        if (searcher == null) searcher = searcherManager.acquire();
+        long started = System.nanoTime();
+        String outcome = "error";
         try {
-            reader = DirectoryReader.open(directory);
-        } catch (IndexNotFoundException e) {
-            return Collections.emptyList();
-        }
+            // the reader version moves with every refresh that picked up an upsert, cached results of older versions are dropped
+            long version = ((DirectoryReader) searcher.getIndexReader()).getVersion();
+            SearchResultCache.Key key = SearchResultCache.Key.of(q, mode, limit, cursor, drillDown, facetCount, projection);
+            SearchPage cached = cache.get(key, version);
+            if (cached != null) {
+                outcome = "cached";
+                return cached;
+            }
 
-        try (reader) {
-            String[] fields = switch (mode == null ? "llm" : mode.toLowerCase()) {
+            // semantic ends up in the default branch too, it is used when the query could not be embedded
+            String[] searchFields = switch (mode == null ? "llm" : mode.toLowerCase()) {
                 case "alt" -> new String[]{"altText"};
                 case "llm" -> new String[]{"llmTags", "title"};
                 default    -> new String[]{"llmTags", "altText", "title"};
             };
 
-            IndexSearcher searcher = new IndexSearcher(reader);
             Query query;
+            QueryGuard.Guarded guarded = null;
             String raw = (q == null) ? "" : q.trim();
-            if (raw.isEmpty() || raw.equals("*")) query = new MatchAllDocsQuery();
+            Query tagFilter = tagFilter(drillDown);
+            float[] vector = "semantic".equalsIgnoreCase(mode) && !raw.isEmpty() && !raw.equals("*")
+                    ? embedder.embed(raw) : null;
+            if (vector != null) {
+                // hnsw search for the nearest posts, tags filter the graph walk itself instead of the top k afterwards.
+                // pages are cut from these candidates, so a cursor never goes deeper than search.semantic.candidates
+                query = new KnnFloatVectorQuery("embedding", vector, Math.max(semanticCandidates, Math.max(1, limit) + 1), tagFilter);
+                tagFilter = null;
+            } else if (raw.isEmpty() || raw.equals("*")) query = new MatchAllDocsQuery();
             else {
-                try {
-                    query = new MultiFieldQueryParser(fields, analyzer).parse(raw);
-                } catch (ParseException pe) {
-                    return Collections.emptyList();
-                }
+                // rejected input surfaces as a 400, anything else is rewritten into a query with bounded expansion
+                guarded = queryGuard.parse(raw, searchFields, analyzer);
+                query = guarded.query();
+            }
+            if (tagFilter != null) {
+                query = new BooleanQuery.Builder()
+                        .add(query, BooleanClause.Occur.MUST)
+                        .add(tagFilter, BooleanClause.Occur.FILTER)
+                        .build();
             }
 
-            TopDocs top = searcher.search(query, Math.max(1, limit));
-            List<SearchHit> out = new ArrayList<>();
-            for (ScoreDoc sd : top.scoreDocs) {
-                Document d = searcher.storedFields().document(sd.doc);
-                out.add(new SearchHit(
-                        d.get("postID"),
-                        d.get("title"),
-                        d.get("imageURL"),
-                        d.get("llmTags"),
-                        d.get("altText"),
-                        d.get("date"),
-                        sd.score
-                ));
+            int n = Math.max(1, limit);
+            IndexSearcher shared = searcher;
+            Query toRun = query;
+            // the time budget starts once the search may run, the wait for a multi term permit has a budget of its own.
+            // one hit more than the page is collected, it is not served and only tells whether another page follows
+            Callable<Budgeted> run = () -> {
+                IndexSearcher t = budgeted(shared);
+                return new Budgeted(t, collect(t, toRun, n + 1, after, fromPinned, facetCount));
+            };
+            Budgeted b = (guarded == null) ? run.call() : queryGuard.run(guarded, budgetMs, run);
+            IndexSearcher timed = b.searcher();
+            Collected c = b.collected();
+            boolean partial = timed.timedOut();
+            TopFieldDocs top = c.top();
+            long total = c.total();
+            boolean more = top.scoreDocs.length > n;
+
+            List<SearchHit> out = load(timed, more ? Arrays.copyOf(top.scoreDocs, n) : top.scoreDocs, projection);
+
+            String next = null;
+            if (more) {
+                ScoreDoc last = top.scoreDocs[n - 1];
+                long token = pinned.record(searcher);
+                next = new Cursor(token, last.doc, last.score, out.get(n - 1).postID(), total).encode();
             }
+
+            SearchPage page = new SearchPage(out, total, next, c.facets(), partial);
+            // a partial page depends on how busy the node was, the next request gets another try
+            if (!partial) cache.put(key, version, page);
+            outcome = partial ? "partial" : "complete";
+            return page;
+        } finally {
+            latency(mode, outcome).record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
+            if (fromPinned) pinned.release(searcher);
+            else searcherManager.release(searcher);
+        }
+    }
+
+    // the mode comes from the request, anything unknown is searched like "all" and is tagged that way too
+    private Timer latency(String mode, String outcome) {
+        String m = (mode == null) ? "llm" : mode.toLowerCase();
+        if (!m.equals("llm") && !m.equals("alt") && !m.equals("semantic")) m = "all";
+        String tag = m;
+        return latency.computeIfAbsent(tag + "/" + outcome, k -> Timer.builder("search.latency")
+                .description("time to answer one search page")
+                .tag("mode", tag)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .minimumExpectedValue(Duration.ofMillis(1))
+                .maximumExpectedValue(Duration.ofSeconds(10))
+                .register(meters));
+    }
+
+    // sorted and checked against HIT_FIELDS, so the same selection in another order shares a cache entry
+    static List<String> projection(List<String> fields) {
+        if (fields == null || fields.stream().allMatch(f -> f == null || f.isBlank())) return HIT_FIELDS.stream().sorted().toList();
+        Set<String> picked = new HashSet<>();
+        picked.add("postID");
+        for (String f : fields) {
+            String name = f == null ? "" : f.trim();
+            if (name.isEmpty()) continue;
+            if (!HIT_FIELDS.contains(name)) throw new IllegalArgumentException("unknown field: " + name);
+            picked.add(name);
+        }
+        return picked.stream().sorted().toList();
+    }
+
+    // hits are read in doc id order, neighbouring hits often share a compressed stored fields block.
+    // the postID comes from the sort values already collected, the other fields from a visitor that stops once it has them all
+    private static List<SearchHit> load(IndexSearcher searcher, ScoreDoc[] docs, List<String> projection) throws IOException {
+        Set<String> stored = new HashSet<>(projection);
+        stored.remove("postID");
+        StoredFields storedFields = searcher.storedFields();
+        Integer[] order = new Integer[docs.length];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, Comparator.comparingInt(i -> docs[i].doc));
+
+        SearchHit[] out = new SearchHit[docs.length];
+        for (int i : order) {
+            ScoreDoc sd = docs[i];
+            String postID = sortedPostID(sd);
+            Projection v = new Projection(stored, postID == null);
+            if (!v.done()) storedFields.document(sd.doc, v);
+            if (postID == null) postID = v.get("postID");
+            out[i] = new SearchHit(postID, v.get("title"), v.get("imageURL"), v.get("thumbnailURL"),
+                    v.get("llmTags"), v.get("altText"), v.get("date"), sd.score);
+        }
+        return Arrays.asList(out);
+    }
+
+    // null for documents indexed before postIDSort existed, those read it from stored fields
+    private static String sortedPostID(ScoreDoc sd) {
+        if (sd instanceof FieldDoc fd && fd.fields.length > 1 && fd.fields[1] instanceof BytesRef id) return id.utf8ToString();
+        return null;
+    }
+
+    // collects the wanted stored fields of one document and skips the rest without decoding them
+    private static final class Projection extends StoredFieldVisitor {
+        private final Set<String> wanted;
+        private final boolean withPostID;
+        private final Map<String, String> values = new HashMap<>();
+        private int remaining;
+
+        Projection(Set<String> wanted, boolean withPostID) {
+            this.wanted = wanted;
+            this.withPostID = withPostID;
+            this.remaining = wanted.size() + (withPostID ? 1 : 0);
+        }
+
+        boolean done() { return remaining == 0; }
+
+        String get(String field) { return values.get(field); }
+
+        @Override
+        public Status needsField(FieldInfo fieldInfo) {
+            if (remaining == 0) return Status.STOP;
+            boolean want = wanted.contains(fieldInfo.name) || (withPostID && fieldInfo.name.equals("postID"));
+            return want ? Status.YES : Status.NO;
+        }
+
+        @Override
+        public void stringField(FieldInfo fieldInfo, String value) {
+            if (values.put(fieldInfo.name, value) == null) remaining--;
+        }
+    }
+
+    // a searcher of its own over the same reader, so the time budget applies to this request only.
+    // the budget counts from here, create it right before collecting
+    private IndexSearcher budgeted(IndexSearcher shared) {
+        if (budgetMs <= 0) return shared;
+        IndexSearcher timed = new IndexSearcher(shared.getIndexReader());
+        timed.setTimeout(new QueryTimeoutImpl(budgetMs));
+        return timed;
+    }
+
+    private record Collected(TopFieldDocs top, long total, List<FacetCount> facets) {}
+
+    private record Budgeted(IndexSearcher searcher, Collected collected) {}
+
+    private Collected collect(IndexSearcher searcher, Query query, int n, Cursor after, boolean fromPinned, int facetCount) throws IOException {
+        if (after == null && facetCount > 0) {
+            // one pass collects the page and the matching doc ids the tag counts are taken from
+            FacetsCollector fc = new FacetsCollector();
+            TopFieldDocs top = FacetsCollector.search(searcher, query, n, PAGE_SORT, true, fc);
+            return new Collected(top, total(searcher, query, top), countTags(searcher.getIndexReader(), fc, facetCount));
+        } else if (after == null) {
+            TopFieldDocs top = searcher.search(query, n, PAGE_SORT, true);
+            // counted once on the first page and carried in the cursor, deeper pages only collect the page
+            return new Collected(top, total(searcher, query, top), List.of());
+        }
+        // the doc id is only meaningful on the pinned reader, on a newer one the sort values alone decide
+        int doc = fromPinned ? after.doc() : Integer.MAX_VALUE;
+        FieldDoc afterDoc = new FieldDoc(doc, after.score(), new Object[]{after.score(), new BytesRef(after.postID())});
+        return new Collected(searcher.searchAfter(afterDoc, query, n, PAGE_SORT, true), after.total(), List.of());
+    }
+
+    // an inexact total is counted separately, unless the budget already ran out while collecting
+    private static long total(IndexSearcher searcher, Query query, TopFieldDocs top) throws IOException {
+        if (top.totalHits.relation == TotalHits.Relation.EQUAL_TO || searcher.timedOut()) return top.totalHits.value;
+        return searcher.count(query);
+    }
+
+    // posts carrying every one of the tags, null without tags
+    private Query tagFilter(List<String> tags) {
+        if (tags.isEmpty()) return null;
+        String facetField = facetsConfig.getDimConfig("tag").indexFieldName;
+        BooleanQuery.Builder all = new BooleanQuery.Builder();
+        for (String tag : tags) {
+            all.add(new TermQuery(DrillDownQuery.term(facetField, "tag", tag)), BooleanClause.Occur.FILTER);
+        }
+        return all.build();
+    }
+
+    private List<FacetCount> countTags(IndexReader reader, FacetsCollector fc, int topN) throws IOException {
+        SortedSetDocValuesReaderState state = facetState(reader);
+        if (state == null) return List.of();
+        try {
+            FacetResult result = new SortedSetDocValuesFacetCounts(state, fc).getTopChildren(topN, "tag");
+            if (result == null) return List.of();
+            List<FacetCount> out = new ArrayList<>();
+            for (LabelAndValue lv : result.labelValues) out.add(new FacetCount(lv.label, lv.value.intValue()));
             return out;
+        } catch (IllegalArgumentException noTagsYet) {
+            return List.of();
+        }
+    }
+
+    // null while nothing in the index has a tag facet yet
+    private SortedSetDocValuesReaderState facetState(IndexReader reader) throws IOException {
+        IndexReader.CacheHelper helper = reader.getReaderCacheHelper();
+        if (helper == null) return null;
+        SortedSetDocValuesReaderState state = facetStates.get(helper.getKey());
+        if (state != null) return state;
+        try {
+            state = new DefaultSortedSetDocValuesReaderState(reader, facetsConfig);
+        } catch (IllegalArgumentException noFacetField) {
+            return null;
+        }
+        if (facetStates.putIfAbsent(helper.getKey(), state) == null) helper.addClosedListener(facetStates::remove);
+        return state;
+    }
+
+    private void pruneOccasionally() {
+        long now = System.nanoTime();
+        if (now - lastPruneNanos < TimeUnit.SECONDS.toNanos(10)) return;
+        lastPruneNanos = now;
+        try {
+            pinned.prune(new SearcherLifetimeManager.PruneByAge(cursorMaxAgeSeconds));
+        } catch (Exception e) {
+            System.err.println("[SearchService] could not prune pinned searchers: " + e.getMessage());
+        }
+    }
+
+    // opaque to clients: base64 of the reader version, the last hit's position and the total of the first page
+    record Cursor(long version, int doc, float score, String postID, long total) {
+        String encode() {
+            String raw = version + ":" + doc + ":" + Float.floatToIntBits(score) + ":" + total + ":" + postID;
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static Cursor decode(String token) {
+            try {
+                String[] p = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8).split(":", 5);
+                return new Cursor(Long.parseLong(p[0]), Integer.parseInt(p[1]), Float.intBitsToFloat(Integer.parseInt(p[2])),
+                        p[4], Long.parseLong(p[3]));
+            } catch (Exception e) {
+                throw new IllegalArgumentException("invalid cursor");
+            }
         }
     }
 
+    // fields that were not asked for are null and left out of the json
+    @JsonInclude(JsonInclude.Include.NON_NULL)
     public record SearchHit(
-            String postID, String title, String imageURL,
+            String postID, String title, String imageURL, String thumbnailURL,
             String llmTags, String altText, String date, float score) {}
 }
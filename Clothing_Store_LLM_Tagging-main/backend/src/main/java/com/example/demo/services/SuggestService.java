@@ -0,0 +1,262 @@
+package com.example.demo.services;
+
+import com.example.demo.Entity.Post;
+import jakarta.annotation.PreDestroy;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.facet.FacetResult;
+import org.apache.lucene.facet.FacetsConfig;
+import org.apache.lucene.facet.LabelAndValue;
+import org.apache.lucene.facet.sortedset.DefaultSortedSetDocValuesReaderState;
+import org.apache.lucene.facet.sortedset.SortedSetDocValuesFacetCounts;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.search.suggest.Lookup;
+import org.apache.lucene.search.suggest.analyzing.AnalyzingInfixSuggester;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+// Typeahead over post titles and llm tags, kept in two small infix suggester indexes next to the main one, one per kind,
+// so a title that reads like a tag never replaces that tag's entry.
+// Entries are added as posts are saved and become visible on the next refresh (every suggest.refresh-ms), lookups never touch the main index.
+// Tags are weighted by how many posts carry them, so common tags come first.
+@Service
+public class SuggestService {
+
+    private final AnalyzingInfixSuggester titles;
+    private final AnalyzingInfixSuggester tags;
+    private final SearcherManager searcherManager;
+    private final FacetsConfig facetsConfig;
+
+    private final Map<String, Long> tagCounts = new ConcurrentHashMap<>();
+    private final AtomicBoolean dirty = new AtomicBoolean();
+    // a rebuild replaces both suggesters, posts indexed meanwhile are added once it is done
+    private final ReadWriteLock rebuilding = new ReentrantReadWriteLock();
+    private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "lucene-suggest-refresh");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public record Suggestion(String text, String kind, long weight) {}
+
+    public SuggestService(SearcherManager searcherManager, FacetsConfig facetsConfig,
+                          @Value("${suggest.dir:lucene-suggest}") String dir,
+                          @Value("${suggest.min-prefix-chars:2}") int minPrefixChars,
+                          @Value("${suggest.refresh-ms:500}") long refreshMs,
+                          @Value("${suggest.commit-interval-ms:10000}") long commitIntervalMs) throws Exception {
+        this.searcherManager = searcherManager;
+        this.facetsConfig = facetsConfig;
+        StandardAnalyzer analyzer = new StandardAnalyzer();
+        // prefixes shorter than minPrefixChars are matched with a prefix query, longer ones hit indexed edge ngrams
+        this.titles = new AnalyzingInfixSuggester(FSDirectory.open(Paths.get(dir, "titles")), analyzer, analyzer,
+                minPrefixChars, true, true, false);
+        this.tags = new AnalyzingInfixSuggester(FSDirectory.open(Paths.get(dir, "tags")), analyzer, analyzer,
+                minPrefixChars, true, true, false);
+
+        // built from the main index in the background the first time, afterwards only the tag counts are reloaded
+        refresher.execute(this::loadOrBuild);
+        refresher.scheduleWithFixedDelay(this::refreshQuietly, refreshMs, refreshMs, TimeUnit.MILLISECONDS);
+        refresher.scheduleWithFixedDelay(this::commitQuietly, commitIntervalMs, commitIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    // called after a post was indexed, the title and every tag become suggestions
+    public void onPostIndexed(Post p) {
+        rebuilding.readLock().lock();
+        try {
+            String title = p.getTitle() == null ? "" : p.getTitle().trim();
+            if (!title.isEmpty()) titles.update(new BytesRef(title), null, 1, null);
+            for (String tag : ApacheIndexingService.normalizeTags(p.getLlmTags())) {
+                // a re-saved post counts its tags again, close enough for ordering suggestions
+                long weight = tagCounts.merge(tag, 1L, Long::sum);
+                tags.update(new BytesRef(tag), null, weight, null);
+            }
+            dirty.set(true);
+        } catch (Exception e) {
+            System.err.println("[SuggestService] could not add " + p.getPostID() + ": " + e.getMessage());
+        } finally {
+            rebuilding.readLock().unlock();
+        }
+    }
+
+    public List<Suggestion> suggest(String prefix, int limit) throws Exception {
+        String key = prefix == null ? "" : prefix.trim();
+        if (key.isEmpty() || limit <= 0) return List.of();
+        int n = Math.min(limit, 50);
+        List<Suggestion> out = new ArrayList<>();
+        lookup(tags, "tag", key, n, out);
+        lookup(titles, "title", key, n, out);
+        // heaviest first across both kinds, tags before titles of the same weight
+        out.sort(Comparator.comparingLong(Suggestion::weight).reversed());
+        return out.size() > n ? List.copyOf(out.subList(0, n)) : out;
+    }
+
+    private static void lookup(AnalyzingInfixSuggester suggester, String kind, String key, int n, List<Suggestion> out) throws Exception {
+        List<Lookup.LookupResult> results;
+        try {
+            results = suggester.lookup(key, n, true, false);
+        } catch (IllegalStateException notBuiltYet) {
+            return;
+        }
+        for (Lookup.LookupResult r : results) out.add(new Suggestion(r.key.toString(), kind, r.value));
+    }
+
+    // replaces both suggesters with the titles and tags of the main index, used on first start and after a full reindex.
+    // whatever only an earlier index held is gone afterwards
+    public void rebuild() throws Exception {
+        rebuilding.writeLock().lock();
+        try {
+            searcherManager.maybeRefreshBlocking();
+            Map<String, Long> titleWeights = new LinkedHashMap<>();
+            IndexSearcher searcher = searcherManager.acquire();
+            try {
+                tagCounts.clear();
+                loadTagCounts(searcher);
+                // only the title field is read from stored fields
+                for (LeafReaderContext leaf : searcher.getIndexReader().leaves()) {
+                    Bits live = leaf.reader().getLiveDocs();
+                    StoredFields stored = leaf.reader().storedFields();
+                    for (int doc = 0; doc < leaf.reader().maxDoc(); doc++) {
+                        if (live != null && !live.get(doc)) continue;
+                        String title = stored.document(doc, Set.of("title")).get("title");
+                        if (title != null && !title.isBlank()) titleWeights.put(title.trim(), 1L);
+                    }
+                }
+            } finally {
+                searcherManager.release(searcher);
+            }
+            tags.build(new Inputs(tagCounts.entrySet().iterator()));
+            titles.build(new Inputs(titleWeights.entrySet().iterator()));
+            tags.commit();
+            titles.commit();
+        } finally {
+            rebuilding.writeLock().unlock();
+        }
+    }
+
+    private void loadOrBuild() {
+        try {
+            if (titles.getCount() == 0 && tags.getCount() == 0) {
+                rebuild();
+                System.err.println("[SuggestService] built " + titles.getCount() + " title and " + tags.getCount() + " tag suggestions");
+            } else {
+                IndexSearcher searcher = searcherManager.acquire();
+                try {
+                    loadTagCounts(searcher);
+                } finally {
+                    searcherManager.release(searcher);
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("[SuggestService] could not build suggestions: " + e.getMessage());
+        }
+    }
+
+    // tag weights are the facet counts of the main index
+    private void loadTagCounts(IndexSearcher searcher) throws Exception {
+        DefaultSortedSetDocValuesReaderState state;
+        try {
+            state = new DefaultSortedSetDocValuesReaderState(searcher.getIndexReader(), facetsConfig);
+        } catch (IllegalArgumentException noTagsYet) {
+            return;
+        }
+        FacetResult all;
+        try {
+            all = new SortedSetDocValuesFacetCounts(state).getAllChildren("tag");
+        } catch (IllegalArgumentException noTagsYet) {
+            return;
+        }
+        if (all == null) return;
+        for (LabelAndValue lv : all.labelValues) tagCounts.put(lv.label, lv.value.longValue());
+    }
+
+    private void refreshQuietly() {
+        if (!dirty.getAndSet(false)) return;
+        try {
+            titles.refresh();
+            tags.refresh();
+        } catch (Exception e) {
+            dirty.set(true);
+            System.err.println("[SuggestService] refresh failed: " + e.getMessage());
+        }
+    }
+
+    private void commitQuietly() {
+        for (AnalyzingInfixSuggester suggester : List.of(titles, tags)) {
+            try {
+                suggester.commit();
+            } catch (IllegalStateException nothingBuilt) {
+                // no writer yet, nothing to commit
+            } catch (Exception e) {
+                System.err.println("[SuggestService] commit failed: " + e.getMessage());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refresher.shutdown();
+        commitQuietly();
+        for (AnalyzingInfixSuggester suggester : List.of(titles, tags)) {
+            try {
+                suggester.close();
+            } catch (Exception e) {
+                System.err.println("[SuggestService] close failed: " + e.getMessage());
+            }
+        }
+    }
+
+    // feeds texts and their weights to AnalyzingInfixSuggester.build
+    private static final class Inputs implements InputIterator {
+        private final Iterator<Map.Entry<String, Long>> entries;
+        private long weight;
+
+        Inputs(Iterator<Map.Entry<String, Long>> entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        public BytesRef next() {
+            if (!entries.hasNext()) return null;
+            Map.Entry<String, Long> e = entries.next();
+            weight = e.getValue();
+            return new BytesRef(e.getKey());
+        }
+
+        @Override
+        public long weight() { return weight; }
+
+        @Override
+        public BytesRef payload() { return null; }
+
+        @Override
+        public boolean hasPayloads() { return false; }
+
+        @Override
+        public Set<BytesRef> contexts() { return null; }
+
+        @Override
+        public boolean hasContexts() { return false; }
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.demo.util;
+
+import java.net.http.HttpHeaders;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Paces every request to one provider (OpenAI, Azure) across all threads.
+// Callers reserve a slot before sending and report the response afterwards; a 429 pauses everyone until the
+// Retry-After time and halves the rate, successes slowly raise it again up to the configured quota.
+public class AdaptiveRateLimiter {
+
+    private static final Pattern DURATION_PART = Pattern.compile("(\\d+(?:\\.\\d+)?)(ms|h|m|s)");
+
+    private final String name;
+    private final double maxPerSecond;
+    private final double minPerSecond;
+    private final long defaultPauseMs;
+
+    private double ratePerSecond;
+    private long nextSlotNanos;
+    private long pausedUntilNanos;
+    private long rateLimited;
+
+    public AdaptiveRateLimiter(String name, double requestsPerMinute, long defaultPauseMs) {
+        this.name = name;
+        this.maxPerSecond = Math.max(requestsPerMinute, 1) / 60.0;
+        this.minPerSecond = this.maxPerSecond / 50.0;
+        this.ratePerSecond = this.maxPerSecond;
+        this.defaultPauseMs = defaultPauseMs;
+        this.nextSlotNanos = System.nanoTime();
+    }
+
+    // reserves the next free slot and returns how long the caller has to wait for it, never blocks
+    public long reserveMillis() {
+        return reserveMillis(Long.MAX_VALUE);
+    }
+
+    // same, but leaves the slot to others and returns -1 when it is further away than maxWaitMs
+    public synchronized long reserveMillis(long maxWaitMs) {
+        long now = System.nanoTime();
+        long start = Math.max(now, Math.max(nextSlotNanos, pausedUntilNanos));
+        long waitMs = TimeUnit.NANOSECONDS.toMillis(start - now);
+        if (waitMs > maxWaitMs) return -1;
+        nextSlotNanos = start + (long) (1_000_000_000L / ratePerSecond);
+        return waitMs;
+    }
+
+    // learns from the status code and the rate limit headers of a response, returns the pause a 429 caused
+    public synchronized long onResponse(int status, HttpHeaders headers) {
+        long now = System.nanoTime();
+        if (status == 429) {
+            rateLimited++;
+            long pauseMs = retryAfterToMillis(headers).orElse(defaultPauseMs);
+            pausedUntilNanos = Math.max(pausedUntilNanos, now + TimeUnit.MILLISECONDS.toNanos(pauseMs));
+            ratePerSecond = Math.max(minPerSecond, ratePerSecond / 2);
+            System.err.printf("[RateLimit/%s] 429, pausing all callers %dms, rate now %.2f/min%n", name, pauseMs, ratePerSecond * 60);
+            return pauseMs;
+        }
+        if (status / 100 == 2) {
+            // additive increase back towards the quota
+            ratePerSecond = Math.min(maxPerSecond, ratePerSecond + maxPerSecond / 100);
+            // openai tells us when the window is used up, wait for the reset instead of running into a 429
+            Optional<String> remaining = headers.firstValue("x-ratelimit-remaining-requests");
+            if (remaining.isPresent() && remaining.get().trim().equals("0")) {
+                parseDurationMillis(headers.firstValue("x-ratelimit-reset-requests").orElse(""))
+                        .ifPresent(ms -> pausedUntilNanos = Math.max(pausedUntilNanos, now + TimeUnit.MILLISECONDS.toNanos(ms)));
+            }
+        }
+        return 0;
+    }
+
+    public synchronized double currentRatePerMinute() { return ratePerSecond * 60; }
+
+    public synchronized long rateLimitedCount() { return rateLimited; }
+
+    public String name() { return name; }
+
+    //Converts Retry-after header (seconds) or retry-after-ms to miliseconds
+    public static Optional<Long> retryAfterToMillis(HttpHeaders headers) {
+        try {
+            Optional<String> ms = headers.firstValue("retry-after-ms");
+            if (ms.isPresent() && ms.get().trim().matches("\\d+")) return Optional.of(Long.parseLong(ms.get().trim()));
+            Optional<String> ra = headers.firstValue("retry-after");
+            if (ra.isEmpty()) return Optional.empty();
+            String v = ra.get().trim();
+            if (v.matches("\\d+")) return Optional.of(TimeUnit.SECONDS.toMillis(Long.parseLong(v)));
+        } catch (Exception ignored) {}
+        return Optional.empty();
+    }
+
+    // openai reset headers look like "20ms", "1s" or "6m0s"
+    static Optional<Long> parseDurationMillis(String v) {
+        if (v == null || v.isBlank()) return Optional.empty();
+        Matcher m = DURATION_PART.matcher(v.trim());
+        double total = 0;
+        boolean found = false;
+        while (m.find()) {
+            found = true;
+            double n = Double.parseDouble(m.group(1));
+            total += switch (m.group(2)) {
+                case "h" -> n * 3_600_000;
+                case "m" -> n * 60_000;
+                case "s" -> n * 1_000;
+                default -> n;
+            };
+        }
+        return found ? Optional.of((long) Math.ceil(total)) : Optional.empty();
+    }
+}
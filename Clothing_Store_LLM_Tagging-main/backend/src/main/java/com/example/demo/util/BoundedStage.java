@@ -0,0 +1,57 @@
+package com.example.demo.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// One stage of a pipeline: a fixed number of workers and a bounded queue in front of them.
+// submit() blocks while the queue is full, so a slow stage pushes back on the stage feeding it.
+// after close() it throws RejectedExecutionException instead of queueing a task that would never run.
+public final class BoundedStage implements AutoCloseable {
+
+    private final ThreadPoolExecutor pool;
+
+    public BoundedStage(String name, int workers, int queueCapacity) {
+        AtomicInteger n = new AtomicInteger();
+        int size = Math.max(1, workers);
+        this.pool = new ThreadPoolExecutor(size, size, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)),
+                r -> {
+                    Thread t = new Thread(r, name + "-" + n.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                (task, executor) -> {
+                    // a shut down pool would never run a task put into its queue
+                    if (executor.isShutdown()) throw new RejectedExecutionException(name + " stage is shut down");
+                    // waits for room in the queue instead of rejecting the task
+                    try {
+                        executor.getQueue().put(task);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException("interrupted while waiting for stage queue", ie);
+                    }
+                    // shut down while the task waited for room
+                    if (executor.isShutdown() && executor.getQueue().remove(task)) {
+                        throw new RejectedExecutionException(name + " stage is shut down");
+                    }
+                });
+    }
+
+    public void submit(Runnable task) {
+        pool.execute(task);
+    }
+
+    @Override
+    public void close() {
+        pool.shutdown();
+        try {
+            if (!pool.awaitTermination(30, TimeUnit.SECONDS)) pool.shutdownNow();
+        } catch (InterruptedException ie) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.demo.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+// A provider kept answering 429 for longer than a request may queue behind its rate limiter. Retrying right away only
+// adds to the overload, callers stop or give up on the item instead.
+public class RateLimitedException extends RuntimeException {
+
+    public RateLimitedException(String message) {
+        super(message);
+    }
+
+    // the rate limit somewhere in the cause chain, null when the failure had another reason
+    public static RateLimitedException in(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof RateLimitedException rl) return rl;
+        }
+        return null;
+    }
+
+    // joins the call, a rate limit comes out as itself instead of wrapped in a CompletionException
+    public static <T> T join(CompletableFuture<T> call) {
+        try {
+            return call.join();
+        } catch (CompletionException e) {
+            RateLimitedException rl = in(e);
+            throw rl != null ? rl : e;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.demo.benchmark;
+
+import com.example.demo.Config.ApacheLuceneConfig;
+import com.example.demo.Entity.Post;
+import com.example.demo.services.ApacheIndexingService;
+import com.example.demo.services.HashingEmbeddingProvider;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.ControlledRealTimeReopenThread;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.FSDirectory;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+// Upsert throughput of ApacheIndexingService into an index on disk, in the group commit mode the app runs with
+// and in per-update mode for comparison. Post ids cycle over the catalog, so after the first round every upsert replaces a post.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IndexingBenchmark {
+
+    @Param({"group", "per-update"})
+    public String commitMode;
+
+    @Param({"20000"})
+    public int catalogSize;
+
+    private Path dir;
+    private FSDirectory directory;
+    private IndexWriter writer;
+    private SearcherManager manager;
+    private ControlledRealTimeReopenThread<IndexSearcher> reopen;
+    private ApacheIndexingService indexer;
+    private List<Post> posts;
+    private final AtomicInteger next = new AtomicInteger();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        posts = new SyntheticCatalog(42).posts(catalogSize);
+        dir = Files.createTempDirectory("jmh-indexing");
+        directory = FSDirectory.open(dir);
+        writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()));
+        manager = new SearcherManager(writer, null);
+        reopen = new ControlledRealTimeReopenThread<>(writer, manager, 1.0, 0.025);
+        reopen.start();
+        indexer = new ApacheIndexingService(writer, reopen, new ApacheLuceneConfig().facetsConfig(),
+                new HashingEmbeddingProvider(256), commitMode, 500, 2_000, new SimpleMeterRegistry());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        indexer.shutdown();
+        reopen.close();
+        manager.close();
+        writer.close();
+        directory.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path f : files.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(f);
+        }
+    }
+
+    @Benchmark
+    public void upsert() throws Exception {
+        indexer.upsert(posts.get(Math.floorMod(next.getAndIncrement(), posts.size())));
+    }
+
+    // uploads of several users at once
+    @Benchmark
+    @Threads(4)
+    public void upsertConcurrent() throws Exception {
+        indexer.upsert(posts.get(Math.floorMod(next.getAndIncrement(), posts.size())));
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.demo.benchmark;
+
+import com.example.demo.Config.ApacheLuceneConfig;
+import com.example.demo.Entity.Post;
+import com.example.demo.services.ApacheIndexingService;
+import com.example.demo.services.HashingEmbeddingProvider;
+import com.example.demo.services.QueryGuard;
+import com.example.demo.services.SearchResultCache;
+import com.example.demo.services.SearchService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.facet.FacetsConfig;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.ControlledRealTimeReopenThread;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.FSDirectory;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Latency of SearchService.search for a first page of each mode on a synthetic catalog, with the result cache and the
+// time budget off so every call reaches the index. The facets variant also counts the top tags like the sidebar does.
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SearchBenchmark {
+
+    @Param({"llm", "alt", "all", "semantic"})
+    public String mode;
+
+    @Param({"20000"})
+    public int catalogSize;
+
+    @Param({"20"})
+    public int limit;
+
+    private Path dir;
+    private FSDirectory directory;
+    private IndexWriter writer;
+    private SearcherManager manager;
+    private ControlledRealTimeReopenThread<IndexSearcher> reopen;
+    private SearchService search;
+    private String[] queries;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        SyntheticCatalog catalog = new SyntheticCatalog(42);
+        dir = Files.createTempDirectory("jmh-search");
+        directory = FSDirectory.open(dir);
+        Analyzer analyzer = new StandardAnalyzer();
+        writer = new IndexWriter(directory, new IndexWriterConfig(analyzer));
+        manager = new SearcherManager(writer, null);
+        reopen = new ControlledRealTimeReopenThread<>(writer, manager, 1.0, 0.025);
+        reopen.start();
+
+        FacetsConfig facets = new ApacheLuceneConfig().facetsConfig();
+        HashingEmbeddingProvider embedder = new HashingEmbeddingProvider(256);
+        ApacheIndexingService indexer = new ApacheIndexingService(writer, reopen, facets, embedder, "group", 1_000, 2_000, new SimpleMeterRegistry());
+        for (Post p : catalog.posts(catalogSize)) indexer.upsert(p);
+        indexer.shutdown();
+        manager.maybeRefreshBlocking();
+
+        queries = new String[1024];
+        for (int i = 0; i < queries.length; i++) queries[i] = catalog.query();
+        search = new SearchService(manager, analyzer, new SearchResultCache(0, new SimpleMeterRegistry()), facets, embedder,
+                new QueryGuard(256, 64, 64, 2, 4), new SimpleMeterRegistry(), 600, 200, 0);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        reopen.close();
+        manager.close();
+        writer.close();
+        directory.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path f : files.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(f);
+        }
+    }
+
+    @Benchmark
+    public SearchService.SearchPage firstPage() throws Exception {
+        return search.search(query(), mode, limit, null, null, 0, null);
+    }
+
+    @Benchmark
+    public SearchService.SearchPage firstPageWithFacets() throws Exception {
+        return search.search(query(), mode, limit, null, null, 10, null);
+    }
+
+    // what the grid asks for, see usePageSearch.js
+    @Benchmark
+    public SearchService.SearchPage firstPageGridFields() throws Exception {
+        return search.search(query(), mode, limit, null, null, 0,
+                List.of("postID", "title", "imageURL", "thumbnailURL", "alt".equals(mode) ? "altText" : "llmTags"));
+    }
+
+    private String query() {
+        return queries[ThreadLocalRandom.current().nextInt(queries.length)];
+    }
+}
@@ -0,0 +1,114 @@
+package com.example.demo.benchmark;
+
+import com.example.demo.Config.ApacheLuceneConfig;
+import com.example.demo.Entity.Post;
+import com.example.demo.services.ApacheIndexingService;
+import com.example.demo.services.HashingEmbeddingProvider;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
+import org.apache.lucene.search.ControlledRealTimeReopenThread;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.store.FSDirectory;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// Opening a DirectoryReader for every query (the old SearchService behaviour) against the shared SearcherManager, on a
+// synthetic catalog. Both run the same parse, top-N search and stored field loads, only where the searcher comes from differs.
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SearcherReuseBenchmark {
+
+    private static final String[] Fields = {"llmTags", "title"};
+
+    @Param({"20000"})
+    public int catalogSize;
+
+    @Param({"20"})
+    public int limit;
+
+    private Path dir;
+    private FSDirectory directory;
+    private IndexWriter writer;
+    private SearcherManager manager;
+    private ControlledRealTimeReopenThread<IndexSearcher> reopen;
+    private Analyzer analyzer;
+    private String[] queries;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        SyntheticCatalog catalog = new SyntheticCatalog(42);
+        dir = Files.createTempDirectory("jmh-searcher-reuse");
+        directory = FSDirectory.open(dir);
+        analyzer = new StandardAnalyzer();
+        writer = new IndexWriter(directory, new IndexWriterConfig(analyzer));
+        manager = new SearcherManager(writer, null);
+        reopen = new ControlledRealTimeReopenThread<>(writer, manager, 1.0, 0.025);
+        reopen.start();
+
+        ApacheIndexingService indexer = new ApacheIndexingService(writer, reopen, new ApacheLuceneConfig().facetsConfig(),
+                new HashingEmbeddingProvider(64), "group", 1_000, 2_000, new SimpleMeterRegistry());
+        for (Post p : catalog.posts(catalogSize)) indexer.upsert(p);
+        indexer.shutdown();
+        // a reader opened on the directory only sees what was committed
+        writer.commit();
+        manager.maybeRefreshBlocking();
+
+        queries = new String[1024];
+        for (int i = 0; i < queries.length; i++) queries[i] = catalog.query();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        reopen.close();
+        manager.close();
+        writer.close();
+        directory.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path f : files.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(f);
+        }
+    }
+
+    @Benchmark
+    public int openPerQuery() throws Exception {
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            return search(new IndexSearcher(reader));
+        }
+    }
+
+    @Benchmark
+    public int sharedSearcher() throws Exception {
+        IndexSearcher searcher = manager.acquire();
+        try {
+            return search(searcher);
+        } finally {
+            manager.release(searcher);
+        }
+    }
+
+    // the parser is not thread safe, every call gets its own
+    private int search(IndexSearcher searcher) throws Exception {
+        String q = queries[ThreadLocalRandom.current().nextInt(queries.length)];
+        TopDocs top = searcher.search(new MultiFieldQueryParser(Fields, analyzer).parse(MultiFieldQueryParser.escape(q)), limit);
+        int loaded = 0;
+        for (ScoreDoc sd : top.scoreDocs) loaded += searcher.storedFields().document(sd.doc).getFields().size();
+        return loaded;
+    }
+}
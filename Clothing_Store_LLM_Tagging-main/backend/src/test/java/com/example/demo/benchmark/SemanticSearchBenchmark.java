@@ -0,0 +1,98 @@
+package com.example.demo.benchmark;
+
+import com.example.demo.Config.ApacheLuceneConfig;
+import com.example.demo.Entity.Post;
+import com.example.demo.services.ApacheIndexingService;
+import com.example.demo.services.EmbeddingProvider;
+import com.example.demo.services.HashingEmbeddingProvider;
+import com.example.demo.services.QueryGuard;
+import com.example.demo.services.SearchResultCache;
+import com.example.demo.services.SearchService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.facet.FacetsConfig;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.ControlledRealTimeReopenThread;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+// Latency of the semantic (hnsw) mode next to the bm25 modes on the SyntheticCatalog the JMH benchmarks use.
+// Not a unit test, run main() from the IDE. Uses the local hashing embedder, so it measures the index, not an embeddings api.
+public class SemanticSearchBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int docs = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+        int dims = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+
+        Path dir = Files.createTempDirectory("lucene-semantic-bench");
+        Analyzer analyzer = new StandardAnalyzer();
+        FacetsConfig facets = new ApacheLuceneConfig().facetsConfig();
+        EmbeddingProvider embedder = new HashingEmbeddingProvider(dims);
+        try (Directory directory = FSDirectory.open(dir);
+             IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(analyzer));
+             SearcherManager manager = new SearcherManager(writer, null);
+             ControlledRealTimeReopenThread<IndexSearcher> reopen = new ControlledRealTimeReopenThread<>(writer, manager, 1.0, 0.025)) {
+
+            reopen.start();
+            ApacheIndexingService indexer = new ApacheIndexingService(writer, reopen, facets, embedder, "group", 1_000, 2_000, new SimpleMeterRegistry());
+            Random rnd = new Random(42);
+            long t0 = System.nanoTime();
+            for (Post p : new SyntheticCatalog(42).posts(docs)) indexer.upsert(p);
+            indexer.shutdown();
+            writer.forceMerge(1);
+            manager.maybeRefreshBlocking();
+            System.out.printf("indexed %d posts (%d dims) in %.1fs%n", docs, dims, (System.nanoTime() - t0) / 1e9);
+
+            // natural language queries, the way a shopper would type them
+            String[] qs = new String[queries];
+            for (int i = 0; i < queries; i++) {
+                qs[i] = "something like a " + pick(rnd, new String[]{"cropped", "vintage", "oversized", "casual"})
+                        + " " + pick(rnd, new String[]{"black", "blue", "beige", "navy"})
+                        + " " + pick(rnd, new String[]{"jackets", "jeans", "dress", "hoodies"});
+            }
+
+            // result cache off, every query has to reach the index
+            SearchService search = new SearchService(manager, analyzer, new SearchResultCache(0, new SimpleMeterRegistry()),
+                    facets, embedder, new QueryGuard(256, 64, 64, 2, 4), new SimpleMeterRegistry(), 600, 200, 0);
+            for (String mode : new String[]{"llm", "all", "semantic"}) {
+                for (int i = 0; i < Math.min(200, queries); i++) search.search(qs[i], mode, 20, null, null, 0, null);
+                long[] nanos = new long[queries];
+                for (int i = 0; i < queries; i++) {
+                    long s = System.nanoTime();
+                    search.search(qs[i], mode, 20, null, null, 0, null);
+                    nanos[i] = System.nanoTime() - s;
+                }
+                report(mode, nanos);
+            }
+
+            String sample = "something like a cropped vintage denim jacket";
+            for (String mode : new String[]{"all", "semantic"}) {
+                System.out.println(mode + " top 3 for \"" + sample + "\":");
+                for (SearchService.SearchHit h : search.search(sample, mode, 3, null, null, 0, null).items()) {
+                    System.out.printf("  %.3f %s [%s]%n", h.score(), h.title(), h.llmTags());
+                }
+            }
+        }
+    }
+
+    private static String pick(Random rnd, String[] from) {
+        return from[rnd.nextInt(from.length)];
+    }
+
+    private static void report(String label, long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%-10s p50=%.3fms p99=%.3fms max=%.3fms%n", label,
+                sorted[sorted.length / 2] / 1e6, sorted[(int) (sorted.length * 0.99)] / 1e6, sorted[sorted.length - 1] / 1e6);
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.demo.benchmark;
+
+import com.example.demo.Entity.Post;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+// Generated posts that look like what the upload pipeline produces, for the JMH benchmarks.
+// Tag popularity follows a zipf curve (a few colors and garments on most posts, a long tail of rare ones),
+// posts carry 4 to 12 tags like the model returns, and alt text runs from one short sentence to a paragraph.
+public final class SyntheticCatalog {
+
+    private static final String[] COLORS = {"black", "white", "blue", "grey", "beige", "navy", "red", "green", "brown", "pink",
+            "cream", "olive", "burgundy", "khaki", "charcoal", "lavender", "mustard", "teal", "rust", "ivory"};
+    private static final String[] GARMENTS = {"t-shirt", "jeans", "hoodie", "jacket", "dress", "sneakers", "sweater", "shirt",
+            "coat", "skirt", "shorts", "cardigan", "blazer", "trousers", "boots", "cap", "tote bag", "vest", "jumpsuit", "scarf"};
+    private static final String[] STYLES = {"casual", "streetwear", "vintage", "oversized", "minimalist", "y2k", "sporty",
+            "formal", "boho", "preppy", "grunge", "workwear", "cropped", "relaxed fit", "slim fit", "retro", "athleisure", "punk"};
+    private static final String[] MATERIALS = {"cotton", "denim", "wool", "polyester", "linen", "leather", "fleece", "knit",
+            "corduroy", "suede", "nylon", "silk", "cashmere", "canvas"};
+    private static final String[] DETAILS = {"graphic print", "zip closure", "button front", "ribbed cuffs", "drawstring hood",
+            "distressed", "embroidered logo", "pleated", "striped", "plaid", "floral", "patch pockets", "high waist", "wide leg"};
+    private static final String[] SCENES = {"laid flat on a wooden floor", "hanging on a white wall", "worn by a person in a street",
+            "folded on a bed", "on a mannequin in a shop", "photographed against a plain background"};
+
+    private final Random rnd;
+
+    public SyntheticCatalog(long seed) {
+        this.rnd = new Random(seed);
+    }
+
+    public List<Post> posts(int count) {
+        List<Post> out = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) out.add(post("p" + i));
+        return out;
+    }
+
+    public Post post(String id) {
+        String color = zipf(COLORS), garment = zipf(GARMENTS), style = zipf(STYLES), material = zipf(MATERIALS);
+
+        Set<String> tags = new LinkedHashSet<>(List.of(color, garment, style, material));
+        int extra = rnd.nextInt(9);
+        for (int i = 0; i < extra; i++) {
+            tags.add(switch (rnd.nextInt(4)) {
+                case 0 -> zipf(COLORS);
+                case 1 -> zipf(STYLES);
+                case 2 -> zipf(MATERIALS);
+                default -> zipf(DETAILS);
+            });
+        }
+
+        String title = capitalize(color) + " " + style + " " + material + " " + garment;
+        Post p = new Post(id, title, "https://example.invalid/" + id + ".jpg", "2025-0" + (1 + rnd.nextInt(9)) + "-1" + rnd.nextInt(10),
+                String.join(", ", tags), altText(color, garment, style, material));
+        // older posts were saved before thumbnails existed
+        if (rnd.nextInt(10) != 0) p.setThumbnailURL("https://example.invalid/thumbs/" + id + ".jpg");
+        return p;
+    }
+
+    // what a user types: mostly one or two popular words, sometimes a longer description
+    public String query() {
+        return switch (rnd.nextInt(6)) {
+            case 0 -> zipf(GARMENTS);
+            case 1, 2 -> zipf(COLORS) + " " + zipf(GARMENTS);
+            case 3 -> zipf(STYLES) + " " + zipf(GARMENTS);
+            case 4 -> zipf(MATERIALS) + " " + zipf(COLORS) + " " + zipf(GARMENTS);
+            default -> "a " + zipf(COLORS) + " " + zipf(STYLES) + " " + zipf(GARMENTS) + " with " + zipf(DETAILS);
+        };
+    }
+
+    // tag text the way the vision model answers: numbered lines, mixed case, stray punctuation and repeats
+    public String rawModelTags() {
+        StringBuilder sb = new StringBuilder();
+        int n = 6 + rnd.nextInt(12);
+        for (int i = 0; i < n; i++) {
+            String tag = switch (rnd.nextInt(4)) {
+                case 0 -> zipf(COLORS);
+                case 1 -> zipf(GARMENTS);
+                case 2 -> zipf(STYLES);
+                default -> zipf(DETAILS);
+            };
+            if (rnd.nextBoolean()) tag = capitalize(tag);
+            if (rnd.nextInt(4) == 0) sb.append(i + 1).append(". ");
+            sb.append(tag);
+            if (rnd.nextInt(5) == 0) sb.append(rnd.nextBoolean() ? "!" : " (approx.)");
+            sb.append(rnd.nextInt(3) == 0 ? "\n" : ", ");
+        }
+        return sb.toString();
+    }
+
+    // titles the model comes back with, a share of them unusable (empty, a file name, a slug)
+    public String modelTitle() {
+        return switch (rnd.nextInt(8)) {
+            case 0 -> "";
+            case 1 -> "IMG_2024" + (100000 + rnd.nextInt(900000)) + ".jpg";
+            case 2 -> "photo-of-a-" + zipf(GARMENTS) + "-on-a-" + zipf(COLORS) + "-background";
+            default -> zipf(COLORS) + " " + zipf(STYLES) + " " + zipf(GARMENTS);
+        };
+    }
+
+    public String fileName() {
+        return rnd.nextBoolean() ? "IMG_" + (1000 + rnd.nextInt(9000)) : zipf(COLORS) + "_" + zipf(GARMENTS).replace(' ', '_');
+    }
+
+    private String altText(String color, String garment, String style, String material) {
+        StringBuilder sb = new StringBuilder("A ").append(color).append(' ').append(material).append(' ').append(garment)
+                .append(' ').append(pick(SCENES)).append('.');
+        // one to four more sentences, most alt texts are two or three sentences long
+        int sentences = 1 + Math.min(3, (int) Math.abs(rnd.nextGaussian() * 1.5));
+        for (int i = 0; i < sentences; i++) {
+            sb.append(switch (rnd.nextInt(3)) {
+                case 0 -> " It has a " + style + " look with " + zipf(DETAILS) + " and " + zipf(DETAILS) + ".";
+                case 1 -> " The " + material + " fabric looks " + (rnd.nextBoolean() ? "soft and slightly worn" : "new and structured")
+                        + ", paired with " + zipf(COLORS) + " " + zipf(GARMENTS) + " in the background.";
+                default -> " Details include " + zipf(DETAILS) + ", a " + zipf(COLORS) + " trim and a " + zipf(STYLES) + " cut.";
+            });
+        }
+        return sb.toString();
+    }
+
+    // index 0 is the most common, each next one roughly 1/rank as likely
+    private String zipf(String[] from) {
+        double total = 0;
+        for (int i = 1; i <= from.length; i++) total += 1.0 / i;
+        double r = rnd.nextDouble() * total;
+        for (int i = 1; i <= from.length; i++) {
+            r -= 1.0 / i;
+            if (r <= 0) return from[i - 1];
+        }
+        return from[from.length - 1];
+    }
+
+    private String pick(String[] from) {
+        return from[rnd.nextInt(from.length)];
+    }
+
+    private static String capitalize(String s) {
+        return Character.toUpperCase(s.charAt(0)) + s.substring(1);
+    }
+}
@@ -0,0 +1,37 @@
+package com.example.demo.controllers;
+
+import com.example.demo.benchmark.SyntheticCatalog;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Cost and allocation of picking between the model's title and the file name for every upload, run it with -prof gc.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ChooseTitleBenchmark {
+
+    private String[] titles;
+    private String[] fileNames;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        SyntheticCatalog catalog = new SyntheticCatalog(7);
+        titles = new String[256];
+        fileNames = new String[256];
+        for (int i = 0; i < titles.length; i++) {
+            titles[i] = catalog.modelTitle();
+            fileNames[i] = catalog.fileName();
+        }
+    }
+
+    @Benchmark
+    public String chooseTitle() {
+        next = (next + 1) & (titles.length - 1);
+        return ImageController.chooseTitle(titles[next], fileNames[next]);
+    }
+}
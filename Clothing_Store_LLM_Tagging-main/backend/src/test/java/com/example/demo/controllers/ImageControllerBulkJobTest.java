@@ -0,0 +1,141 @@
+package com.example.demo.controllers;
+
+import com.example.demo.Config.FirebaseConfig;
+import com.example.demo.Entity.Post;
+import com.example.demo.services.AltTextService;
+import com.example.demo.services.BulkJobJournal;
+import com.example.demo.services.ChatGPTService;
+import com.example.demo.services.EnrichmentCache;
+import com.example.demo.services.ImageDerivativeService;
+import com.example.demo.services.IngestMetrics;
+import com.example.demo.services.PostService;
+import com.google.cloud.WriteChannel;
+import com.google.cloud.storage.BlobInfo;
+import com.google.cloud.storage.Storage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class ImageControllerBulkJobTest {
+
+    private static final String JobId = UUID.randomUUID().toString();
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void aJobCutOffByARestartOnlyRedoesWhatItHadNotDone() throws Exception {
+        Path images = tmp.resolve("images");
+        Files.createDirectories(images);
+        for (String f : List.of("a.jpg", "b.jpg", "c.jpg")) Files.writeString(images.resolve(f), "jpeg " + f);
+
+        // a was uploaded but not enriched, b was saved but its file was not deleted yet, c was not touched, and the
+        // node died while writing the next line
+        BulkJobJournal journal = new BulkJobJournal(tmp.resolve("jobs").toString());
+        Map<String, BulkJobJournal.Progress> progress = journal.create(JobId,
+                BulkJobJournal.Entry.job(List.of("a.jpg", "b.jpg", "c.jpg"), true, 0));
+        journal.append(JobId, progress, BulkJobJournal.Entry.run("started", null));
+        journal.append(JobId, progress, BulkJobJournal.Entry.uploaded("a.jpg", "https://stored/a", null, "hash-a", null));
+        journal.append(JobId, progress, BulkJobJournal.Entry.uploaded("b.jpg", "https://stored/b", null, "hash-b", null));
+        journal.append(JobId, progress, BulkJobJournal.Entry.enriched("b.jpg", "Blue Jacket", "blue, jacket", "a blue jacket"));
+        journal.append(JobId, progress, BulkJobJournal.Entry.saved("b.jpg", postId("b.jpg")));
+        Files.writeString(tmp.resolve("jobs").resolve(JobId + ".log"), "{\"event\":\"uploaded\",\"file\":\"c.j",
+                StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        Storage storage = mock(Storage.class);
+        WriteChannel channel = mock(WriteChannel.class);
+        when(channel.write(any(ByteBuffer.class))).thenAnswer(inv -> {
+            ByteBuffer b = inv.getArgument(0);
+            int n = b.remaining();
+            b.position(b.limit());
+            return n;
+        });
+        when(storage.writer(any(BlobInfo.class))).thenReturn(channel);
+        ChatGPTService chat = mock(ChatGPTService.class);
+        when(chat.generateTitleForImage(anyString())).thenReturn("Denim Jacket");
+        when(chat.generateTagsForImage(anyString())).thenReturn("denim, jacket");
+        AltTextService altText = mock(AltTextService.class);
+        when(altText.describe(anyString())).thenReturn("a denim jacket");
+        PostService posts = mock(PostService.class);
+        when(posts.savePostBatched(any(Post.class))).thenAnswer(inv -> CompletableFuture.completedFuture(inv.<Post>getArgument(0).getPostID()));
+        SimpleMeterRegistry meters = new SimpleMeterRegistry();
+        FirebaseConfig.BUCKET = "test-bucket";
+
+        ImageController controller = new ImageController(storage, posts, chat, altText,
+                new EnrichmentCache(tmp.resolve("enrichment").toString(), 100, meters), mock(ImageDerivativeService.class),
+                new IngestMetrics(meters), journal, images.toString());
+        ReflectionTestUtils.setField(controller, "bulkUploadConcurrency", 2);
+        ReflectionTestUtils.setField(controller, "bulkEnrichConcurrency", 2);
+        ReflectionTestUtils.setField(controller, "bulkSaveConcurrency", 1);
+        ReflectionTestUtils.setField(controller, "bulkStageQueue", 4);
+        ReflectionTestUtils.setField(controller, "bulkStallTimeoutMs", 60_000L);
+        ReflectionTestUtils.setField(controller, "resumeJobsOnStart", true);
+        ReflectionTestUtils.setField(controller, "downloadBaseUrl", "http://localhost:9199");
+        // a storage stub has nothing to sign with, the urls are used as they are
+        ReflectionTestUtils.setField(controller, "storageHost", "localhost:9199");
+
+        controller.resumeJobs();
+        ImageController.BulkJobStatus status = awaitEnd(controller);
+
+        assertEquals(ImageController.BulkJobState.FINISHED, status.state());
+        assertEquals(3, status.saved());
+        assertEquals(0, status.pending());
+
+        ArgumentCaptor<Post> saved = ArgumentCaptor.forClass(Post.class);
+        verify(posts, times(2)).savePostBatched(saved.capture());
+        Map<String, Post> byId = Map.of(saved.getAllValues().get(0).getPostID(), saved.getAllValues().get(0),
+                saved.getAllValues().get(1).getPostID(), saved.getAllValues().get(1));
+        // a keeps the id and the object it was uploaded to in the first run
+        assertEquals("https://stored/a", byId.get(postId("a.jpg")).getImageURL());
+        assertEquals("Denim Jacket", byId.get(postId("a.jpg")).getTitle());
+        // c is uploaded now, under the name derived from the job and the file
+        ArgumentCaptor<BlobInfo> uploaded = ArgumentCaptor.forClass(BlobInfo.class);
+        verify(storage, times(1)).writer(uploaded.capture());
+        assertEquals("clothing/" + postId("c.jpg") + "-c.jpg", uploaded.getValue().getName());
+        assertTrue(byId.containsKey(postId("c.jpg")));
+        // b is neither tagged nor saved again
+        verify(chat, times(2)).generateTitleForImage(anyString());
+
+        assertFalse(Files.exists(images.resolve("a.jpg")));
+        assertTrue(Files.exists(images.resolve("b.jpg")));
+        assertFalse(Files.exists(images.resolve("c.jpg")));
+        assertEquals("finished", journal.replayAll().get(0).ended());
+    }
+
+    private static ImageController.BulkJobStatus awaitEnd(ImageController controller) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        ImageController.BulkJobStatus status = controller.jobStatus(JobId).getBody();
+        while (status.finishedAt() == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+            status = controller.jobStatus(JobId).getBody();
+        }
+        return status;
+    }
+
+    // how ImageController names the post of a bulk file, the same in every run of the job
+    private static String postId(String file) {
+        return UUID.nameUUIDFromBytes((JobId + "/" + file).getBytes(StandardCharsets.UTF_8)).toString();
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.demo.controllers;
+
+import com.example.demo.services.ImageCache;
+import com.example.demo.services.ImageProxyService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.head;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class ImageProxyControllerTest {
+
+    private static final String ETag = "\"0123abcd\"";
+
+    @TempDir
+    Path tmp;
+
+    private MockMvc mvc;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Path file = tmp.resolve("image.jpg");
+        Files.writeString(file, "0123456789", StandardCharsets.US_ASCII);
+        ImageProxyService proxy = mock(ImageProxyService.class);
+        when(proxy.image(anyString(), anyString())).thenReturn(Optional.empty());
+        when(proxy.image(eq("p1"), anyString())).thenReturn(Optional.of(new ImageCache.Cached(file, 10, "0123abcd", "image/jpeg")));
+        when(proxy.image(anyString(), eq("17"))).thenThrow(new IllegalArgumentException("size must be original, thumb or one of [160]"));
+        mvc = MockMvcBuilders.standaloneSetup(new ImageProxyController(proxy)).build();
+    }
+
+    @Test
+    void servesTheWholeImageWithCacheHeaders() throws Exception {
+        mvc.perform(get("/images/posts/p1"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.ETAG, ETag))
+                .andExpect(header().string(HttpHeaders.ACCEPT_RANGES, "bytes"))
+                .andExpect(header().string(HttpHeaders.CONTENT_LENGTH, "10"))
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, "image/jpeg"))
+                .andExpect(content().string("0123456789"));
+        mvc.perform(head("/images/posts/p1"))
+                .andExpect(status().isOk())
+                .andExpect(header().string(HttpHeaders.CONTENT_LENGTH, "10"))
+                .andExpect(content().string(""));
+    }
+
+    @Test
+    void answersNotModifiedForAMatchingETag() throws Exception {
+        for (String ifNoneMatch : new String[]{ETag, "W/" + ETag, "\"other\", " + ETag, "*"}) {
+            mvc.perform(get("/images/posts/p1").header(HttpHeaders.IF_NONE_MATCH, ifNoneMatch))
+                    .andExpect(status().isNotModified())
+                    .andExpect(header().string(HttpHeaders.ETAG, ETag))
+                    .andExpect(content().string(""));
+        }
+        mvc.perform(get("/images/posts/p1").header(HttpHeaders.IF_NONE_MATCH, "\"other\""))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void servesSingleByteRanges() throws Exception {
+        range("bytes=0-3").andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 0-3/10"))
+                .andExpect(header().string(HttpHeaders.CONTENT_LENGTH, "4"))
+                .andExpect(content().string("0123"));
+        range("bytes=7-").andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 7-9/10"))
+                .andExpect(content().string("789"));
+        range("bytes=-2").andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 8-9/10"))
+                .andExpect(content().string("89"));
+        // an end past the image is cut to it
+        range("bytes=5-100").andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 5-9/10"))
+                .andExpect(content().string("56789"));
+    }
+
+    @Test
+    void rejectsRangesOutsideTheImage() throws Exception {
+        range("bytes=10-").andExpect(status().isRequestedRangeNotSatisfiable())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes */10"));
+        range("bytes=-0").andExpect(status().isRequestedRangeNotSatisfiable());
+    }
+
+    @Test
+    void answersMalformedOrMultipleRangesWithTheWholeImage() throws Exception {
+        for (String r : new String[]{"bytes=0-1,4-5", "items=0-3", "bytes=4-2", "bytes=a-b", "bytes=3"}) {
+            range(r).andExpect(status().isOk()).andExpect(content().string("0123456789"));
+        }
+    }
+
+    @Test
+    void ifRangeOfAnotherVersionGetsTheWholeImage() throws Exception {
+        mvc.perform(get("/images/posts/p1").header(HttpHeaders.RANGE, "bytes=0-3").header(HttpHeaders.IF_RANGE, ETag))
+                .andExpect(status().isPartialContent())
+                .andExpect(content().string("0123"));
+        mvc.perform(get("/images/posts/p1").header(HttpHeaders.RANGE, "bytes=0-3").header(HttpHeaders.IF_RANGE, "\"older\""))
+                .andExpect(status().isOk())
+                .andExpect(content().string("0123456789"));
+    }
+
+    @Test
+    void unknownPostsAndSizesAreClientErrors() throws Exception {
+        mvc.perform(get("/images/posts/missing")).andExpect(status().isNotFound());
+        mvc.perform(get("/images/posts/p1").param("size", "17")).andExpect(status().isBadRequest());
+    }
+
+    private ResultActions range(String range) throws Exception {
+        return mvc.perform(get("/images/posts/p1").header(HttpHeaders.RANGE, range));
+    }
+}
@@ -0,0 +1,381 @@
+package com.example.demo.loadtest;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+// Stands in for OpenAI, Azure Vision and Cloud Storage, so /images/upload and /images/resumableBulk can be load tested offline.
+// Vision answers are recorded responses from src/test/resources/provider-stub (several per file, separated by "---" lines,
+// handed out in turn), embeddings are generated, uploaded objects are kept in memory and served back as download urls.
+// Not a unit test, run main() and point the backend at it, see the load testing section of the readme.
+//
+// Per provider (openai, azure, storage) as system properties, stub.<provider>.<name> or stub.<name> for all of them:
+//   latency-ms  base response time          jitter-ms  random extra time on top, up to this much
+//   rps         requests per second before answering 429 (0 = no limit)
+//   rate-429    share of requests answered 429 regardless of rps          rate-5xx  share answered 503
+//   retry-after-ms  what the 429 responses ask the client to wait
+public class ProviderStub {
+
+    private static final ObjectMapper Json = new ObjectMapper();
+    private static final Pattern ContentRange = Pattern.compile("bytes (\\*|(\\d+)-(\\d+))/(\\*|\\d+)");
+    private static final int KeptObjects = 512;
+
+    private final int port;
+    private final Map<String, Recorded> recorded = new ConcurrentHashMap<>();
+    private final Map<String, Provider> providers = new LinkedHashMap<>();
+    private final Map<String, Upload> uploads = new ConcurrentHashMap<>();
+    // the most recent objects only, a long run would otherwise keep every image it uploaded
+    private final Map<String, StoredObject> objects = java.util.Collections.synchronizedMap(new LinkedHashMap<>(KeptObjects, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, StoredObject> eldest) { return size() > KeptObjects; }
+    });
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8089;
+        new ProviderStub(port).start();
+    }
+
+    public ProviderStub(int port) throws IOException {
+        this.port = port;
+        providers.put("openai", new Provider("openai", 1200, 800));
+        providers.put("azure", new Provider("azure", 600, 300));
+        providers.put("storage", new Provider("storage", 40, 20));
+        for (String name : List.of("openai-responses", "openai-chat-title", "openai-chat-enrich", "azure-caption", "azure-dense-captions")) {
+            recorded.put(name, Recorded.load(name));
+        }
+    }
+
+    public HttpServer start() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 512);
+        // latency is simulated by sleeping, every waiting request holds its own thread like a slow upstream would
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", this::handle);
+        server.start();
+        System.err.println("[ProviderStub] listening on http://localhost:" + port);
+        for (Provider p : providers.values()) System.err.println("[ProviderStub] " + p);
+        return server;
+    }
+
+    private void handle(HttpExchange ex) {
+        try {
+            String path = ex.getRequestURI().getPath();
+            String method = ex.getRequestMethod();
+            if (path.equals("/stats")) {
+                send(ex, 200, stats());
+                return;
+            }
+
+            Provider provider = path.startsWith("/v1/") ? providers.get("openai")
+                    : path.contains("/computervision/") ? providers.get("azure")
+                    : providers.get("storage");
+            // the storage client gzips its single request uploads
+            byte[] body = "gzip".equalsIgnoreCase(ex.getRequestHeaders().getFirst("Content-Encoding"))
+                    ? new GZIPInputStream(ex.getRequestBody()).readAllBytes()
+                    : ex.getRequestBody().readAllBytes();
+            if (provider.throttle(ex)) return;
+
+            if (path.equals("/v1/responses")) send(ex, 200, recorded.get("openai-responses").next());
+            else if (path.equals("/v1/chat/completions")) {
+                boolean structured = new String(body, StandardCharsets.UTF_8).contains("\"response_format\"");
+                send(ex, 200, recorded.get(structured ? "openai-chat-enrich" : "openai-chat-title").next());
+            }
+            else if (path.equals("/v1/embeddings")) send(ex, 200, embeddings(body));
+            else if (path.endsWith("/imageanalysis:analyze")) {
+                String query = String.valueOf(ex.getRequestURI().getQuery());
+                send(ex, 200, recorded.get(query.contains("denseCaptions") ? "azure-dense-captions" : "azure-caption").next());
+            }
+            else if (path.startsWith("/upload/storage/v1/b/")) upload(ex, method, body);
+            else if (path.startsWith("/storage/v1/b/")) storageMetadata(ex, method, path);
+            else if (path.startsWith("/v0/b/")) download(ex, path);
+            else send(ex, 404, "{\"error\":\"no stub for " + method + " " + path + "\"}");
+        } catch (Exception e) {
+            System.err.println("[ProviderStub] " + ex.getRequestMethod() + " " + ex.getRequestURI() + " failed: " + e);
+        } finally {
+            ex.close();
+        }
+    }
+
+    // one vector per input, derived from the text so the same text always gets the same vector
+    private static String embeddings(byte[] body) throws IOException {
+        JsonNode req = Json.readTree(body);
+        int dims = req.path("dimensions").asInt(256);
+        ObjectNode out = Json.createObjectNode().put("object", "list").put("model", req.path("model").asText(""));
+        ArrayNode data = out.putArray("data");
+        int index = 0;
+        for (JsonNode input : req.path("input")) {
+            Random rnd = new Random(input.asText("").hashCode());
+            double[] v = new double[dims];
+            double norm = 0;
+            for (int i = 0; i < dims; i++) { v[i] = rnd.nextGaussian(); norm += v[i] * v[i]; }
+            ArrayNode vector = Json.createArrayNode();
+            for (double x : v) vector.add((float) (x / Math.sqrt(norm)));
+            data.addObject().put("object", "embedding").put("index", index++).set("embedding", vector);
+        }
+        return Json.writeValueAsString(out);
+    }
+
+    // the json api paths the storage client uses for bucket lookups, resumable uploads and single request uploads
+    private void upload(HttpExchange ex, String method, byte[] body) throws IOException {
+        String bucket = segment(ex.getRequestURI().getPath(), 5);
+        Map<String, String> query = query(ex.getRequestURI().getRawQuery());
+        String uploadType = query.getOrDefault("uploadType", "");
+
+        if (method.equals("POST") && uploadType.equals("resumable")) {
+            JsonNode meta = body.length == 0 ? Json.createObjectNode() : Json.readTree(body);
+            String name = query.getOrDefault("name", meta.path("name").asText(""));
+            String id = UUID.randomUUID().toString();
+            uploads.put(id, new Upload(bucket, name, meta.path("contentType").asText("application/octet-stream")));
+            ex.getResponseHeaders().add("Location", "http://localhost:" + port + "/upload/storage/v1/b/" + bucket
+                    + "/o?uploadType=resumable&upload_id=" + id);
+            send(ex, 200, "");
+        } else if (method.equals("PUT") && query.containsKey("upload_id")) {
+            Upload upload = uploads.get(query.get("upload_id"));
+            if (upload == null) { send(ex, 404, "{\"error\":\"unknown upload\"}"); return; }
+            Matcher range = ContentRange.matcher(String.valueOf(ex.getRequestHeaders().getFirst("Content-Range")));
+            if (body.length > 0) upload.bytes.write(body);
+            long total = range.matches() && !range.group(4).equals("*") ? Long.parseLong(range.group(4)) : -1;
+            if (total >= 0 && upload.bytes.size() >= total) {
+                uploads.remove(query.get("upload_id"));
+                send(ex, 200, store(upload.bucket, upload.name, upload.contentType, upload.bytes.toByteArray()));
+            } else {
+                if (upload.bytes.size() > 0) ex.getResponseHeaders().add("Range", "bytes=0-" + (upload.bytes.size() - 1));
+                send(ex, 308, "");
+            }
+        } else if (method.equals("POST") && uploadType.equals("multipart")) {
+            Multipart parts = Multipart.parse(ex.getRequestHeaders().getFirst("Content-Type"), body);
+            JsonNode meta = Json.readTree(parts.metadata());
+            send(ex, 200, store(bucket, meta.path("name").asText(""), meta.path("contentType").asText("application/octet-stream"), parts.media()));
+        } else if (method.equals("POST")) {
+            send(ex, 200, store(bucket, query.getOrDefault("name", ""), "application/octet-stream", body));
+        } else {
+            send(ex, 400, "{\"error\":\"unsupported upload " + method + " " + uploadType + "\"}");
+        }
+    }
+
+    private void storageMetadata(HttpExchange ex, String method, String path) throws IOException {
+        String bucket = segment(path, 4);
+        if (path.contains("/o/")) {
+            String key = bucket + "/" + URLDecoder.decode(path.substring(path.indexOf("/o/") + 3), StandardCharsets.UTF_8);
+            StoredObject o = method.equals("DELETE") ? objects.remove(key) : objects.get(key);
+            if (o == null) send(ex, 404, "{\"error\":{\"code\":404,\"message\":\"No such object\"}}");
+            else if (method.equals("DELETE")) ex.sendResponseHeaders(204, -1);
+            else send(ex, 200, o.json());
+            return;
+        }
+        send(ex, 200, Json.writeValueAsString(Json.createObjectNode()
+                .put("kind", "storage#bucket").put("id", bucket).put("name", bucket)
+                .put("location", "LOCAL").put("storageClass", "STANDARD")));
+    }
+
+    // firebase style download urls, /v0/b/<bucket>/o/<encoded name>?alt=media
+    private void download(HttpExchange ex, String path) throws IOException {
+        String bucket = segment(path, 3);
+        String name = URLDecoder.decode(ex.getRequestURI().getRawPath().substring(ex.getRequestURI().getRawPath().indexOf("/o/") + 3), StandardCharsets.UTF_8);
+        StoredObject o = objects.get(bucket + "/" + name);
+        if (o == null) { send(ex, 404, "{\"error\":\"not found\"}"); return; }
+        ex.getResponseHeaders().add("Content-Type", o.contentType);
+        ex.sendResponseHeaders(200, o.bytes.length);
+        try (OutputStream out = ex.getResponseBody()) { out.write(o.bytes); }
+    }
+
+    private String store(String bucket, String name, String contentType, byte[] bytes) throws IOException {
+        StoredObject o = new StoredObject(bucket, name, contentType, bytes);
+        objects.put(bucket + "/" + name, o);
+        return o.json();
+    }
+
+    private String stats() throws IOException {
+        ObjectNode out = Json.createObjectNode();
+        for (Provider p : providers.values()) {
+            out.putObject(p.name).put("requests", p.requests.get()).put("throttled", p.throttled.get()).put("failed", p.failed.get());
+        }
+        out.put("objects", objects.size()).put("openUploads", uploads.size());
+        return Json.writeValueAsString(out);
+    }
+
+    private static void send(HttpExchange ex, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        if (!body.isEmpty()) ex.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+        ex.sendResponseHeaders(status, bytes.length == 0 ? -1 : bytes.length);
+        if (bytes.length > 0) try (OutputStream out = ex.getResponseBody()) { out.write(bytes); }
+    }
+
+    private static String segment(String path, int index) {
+        String[] parts = path.split("/");
+        return parts.length > index ? parts[index] : "";
+    }
+
+    private static Map<String, String> query(String raw) {
+        Map<String, String> out = new LinkedHashMap<>();
+        if (raw == null) return out;
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) out.put(pair.substring(0, eq), URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return out;
+    }
+
+    // latency, quota and failures of one upstream
+    private static final class Provider {
+        final String name;
+        final long latencyMs, jitterMs, retryAfterMs;
+        final int rps;
+        final double rate429, rate5xx;
+        final AtomicLong requests = new AtomicLong(), throttled = new AtomicLong(), failed = new AtomicLong();
+        private final AtomicLong windowStart = new AtomicLong();
+        private final AtomicInteger inWindow = new AtomicInteger();
+
+        Provider(String name, long latencyMs, long jitterMs) {
+            this.name = name;
+            this.latencyMs = (long) setting(name, "latency-ms", latencyMs);
+            this.jitterMs = (long) setting(name, "jitter-ms", jitterMs);
+            this.rps = (int) setting(name, "rps", 0);
+            this.rate429 = setting(name, "rate-429", 0);
+            this.rate5xx = setting(name, "rate-5xx", 0);
+            this.retryAfterMs = (long) setting(name, "retry-after-ms", 1000);
+        }
+
+        // waits out the simulated latency, then answers 429 or 503 when this request is one of those, true when it did
+        boolean throttle(HttpExchange ex) throws IOException {
+            requests.incrementAndGet();
+            long delay = latencyMs + (jitterMs > 0 ? ThreadLocalRandom.current().nextLong(jitterMs + 1) : 0);
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+
+            double roll = ThreadLocalRandom.current().nextDouble();
+            if (overQuota() || roll < rate429) {
+                throttled.incrementAndGet();
+                ex.getResponseHeaders().add("Retry-After", Long.toString(Math.max(1, retryAfterMs / 1000)));
+                ex.getResponseHeaders().add("retry-after-ms", Long.toString(retryAfterMs));
+                ex.getResponseHeaders().add("x-ratelimit-remaining-requests", "0");
+                ex.getResponseHeaders().add("x-ratelimit-reset-requests", retryAfterMs + "ms");
+                send(ex, 429, "{\"error\":{\"code\":\"rate_limit_exceeded\",\"message\":\"Rate limit reached (stub)\"}}");
+                return true;
+            }
+            if (roll < rate429 + rate5xx) {
+                failed.incrementAndGet();
+                send(ex, 503, "{\"error\":{\"code\":\"server_error\",\"message\":\"The server is overloaded (stub)\"}}");
+                return true;
+            }
+            return false;
+        }
+
+        private boolean overQuota() {
+            if (rps <= 0) return false;
+            long second = System.currentTimeMillis() / 1000;
+            long started = windowStart.get();
+            if (second != started && windowStart.compareAndSet(started, second)) inWindow.set(0);
+            return inWindow.incrementAndGet() > rps;
+        }
+
+        private static double setting(String provider, String name, double fallback) {
+            String v = System.getProperty("stub." + provider + "." + name, System.getProperty("stub." + name));
+            return v == null ? fallback : Double.parseDouble(v);
+        }
+
+        @Override
+        public String toString() {
+            return name + ": latency " + latencyMs + "+" + jitterMs + "ms, rps " + (rps == 0 ? "unlimited" : rps)
+                    + ", 429 " + rate429 + ", 5xx " + rate5xx;
+        }
+    }
+
+    // the bodies of one recorded response file, handed out round robin
+    private record Recorded(List<String> bodies, AtomicInteger turn) {
+        static Recorded load(String name) throws IOException {
+            try (InputStream in = ProviderStub.class.getResourceAsStream("/provider-stub/" + name + ".txt")) {
+                if (in == null) throw new IOException("missing recorded response provider-stub/" + name + ".txt");
+                List<String> bodies = new ArrayList<>();
+                for (String part : new String(in.readAllBytes(), StandardCharsets.UTF_8).split("(?m)^---\\s*$")) {
+                    if (!part.isBlank()) bodies.add(part.trim());
+                }
+                return new Recorded(bodies, new AtomicInteger());
+            }
+        }
+
+        String next() { return bodies.get(Math.floorMod(turn.getAndIncrement(), bodies.size())); }
+    }
+
+    private static final class Upload {
+        final String bucket, name, contentType;
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        Upload(String bucket, String name, String contentType) {
+            this.bucket = bucket;
+            this.name = name;
+            this.contentType = contentType;
+        }
+    }
+
+    private record StoredObject(String bucket, String name, String contentType, byte[] bytes) {
+        String json() throws IOException {
+            return Json.writeValueAsString(Json.createObjectNode()
+                    .put("kind", "storage#object").put("id", bucket + "/" + name + "/1")
+                    .put("bucket", bucket).put("name", name).put("generation", "1").put("metageneration", "1")
+                    .put("contentType", contentType).put("size", Long.toString(bytes.length)));
+        }
+    }
+
+    // multipart/related as the storage client sends it: a json metadata part followed by the media part
+    private record Multipart(byte[] metadata, byte[] media) {
+        static Multipart parse(String contentType, byte[] body) {
+            String boundary = contentType.substring(contentType.indexOf("boundary=") + 9).replace("\"", "").trim();
+            byte[] delimiter = ("--" + boundary).getBytes(StandardCharsets.ISO_8859_1);
+            List<byte[]> parts = new ArrayList<>();
+            int start = indexOf(body, delimiter, 0);
+            while (start >= 0) {
+                int from = start + delimiter.length;
+                int end = indexOf(body, delimiter, from);
+                if (end < 0) break;
+                byte[] part = Arrays.copyOfRange(body, from, end);
+                int headersEnd = indexOf(part, "\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1), 0);
+                if (headersEnd >= 0) {
+                    int contentEnd = part.length;
+                    if (contentEnd >= 2 && part[contentEnd - 2] == '\r' && part[contentEnd - 1] == '\n') contentEnd -= 2;
+                    parts.add(Arrays.copyOfRange(part, headersEnd + 4, contentEnd));
+                }
+                start = end;
+            }
+            return new Multipart(parts.isEmpty() ? "{}".getBytes(StandardCharsets.UTF_8) : parts.get(0),
+                    parts.size() > 1 ? parts.get(1) : new byte[0]);
+        }
+
+        private static int indexOf(byte[] haystack, byte[] needle, int from) {
+            outer:
+            for (int i = from; i <= haystack.length - needle.length; i++) {
+                for (int j = 0; j < needle.length; j++) if (haystack[i + j] != needle[j]) continue outer;
+                return i;
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.example.demo.loadtest;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Drives the ingestion endpoints of a running backend and reports throughput and latency percentiles.
+// Every image is generated with its own noise, so none of them is answered from the enrichment cache.
+// Not a unit test, run main() with key=value arguments:
+//   mode=upload     concurrent POST /images/upload, one image per request (default)
+//   mode=bulk       writes the images into images-dir and times one POST /images/resumableBulk?enrich=true
+//   base=http://localhost:8080  count=200  concurrency=8  edge=1024 (image size)  warmup=10
+//   images-dir=src/main/resources/images   stub=http://localhost:8089 (prints the stub's counters afterwards)
+public class UploadLoadDriver {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = new LinkedHashMap<>();
+        for (String a : args) {
+            int eq = a.indexOf('=');
+            if (eq > 0) opts.put(a.substring(0, eq), a.substring(eq + 1));
+        }
+        String base = opts.getOrDefault("base", "http://localhost:8080");
+        int count = Integer.parseInt(opts.getOrDefault("count", "200"));
+        int concurrency = Integer.parseInt(opts.getOrDefault("concurrency", "8"));
+        int edge = Integer.parseInt(opts.getOrDefault("edge", "1024"));
+        int warmup = Integer.parseInt(opts.getOrDefault("warmup", "10"));
+
+        HttpClient http = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+        if (opts.getOrDefault("mode", "upload").equals("bulk")) {
+            bulk(http, base, Paths.get(opts.getOrDefault("images-dir", "src/main/resources/images")), count, edge);
+        } else {
+            if (warmup > 0) uploads(http, base, warmup, Math.min(concurrency, warmup), edge, false);
+            uploads(http, base, count, concurrency, edge, true);
+        }
+
+        String stub = opts.get("stub");
+        if (stub != null) {
+            HttpResponse<String> stats = http.send(HttpRequest.newBuilder(URI.create(stub + "/stats")).build(), HttpResponse.BodyHandlers.ofString());
+            System.out.println("stub " + stats.body());
+        }
+    }
+
+    // closed loop: each worker sends its next upload as soon as the previous one returned
+    private static void uploads(HttpClient http, String base, int count, int concurrency, int edge, boolean report) throws Exception {
+        long[] nanos = new long[count];
+        Map<Integer, AtomicInteger> statuses = new ConcurrentHashMap<>();
+        AtomicInteger next = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        long started = System.nanoTime();
+        for (int w = 0; w < concurrency; w++) {
+            workers.submit(() -> {
+                Random rnd = new Random();
+                for (int i = next.getAndIncrement(); i < count; i = next.getAndIncrement()) {
+                    int status;
+                    long t0 = System.nanoTime();
+                    try {
+                        byte[] jpeg = image(rnd, edge);
+                        String boundary = "----load" + UUID.randomUUID();
+                        HttpRequest req = HttpRequest.newBuilder(URI.create(base + "/images/upload"))
+                                .timeout(Duration.ofMinutes(5))
+                                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                                .POST(HttpRequest.BodyPublishers.ofByteArray(multipart(boundary, "load-" + i + ".jpg", jpeg)))
+                                .build();
+                        status = http.send(req, HttpResponse.BodyHandlers.discarding()).statusCode();
+                    } catch (Exception e) {
+                        status = -1;
+                    }
+                    nanos[i] = System.nanoTime() - t0;
+                    statuses.computeIfAbsent(status, s -> new AtomicInteger()).incrementAndGet();
+                }
+                return null;
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.HOURS);
+        if (!report) return;
+
+        double seconds = (System.nanoTime() - started) / 1e9;
+        System.out.printf("uploads=%d concurrency=%d wall=%.1fs throughput=%.2f uploads/s%n", count, concurrency, seconds, count / seconds);
+        System.out.println("status " + new TreeMap<>(statuses) + (statuses.containsKey(-1) ? " (-1 = transport error)" : ""));
+        report("latency", nanos);
+    }
+
+    private static void bulk(HttpClient http, String base, Path dir, int count, int edge) throws Exception {
+        Files.createDirectories(dir);
+        Random rnd = new Random();
+        List<Path> written = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Path p = dir.resolve("load-" + UUID.randomUUID() + ".jpg");
+            Files.write(p, image(rnd, edge));
+            written.add(p);
+        }
+        try {
+            long t0 = System.nanoTime();
+            HttpResponse<String> res = http.send(HttpRequest.newBuilder(URI.create(base + "/images/resumableBulk?enrich=true"))
+                    .timeout(Duration.ofHours(1))
+                    .POST(HttpRequest.BodyPublishers.noBody())
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            double seconds = (System.nanoTime() - t0) / 1e9;
+            System.out.printf("bulk images=%d wall=%.1fs throughput=%.2f images/s%n", count, seconds, count / seconds);
+            System.out.println("status " + res.statusCode() + ": " + res.body());
+        } finally {
+            for (Path p : written) Files.deleteIfExists(p);
+        }
+    }
+
+    // a photo sized jpeg: a garment coloured block on a background, with noise so every image hashes differently
+    private static byte[] image(Random rnd, int edge) throws Exception {
+        BufferedImage img = new BufferedImage(edge, edge, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(new Color(rnd.nextInt(0xFFFFFF)));
+        g.fillRect(0, 0, edge, edge);
+        g.setColor(new Color(rnd.nextInt(0xFFFFFF)));
+        g.fillRoundRect(edge / 5, edge / 6, edge * 3 / 5, edge * 2 / 3, edge / 10, edge / 10);
+        g.dispose();
+        for (int i = 0; i < edge * 4; i++) img.setRGB(rnd.nextInt(edge), rnd.nextInt(edge), rnd.nextInt(0xFFFFFF));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(img, "jpg", out);
+        return out.toByteArray();
+    }
+
+    private static byte[] multipart(String boundary, String fileName, byte[] jpeg) {
+        String head = "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"" + fileName + "\"\r\n"
+                + "Content-Type: image/jpeg\r\n\r\n";
+        String tail = "\r\n--" + boundary + "--\r\n";
+        ByteArrayOutputStream out = new ByteArrayOutputStream(jpeg.length + 256);
+        out.writeBytes(head.getBytes(StandardCharsets.UTF_8));
+        out.writeBytes(jpeg);
+        out.writeBytes(tail.getBytes(StandardCharsets.UTF_8));
+        return out.toByteArray();
+    }
+
+    private static void report(String label, long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        System.out.printf("%s p50=%.0fms p90=%.0fms p99=%.0fms max=%.0fms%n", label,
+                sorted[sorted.length / 2] / 1e6, sorted[(int) (sorted.length * 0.9)] / 1e6,
+                sorted[(int) (sorted.length * 0.99)] / 1e6, sorted[sorted.length - 1] / 1e6);
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.demo.services;
+
+import com.example.demo.Entity.Post;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexNotFoundException;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ApacheIndexingServiceTest {
+
+    @Test
+    void perUpdateIsSearchableAndDurableWhenUpsertReturns() throws Exception {
+        try (LuceneFixture lucene = LuceneFixture.inMemory("per_update", 600_000)) {
+            lucene.indexer.upsert(post(1));
+
+            assertEquals(1, visible(lucene));
+            assertEquals(1, committed(lucene));
+        }
+    }
+
+    @Test
+    void groupIsSearchableBeforeItIsCommitted() throws Exception {
+        // no group commit happens during the test unless it is asked for
+        try (LuceneFixture lucene = LuceneFixture.inMemory("group", 500, 600_000)) {
+            lucene.indexer.upsertAll(List.of(post(1), post(2)));
+
+            // the reopen thread publishes the posts, nobody refreshes by hand
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (visible(lucene) < 2 && System.currentTimeMillis() < deadline) Thread.sleep(20);
+            assertEquals(2, visible(lucene));
+            assertEquals(0, committed(lucene));
+            assertEquals(2, lucene.meters.get("lucene.commit.pending").gauge().value());
+
+            lucene.indexer.commit();
+            assertEquals(2, committed(lucene));
+            assertEquals(0, lucene.meters.get("lucene.commit.pending").gauge().value());
+        }
+    }
+
+    @Test
+    void groupCommitsOnceMaxPendingUpsertsAreWaiting() throws Exception {
+        try (LuceneFixture lucene = LuceneFixture.inMemory("group", 3, 600_000)) {
+            lucene.indexer.upsert(post(1));
+            lucene.indexer.upsert(post(2));
+            assertEquals(0, committed(lucene));
+
+            lucene.indexer.upsert(post(3));
+            long deadline = System.currentTimeMillis() + 5_000;
+            while (lucene.meters.get("lucene.commit").timer().count() == 0 && System.currentTimeMillis() < deadline) Thread.sleep(20);
+            assertEquals(3, committed(lucene));
+            // one fsync covered all three
+            assertEquals(1, lucene.meters.get("lucene.commit").timer().count());
+            assertEquals(3, lucene.meters.get("lucene.commit.batch").summary().totalAmount());
+        }
+    }
+
+    @Test
+    void aSwapReplacesEveryDocumentWithTheRebuiltOnes() throws Exception {
+        try (LuceneFixture lucene = LuceneFixture.inMemory("per_update", 600_000);
+             Directory rebuilt = new ByteBuffersDirectory()) {
+            for (int i = 1; i <= 3; i++) lucene.indexer.upsert(post(i));
+
+            IndexWriter bulk = new IndexWriter(rebuilt, new IndexWriterConfig(lucene.analyzer));
+            Post retitled = post(2);
+            retitled.setTitle("Retitled");
+            for (Post p : List.of(retitled, post(4))) {
+                Document d = lucene.indexer.toDoc(p);
+                d.add(new StringField(ApacheIndexingService.ReindexRunField, "run-1", Field.Store.NO));
+                bulk.addDocument(d);
+            }
+            lucene.indexer.swapIn(rebuilt, "run-1", () -> {
+                bulk.close();
+                return null;
+            });
+
+            assertEquals(2, lucene.count(new MatchAllDocsQuery()));
+            assertEquals(0, lucene.count(new TermQuery(new Term("postID", "p1"))));
+            assertEquals(1, lucene.count(new TermQuery(new Term("title", "retitled"))));
+            assertEquals(2, committed(lucene));
+        }
+    }
+
+    @Test
+    void aFailedSwapLeavesTheLiveIndexAlone() throws Exception {
+        try (LuceneFixture lucene = LuceneFixture.inMemory("per_update", 600_000);
+             Directory broken = new ByteBuffersDirectory()) {
+            for (int i = 1; i <= 3; i++) lucene.indexer.upsert(post(i));
+
+            // an empty directory holds no index to add
+            assertThrows(IndexNotFoundException.class, () -> lucene.indexer.swapIn(broken, "run-1", () -> null));
+
+            assertEquals(3, lucene.count(new MatchAllDocsQuery()));
+            lucene.indexer.upsert(post(4));
+            assertEquals(4, committed(lucene));
+        }
+    }
+
+    // documents the current searcher sees, without refreshing it
+    private static int visible(LuceneFixture lucene) throws Exception {
+        IndexSearcher searcher = lucene.manager.acquire();
+        try {
+            return searcher.count(new MatchAllDocsQuery());
+        } finally {
+            lucene.manager.release(searcher);
+        }
+    }
+
+    // documents in the last commit, what a restart would find
+    private static int committed(LuceneFixture lucene) throws Exception {
+        if (!DirectoryReader.indexExists(lucene.directory)) return 0;
+        try (DirectoryReader reader = DirectoryReader.open(lucene.directory)) {
+            return reader.numDocs();
+        }
+    }
+
+    private static Post post(int i) {
+        return new Post("p" + i, "Post " + i, "https://example.invalid/" + i + ".jpg", "2025-01-01", "denim", "alt");
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.demo.services;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BulkJobJournalTest {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void replaysHowFarEveryFileGot() throws Exception {
+        BulkJobJournal journal = new BulkJobJournal(tmp.toString());
+        Map<String, BulkJobJournal.Progress> progress = journal.create("job-1",
+                BulkJobJournal.Entry.job(List.of("a.jpg", "b.jpg", "c.jpg"), true, 2));
+        journal.append("job-1", progress, BulkJobJournal.Entry.run("started", null));
+        journal.append("job-1", progress, BulkJobJournal.Entry.uploaded("a.jpg", "https://a", null, "hash-a", "a_ai.jpg"));
+        journal.append("job-1", progress, BulkJobJournal.Entry.uploaded("b.jpg", "https://b", null, "hash-b", null));
+        journal.append("job-1", progress, BulkJobJournal.Entry.enriched("b.jpg", "Blue Jacket", "blue, jacket", "a blue jacket"));
+        journal.append("job-1", progress, BulkJobJournal.Entry.saved("b.jpg", "post-b"));
+        journal.append("job-1", progress, BulkJobJournal.Entry.failed("c.jpg", "the tags or alt are blank"));
+
+        BulkJobJournal.Replay r = journal.replayAll().get(0);
+
+        assertEquals("job-1", r.jobId());
+        assertTrue(r.enrich());
+        assertEquals(2, r.skipped());
+        // cut off by a crash, the run never ended
+        assertTrue(r.started());
+        assertNull(r.ended());
+        // uploaded but not enriched, the vision copy is still named
+        assertEquals("a_ai.jpg", r.progress().get("a.jpg").uploaded().aiObject());
+        assertNull(r.progress().get("a.jpg").enriched());
+        assertFalse(r.progress().get("a.jpg").saved());
+        assertTrue(r.progress().get("b.jpg").saved());
+        assertEquals("the tags or alt are blank", r.progress().get("c.jpg").error());
+    }
+
+    @Test
+    void cutsATornLastLineSoTheNextCheckpointIsKept() throws Exception {
+        BulkJobJournal journal = new BulkJobJournal(tmp.toString());
+        journal.create("job-1", BulkJobJournal.Entry.job(List.of("a.jpg"), true, 0));
+        Path log = tmp.resolve("job-1.log");
+        Files.writeString(log, "{\"event\":\"started\",\"at\":\"2025-01-01T00:00:00Z\"}\n{\"event\":\"uploaded\",\"at\":",
+                StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        BulkJobJournal.Replay r = journal.replayAll().get(0);
+        assertTrue(r.started());
+        assertNull(r.progress().get("a.jpg").uploaded());
+
+        journal.append("job-1", r.progress(), BulkJobJournal.Entry.uploaded("a.jpg", "https://a", null, "hash-a", null));
+        BulkJobJournal.Progress again = journal.replayAll().get(0).progress().get("a.jpg");
+        assertNotNull(again.uploaded());
+        assertEquals("https://a", again.uploaded().publicUrl());
+        assertEquals(3, Files.readAllLines(log).size());
+    }
+}
@@ -0,0 +1,59 @@
+package com.example.demo.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ImageCacheTest {
+
+    @TempDir
+    Path tmp;
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private final ImageCache.Loader loader = into -> {
+        loads.incrementAndGet();
+        Files.writeString(into, "jpeg bytes");
+        return "image/jpeg";
+    };
+
+    @Test
+    void aHitTouchesTheFileOnlyOncePerInterval() throws Exception {
+        ImageCache cache = new ImageCache(tmp.toString(), 1 << 20, 0, 60_000, new SimpleMeterRegistry());
+        Path file = cache.get("p1", loader).orElseThrow().file();
+
+        long recently = (System.currentTimeMillis() - 30_000) / 1000 * 1000;
+        assertTrue(file.toFile().setLastModified(recently));
+        cache.get("p1", loader);
+        assertEquals(recently, file.toFile().lastModified());
+
+        long longAgo = System.currentTimeMillis() - 120_000;
+        assertTrue(file.toFile().setLastModified(longAgo));
+        cache.get("p1", loader);
+        assertTrue(file.toFile().lastModified() > longAgo + 60_000);
+
+        assertEquals(1, loads.get());
+        assertEquals(2, cache.stats().hits());
+        cache.shutdown();
+    }
+
+    @Test
+    void aFileRemovedBehindTheCachesBackIsLoadedAgain() throws Exception {
+        ImageCache cache = new ImageCache(tmp.toString(), 1 << 20, 0, 60_000, new SimpleMeterRegistry());
+        Path file = cache.get("p1", loader).orElseThrow().file();
+        Files.delete(file);
+
+        assertEquals(file, cache.get("p1", loader).orElseThrow().file());
+        assertTrue(Files.exists(file));
+        assertEquals(2, loads.get());
+        assertEquals(10, cache.stats().bytes());
+        cache.shutdown();
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.demo.services;
+
+import com.example.demo.Entity.Post;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.TermQuery;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class IndexOutboxTest {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void replaysWhatWasNotAckedAndIndexesNewPosts() throws Exception {
+        // the outbox of a node that died after acking seq 2 of 4, with a torn fifth line
+        Path dir = tmp.resolve("outbox");
+        Files.createDirectories(dir);
+        ObjectMapper mapper = new ObjectMapper();
+        StringBuilder log = new StringBuilder();
+        for (int i = 1; i <= 4; i++) {
+            log.append(mapper.writeValueAsString(new IndexOutbox.Entry(i, System.currentTimeMillis(), post(i)))).append('\n');
+        }
+        log.append("{\"seq\":5,\"at\":");
+        Files.writeString(dir.resolve("outbox.log"), log);
+        Files.writeString(dir.resolve("outbox.acked"), "2");
+
+        try (LuceneFixture lucene = LuceneFixture.inMemory("group", 100)) {
+            IndexOutbox outbox = outbox(lucene, dir, 0);
+
+            outbox.append(List.of(post(6)));
+            awaitDrained(outbox);
+
+            assertEquals(5, outbox.status().lastSeq());
+            assertEquals(5, outbox.status().ackedSeq());
+            assertEquals(3, outbox.status().indexed());
+            assertEquals(3, lucene.count(new MatchAllDocsQuery()));
+            assertEquals(0, lucene.count(new TermQuery(new Term("postID", "p1"))));
+            assertEquals(1, lucene.count(new TermQuery(new Term("postID", "p4"))));
+            // acked entries were committed by the group commit, and the fully acked log was compacted
+            try (DirectoryReader committed = DirectoryReader.open(lucene.directory)) {
+                assertEquals(3, committed.numDocs());
+            }
+            assertEquals(0, Files.size(dir.resolve("outbox.log")));
+
+            outbox.shutdown();
+        }
+    }
+
+    @Test
+    void acksOnlyWhatACommitMadeDurable() throws Exception {
+        // no group commit happens during the test unless it is asked for
+        try (LuceneFixture lucene = LuceneFixture.inMemory("group", 600_000)) {
+            IndexOutbox outbox = outbox(lucene, tmp.resolve("outbox"), 0);
+
+            outbox.append(List.of(post(1), post(2)));
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (outbox.status().indexed() < 2 && System.currentTimeMillis() < deadline) Thread.sleep(20);
+            assertEquals(2, outbox.status().indexed());
+            assertEquals(0, outbox.status().ackedSeq());
+            assertEquals(2, outbox.status().pending());
+
+            lucene.indexer.commit();
+            assertEquals(2, outbox.status().ackedSeq());
+            assertEquals(0, outbox.status().pending());
+
+            outbox.shutdown();
+        }
+    }
+
+    @Test
+    void cutsATornLineBeforeAppending() throws Exception {
+        Path dir = tmp.resolve("outbox");
+        Files.createDirectories(dir);
+        ObjectMapper mapper = new ObjectMapper();
+        Files.writeString(dir.resolve("outbox.log"),
+                mapper.writeValueAsString(new IndexOutbox.Entry(1, System.currentTimeMillis(), post(1))) + "\n{\"seq\":2,\"at\":");
+
+        try (LuceneFixture lucene = LuceneFixture.inMemory("group", 100)) {
+            // the log is never compacted here, so it can be read back afterwards
+            IndexOutbox outbox = outbox(lucene, dir, 1 << 20);
+
+            outbox.append(List.of(post(2)));
+            awaitDrained(outbox);
+            outbox.shutdown();
+        }
+
+        List<String> lines = Files.readAllLines(dir.resolve("outbox.log"));
+        assertEquals(2, lines.size());
+        assertEquals(1, mapper.readValue(lines.get(0), IndexOutbox.Entry.class).seq());
+        assertEquals("p2", mapper.readValue(lines.get(1), IndexOutbox.Entry.class).post().getPostID());
+    }
+
+    @Test
+    void indexesPostsTheLogCouldNotTakeWithoutReplayingThem() throws Exception {
+        Path dir = tmp.resolve("outbox");
+        try (LuceneFixture lucene = LuceneFixture.inMemory("group", 100)) {
+            IndexOutbox outbox = outbox(lucene, dir, 1 << 20);
+
+            outbox.append(List.of(post(1)));
+            outbox.appendUnlogged(List.of(post(2)));
+            outbox.append(List.of(post(3)));
+            awaitDrained(outbox);
+
+            assertEquals(3, outbox.status().ackedSeq());
+            assertEquals(3, lucene.count(new MatchAllDocsQuery()));
+            outbox.shutdown();
+        }
+
+        List<String> lines = Files.readAllLines(dir.resolve("outbox.log"));
+        assertEquals(List.of(1L, 3L), lines.stream().map(l -> {
+            try {
+                return new ObjectMapper().readValue(l, IndexOutbox.Entry.class).seq();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }).toList());
+    }
+
+    private IndexOutbox outbox(LuceneFixture lucene, Path dir, long compactBytes) throws Exception {
+        return new IndexOutbox(lucene.indexer, lucene.suggest(tmp.resolve("suggest")), new IngestMetrics(lucene.meters), lucene.meters,
+                dir.toString(), 200, 1000, compactBytes);
+    }
+
+    private static Post post(int i) {
+        return new Post("p" + i, "Post " + i, "https://example.invalid/" + i + ".jpg", "2025-01-01", i % 2 == 0 ? "black" : "denim", "alt");
+    }
+
+    private static void awaitDrained(IndexOutbox outbox) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (outbox.status().pending() > 0 && System.currentTimeMillis() < deadline) Thread.sleep(20);
+        assertEquals(0, outbox.status().pending(), String.valueOf(outbox.status().lastError()));
+    }
+}
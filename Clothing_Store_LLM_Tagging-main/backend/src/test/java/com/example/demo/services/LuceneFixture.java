@@ -0,0 +1,87 @@
+package com.example.demo.services;
+
+import com.example.demo.Config.ApacheLuceneConfig;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.facet.FacetsConfig;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.ControlledRealTimeReopenThread;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+// A live index wired like ApacheLuceneConfig does it (writer, searcher manager, reopen thread) with the indexing service
+// on top, for tests that run the services against a real index. Closing it shuts down the services it handed out and
+// then the index.
+final class LuceneFixture implements AutoCloseable {
+
+    final Analyzer analyzer = new StandardAnalyzer();
+    final FacetsConfig facets = new ApacheLuceneConfig().facetsConfig();
+    final SimpleMeterRegistry meters = new SimpleMeterRegistry();
+    final Directory directory;
+    final IndexWriter writer;
+    final SearcherManager manager;
+    final ControlledRealTimeReopenThread<IndexSearcher> reopen;
+    final ApacheIndexingService indexer;
+    private final List<SuggestService> suggesters = new ArrayList<>();
+
+    private LuceneFixture(Directory directory, String commitMode, int maxPending, long commitIntervalMs) throws Exception {
+        this.directory = directory;
+        this.writer = new IndexWriter(directory, new IndexWriterConfig(analyzer));
+        this.manager = new SearcherManager(writer, null);
+        this.reopen = new ControlledRealTimeReopenThread<>(writer, manager, 1.0, 0.025);
+        reopen.start();
+        this.indexer = new ApacheIndexingService(writer, reopen, facets, new HashingEmbeddingProvider(64),
+                commitMode, maxPending, commitIntervalMs, meters);
+    }
+
+    // commitMode is per_update or group, a group commit runs every commitIntervalMs
+    static LuceneFixture inMemory(String commitMode, long commitIntervalMs) throws Exception {
+        return inMemory(commitMode, 500, commitIntervalMs);
+    }
+
+    // a group commit also runs as soon as maxPending upserts are waiting for one
+    static LuceneFixture inMemory(String commitMode, int maxPending, long commitIntervalMs) throws Exception {
+        return new LuceneFixture(new ByteBuffersDirectory(), commitMode, maxPending, commitIntervalMs);
+    }
+
+    static LuceneFixture onDisk(Path dir, String commitMode, long commitIntervalMs) throws Exception {
+        return new LuceneFixture(FSDirectory.open(dir), commitMode, 500, commitIntervalMs);
+    }
+
+    SuggestService suggest(Path dir) throws Exception {
+        SuggestService s = new SuggestService(manager, facets, dir.toString(), 2, 500, 10000);
+        suggesters.add(s);
+        return s;
+    }
+
+    // documents matching the query on a freshly refreshed searcher
+    int count(Query query) throws Exception {
+        manager.maybeRefreshBlocking();
+        IndexSearcher searcher = manager.acquire();
+        try {
+            return searcher.count(query);
+        } finally {
+            manager.release(searcher);
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        for (SuggestService s : suggesters) s.shutdown();
+        indexer.shutdown();
+        reopen.close();
+        manager.close();
+        writer.close();
+        directory.close();
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.demo.services;
+
+import com.example.demo.benchmark.SyntheticCatalog;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// Cost and allocation of turning the vision model's tag answer into the stored tag list, run it with -prof gc.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PostProcessTagsBenchmark {
+
+    private String[] answers;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        SyntheticCatalog catalog = new SyntheticCatalog(7);
+        answers = new String[256];
+        for (int i = 0; i < answers.length; i++) answers[i] = catalog.rawModelTags();
+    }
+
+    @Benchmark
+    public String postProcessTags() {
+        next = (next + 1) & (answers.length - 1);
+        return ChatGPTService.postProcessTags(answers[next]);
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.demo.services;
+
+import com.example.demo.Entity.Post;
+import com.google.cloud.NoCredentials;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.FirestoreOptions;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Runs against the Firestore emulator, e.g. `gcloud emulators firestore start --host-port=localhost:8085`
+// and FIRESTORE_EMULATOR_HOST=localhost:8085. Skipped when the variable is not set.
+@EnabledIfEnvironmentVariable(named = "FIRESTORE_EMULATOR_HOST", matches = ".+")
+class PostServiceEmulatorTest {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void batchedSavesAreWrittenAndReachTheIndex() throws Exception {
+        Firestore db = FirestoreOptions.newBuilder()
+                .setProjectId("demo-batch")
+                .setEmulatorHost(System.getenv("FIRESTORE_EMULATOR_HOST"))
+                .setCredentials(NoCredentials.getInstance())
+                .build().getService();
+        String collection = "posts";
+        clear(db, collection);
+
+        try (LuceneFixture lucene = LuceneFixture.onDisk(tmp.resolve("live"), "per_update", 1000)) {
+            IngestMetrics metrics = new IngestMetrics(lucene.meters);
+            IndexOutbox outbox = new IndexOutbox(lucene.indexer, lucene.suggest(tmp.resolve("suggest")), metrics, lucene.meters,
+                    tmp.resolve("outbox").toString(), 200, 1000, 0);
+            // the delay is long enough that only the size limit sends the two full batches, the rest goes out on the deadline
+            PostService posts = new PostService(db, outbox, metrics, 100, 500);
+
+            List<CompletableFuture<String>> saved = new ArrayList<>();
+            for (int i = 0; i < 250; i++) {
+                String id = String.format("b%05d", i);
+                saved.add(posts.savePostBatched(
+                        new Post(id, "Post " + i, "https://example.invalid/" + i + ".jpg", "2025-01-01", "denim, black", "alt " + i)));
+            }
+            CompletableFuture.allOf(saved.toArray(new CompletableFuture[0])).get(30, TimeUnit.SECONDS);
+            assertEquals(250, db.collection(collection).get().get().size());
+
+            // the index catches up from the outbox
+            long deadline = System.currentTimeMillis() + 30_000;
+            while (outbox.status().pending() > 0 && System.currentTimeMillis() < deadline) Thread.sleep(50);
+            assertEquals(0, outbox.status().pending(), String.valueOf(outbox.status().lastError()));
+            assertEquals(250, outbox.status().indexed());
+            assertEquals(250, lucene.count(new MatchAllDocsQuery()));
+            assertEquals(3, lucene.meters.get("ingest.step").tag("step", "save.batch").tag("outcome", "success").timer().count());
+
+            posts.shutdown();
+            outbox.shutdown();
+        } finally {
+            clear(db, collection);
+            db.close();
+        }
+    }
+
+    private static void clear(Firestore db, String collection) throws Exception {
+        for (var doc : db.collection(collection).listDocuments()) doc.delete().get();
+    }
+}
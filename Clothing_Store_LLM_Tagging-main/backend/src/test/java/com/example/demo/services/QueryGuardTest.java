@@ -0,0 +1,66 @@
+package com.example.demo.services;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QueryGuardTest {
+
+    private static final String[] FIELDS = {"llmTags", "title"};
+
+    private final QueryGuard guard = new QueryGuard(40, 6, 64, 2, 1);
+
+    @Test
+    void rewritesConstructsThatScanTheWholeDictionary() {
+        assertEquals("shirt", QueryGuard.rewrite("*shirt"));
+        assertEquals("title:coat", QueryGuard.rewrite("title:*coat"));
+        assertEquals("blue hirt", QueryGuard.rewrite("blue ?hirt"));
+        // a one letter prefix would expand to a large part of the dictionary
+        assertEquals("a", QueryGuard.rewrite("a*"));
+        assertEquals("\\/re.ex\\/", QueryGuard.rewrite("/re.ex/"));
+        assertEquals("denim  jacket", QueryGuard.rewrite("denim * jacket"));
+        assertEquals("\"\"", QueryGuard.rewrite("*"));
+        assertEquals("\"\"", QueryGuard.rewrite("**"));
+    }
+
+    @Test
+    void keepsPrefixesLongEnoughToBeSelective() {
+        assertEquals("ab*", QueryGuard.rewrite("ab*"));
+        assertEquals("jack*", QueryGuard.rewrite("jack*"));
+        assertEquals("black denim", QueryGuard.rewrite("black denim"));
+    }
+
+    @Test
+    void marksQueriesThatExpandToManyTerms() {
+        assertTrue(guard.parse("jack*", FIELDS, new StandardAnalyzer()).multiTerm());
+        assertTrue(guard.parse("jaket~", FIELDS, new StandardAnalyzer()).multiTerm());
+        assertFalse(guard.parse("black denim", FIELDS, new StandardAnalyzer()).multiTerm());
+    }
+
+    @Test
+    void searchesUnbalancedInputAsPlainWords() {
+        assertFalse(guard.parse("\"black denim", FIELDS, new StandardAnalyzer()).multiTerm());
+    }
+
+    @Test
+    void rejectsOversizedQueries() {
+        assertThrows(QueryGuard.QueryRejectedException.class,
+                () -> guard.parse("x".repeat(41), FIELDS, new StandardAnalyzer()));
+        // four words over two fields are eight clauses
+        assertThrows(QueryGuard.QueryRejectedException.class,
+                () -> guard.parse("black blue denim coat", FIELDS, new StandardAnalyzer()));
+    }
+
+    @Test
+    void multiTermSearchesWaitForAPermit() throws Exception {
+        QueryGuard.Guarded wildcard = guard.parse("jack*", FIELDS, new StandardAnalyzer());
+        QueryGuard.Guarded plain = guard.parse("denim", FIELDS, new StandardAnalyzer());
+        // the only permit is taken by the outer search, the inner one gives up after its budget
+        assertThrows(QueryGuard.SearchBusyException.class, () -> guard.run(wildcard, 50, () -> guard.run(wildcard, 50, () -> 1)));
+        assertEquals(2, guard.run(wildcard, 50, () -> guard.run(plain, 50, () -> 2)));
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.demo.services;
+
+import com.example.demo.Entity.Post;
+import com.google.cloud.NoCredentials;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.FirestoreOptions;
+import com.google.cloud.firestore.WriteBatch;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// Runs against the Firestore emulator, e.g. `gcloud emulators firestore start --host-port=localhost:8085`
+// and FIRESTORE_EMULATOR_HOST=localhost:8085. Skipped when the variable is not set.
+@EnabledIfEnvironmentVariable(named = "FIRESTORE_EMULATOR_HOST", matches = ".+")
+class ReindexServiceEmulatorTest {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void rebuildsIndexFromFirestoreAndSwapsItIn() throws Exception {
+        Firestore db = FirestoreOptions.newBuilder()
+                .setProjectId("demo-reindex")
+                .setEmulatorHost(System.getenv("FIRESTORE_EMULATOR_HOST"))
+                .setCredentials(NoCredentials.getInstance())
+                .build().getService();
+        String collection = "posts";
+        clear(db, collection);
+
+        // 1050 posts plus one document without an image, which is not a post
+        for (int batch = 0; batch < 3; batch++) {
+            WriteBatch wb = db.batch();
+            for (int i = batch * 350; i < (batch + 1) * 350; i++) {
+                String id = String.format("p%05d", i);
+                wb.set(db.collection(collection).document(id),
+                        new Post(id, "Post " + i, "https://example.invalid/" + i + ".jpg", "2025-01-01", "denim, black", "alt " + i));
+            }
+            wb.commit().get();
+        }
+        db.collection(collection).document("hello").set(java.util.Map.of("hello", "world")).get();
+
+        try (LuceneFixture lucene = LuceneFixture.onDisk(tmp.resolve("live"), "per_update", 1000)) {
+            // a stale document that is not in Firestore disappears with the swap
+            lucene.indexer.upsert(new Post("stale", "Stale", "https://example.invalid/stale.jpg", "2024-01-01", "old", "old"));
+
+            ReindexService reindex = new ReindexService(db, lucene.indexer, lucene.manager, lucene.suggest(tmp.resolve("suggest")),
+                    lucene.analyzer, tmp.resolve("reindex").toString(), 100, 4, 3, 32);
+
+            ReindexService.Status status = reindex.runNow(true);
+
+            assertEquals(ReindexService.State.DONE, status.state(), String.valueOf(status.error()));
+            assertEquals(1050, status.indexed());
+            assertEquals(1050, lucene.count(new MatchAllDocsQuery()));
+        } finally {
+            clear(db, collection);
+            db.close();
+        }
+    }
+
+    private static void clear(Firestore db, String collection) throws Exception {
+        for (var doc : db.collection(collection).listDocuments()) doc.delete().get();
+    }
+}
@@ -0,0 +1,103 @@
+package com.example.demo.services;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SearchResultCacheTest {
+
+    @Test
+    void equivalentQueriesShareAnEntry() {
+        SearchResultCache cache = new SearchResultCache(1 << 20, new SimpleMeterRegistry());
+        SearchService.SearchPage page = page("p1");
+        cache.put(key(" black   denim "), 1, page);
+
+        assertEquals(page, cache.get(SearchResultCache.Key.of("black denim", "LLM", 10, null, List.of(), 0, List.of()), 1));
+        // AND means something else than and to the parser
+        assertNull(cache.get(key("black AND denim"), 1));
+        assertNull(cache.get(key("BLACK AND DENIM"), 1));
+        assertEquals(1, cache.stats().hits());
+        assertEquals(2, cache.stats().misses());
+    }
+
+    @Test
+    void aNewerIndexVersionDropsEverything() {
+        SearchResultCache cache = new SearchResultCache(1 << 20, new SimpleMeterRegistry());
+        cache.put(key("a"), 1, page("p1"));
+        cache.put(key("b"), 1, page("p2"));
+
+        assertNull(cache.get(key("a"), 2));
+        assertEquals(0, cache.stats().entries());
+        assertEquals(0, cache.usedBytes());
+        assertEquals(1, cache.stats().invalidations());
+
+        // results of an older reader, e.g. a pinned cursor snapshot, are neither served nor kept
+        cache.put(key("c"), 2, page("p3"));
+        cache.put(key("d"), 1, page("p4"));
+        assertNull(cache.get(key("c"), 1));
+        assertNotNull(cache.get(key("c"), 2));
+        assertNull(cache.get(key("d"), 2));
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedOverTheBudget() {
+        SearchResultCache sizing = new SearchResultCache(1 << 20, new SimpleMeterRegistry());
+        sizing.put(key("q1"), 1, page("p1"));
+        long one = sizing.usedBytes();
+
+        // room for two entries of that size
+        SearchResultCache cache = new SearchResultCache(2 * one + one / 2, new SimpleMeterRegistry());
+        cache.put(key("q1"), 1, page("p1"));
+        cache.put(key("q2"), 1, page("p2"));
+        assertNotNull(cache.get(key("q1"), 1));
+        cache.put(key("q3"), 1, page("p3"));
+
+        assertNull(cache.get(key("q2"), 1));
+        assertNotNull(cache.get(key("q1"), 1));
+        assertNotNull(cache.get(key("q3"), 1));
+        assertEquals(1, cache.stats().evictions());
+        assertTrue(cache.usedBytes() <= 2 * one + one / 2);
+    }
+
+    @Test
+    void keepsNothingLargerThanTheBudgetOrWhenDisabled() {
+        SearchResultCache tiny = new SearchResultCache(10, new SimpleMeterRegistry());
+        tiny.put(key("q"), 1, page("p1"));
+        assertEquals(0, tiny.stats().entries());
+
+        SearchResultCache off = new SearchResultCache(0, new SimpleMeterRegistry());
+        off.put(key("q"), 1, page("p1"));
+        assertNull(off.get(key("q"), 1));
+        assertEquals(0, off.stats().misses());
+    }
+
+    @Test
+    void keepsACopyThatCallersCanNotChange() {
+        SearchResultCache cache = new SearchResultCache(1 << 20, new SimpleMeterRegistry());
+        SearchService.SearchPage page = page("p1");
+        cache.put(key("q"), 1, page);
+        page.items().clear();
+
+        SearchService.SearchPage cached = cache.get(key("q"), 1);
+        assertEquals("p1", cached.items().get(0).postID());
+        assertThrows(UnsupportedOperationException.class, () -> cached.items().clear());
+    }
+
+    private static SearchResultCache.Key key(String q) {
+        return SearchResultCache.Key.of(q, "llm", 10, null, List.of(), 0, List.of());
+    }
+
+    private static SearchService.SearchPage page(String postID) {
+        SearchService.SearchHit hit = new SearchService.SearchHit(postID, "Title", "https://example.invalid/" + postID + ".jpg",
+                null, "denim, black", "alt", "2025-01-01", 1f);
+        return new SearchService.SearchPage(new ArrayList<>(List.of(hit)), 1, null, List.of(), false);
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.demo.services;
+
+import com.example.demo.Entity.Post;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SearchServiceTest {
+
+    private LuceneFixture lucene;
+    private SearchService search;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        lucene = LuceneFixture.inMemory("per_update", 1000);
+        // no result cache, every page is searched
+        search = new SearchService(lucene.manager, lucene.analyzer, new SearchResultCache(0, lucene.meters), lucene.facets,
+                new HashingEmbeddingProvider(64), new QueryGuard(256, 64, 64, 2, 4), lucene.meters, 600, 200, 0);
+        for (int i = 0; i < 10; i++) {
+            lucene.indexer.upsert(new Post(String.format("p%02d", i), "Post " + i, "https://example.invalid/" + i + ".jpg",
+                    "2025-01-01", i % 2 == 0 ? "denim, black" : "denim, blue", "alt " + i));
+        }
+        lucene.manager.maybeRefreshBlocking();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        lucene.close();
+    }
+
+    @Test
+    void cursorSurvivesEncoding() {
+        SearchService.Cursor c = new SearchService.Cursor(42, 7, 1.25f, "post:with:colons", 10);
+        assertEquals(c, SearchService.Cursor.decode(c.encode()));
+        assertThrows(IllegalArgumentException.class, () -> SearchService.Cursor.decode("not a cursor"));
+    }
+
+    @Test
+    void pagesCoverEveryHitOnce() throws Exception {
+        List<SearchService.SearchPage> pages = pages("*", 4, null);
+        assertEquals(List.of(4, 4, 2), pages.stream().map(p -> p.items().size()).toList());
+        assertEquals(10, ids(pages).size());
+        assertEquals(10, pages.get(2).total());
+    }
+
+    @Test
+    void aLastPageThatIsExactlyFullHasNoCursor() throws Exception {
+        List<SearchService.SearchPage> pages = pages("*", 5, null);
+        assertEquals(2, pages.size());
+        assertNotNull(pages.get(0).nextCursor());
+        assertNull(pages.get(1).nextCursor());
+        assertEquals(10, ids(pages).size());
+    }
+
+    @Test
+    void laterPagesStayOnTheFirstPagesSnapshot() throws Exception {
+        SearchService.SearchPage first = search.search("*", "all", 5, null, null, 0, null);
+        lucene.indexer.upsert(new Post("p99", "Post 99", "https://example.invalid/99.jpg", "2025-01-01", "denim", "alt"));
+        lucene.manager.maybeRefreshBlocking();
+
+        SearchService.SearchPage second = search.search("*", "all", 5, first.nextCursor(), null, 0, null);
+        assertEquals(5, second.items().size());
+        assertNull(second.nextCursor());
+        assertEquals(10, second.total());
+    }
+
+    @Test
+    void tagsNarrowToPostsCarryingAllOfThem() throws Exception {
+        SearchService.SearchPage black = search.search("*", "all", 20, null, List.of("Black "), 0, null);
+        assertEquals(5, black.total());
+        black.items().forEach(h -> assertEquals(0, Integer.parseInt(h.postID().substring(1)) % 2));
+
+        assertEquals(5, search.search("*", "all", 20, null, List.of("denim", "blue"), 0, null).total());
+        assertEquals(0, search.search("*", "all", 20, null, List.of("black", "blue"), 0, null).total());
+        // a comma separated parameter is split like the llm tags are
+        assertEquals(0, search.search("*", "all", 20, null, List.of("black, blue"), 0, null).total());
+    }
+
+    @Test
+    void facetsCountTheTagsOfTheMatchingPostsOnTheFirstPage() throws Exception {
+        SearchService.SearchPage all = search.search("*", "all", 3, null, null, 10, null);
+        assertEquals(List.of(new SearchService.FacetCount("denim", 10), new SearchService.FacetCount("black", 5),
+                new SearchService.FacetCount("blue", 5)), all.facets());
+
+        // counted after the drill down, not over the whole index
+        SearchService.SearchPage blue = search.search("*", "all", 3, null, List.of("blue"), 10, null);
+        assertEquals(List.of(new SearchService.FacetCount("blue", 5), new SearchService.FacetCount("denim", 5)), blue.facets());
+
+        // deeper pages carry no counts
+        assertEquals(List.of(), search.search("*", "all", 3, all.nextCursor(), null, 10, null).facets());
+    }
+
+    // follows the cursors until the last page
+    private List<SearchService.SearchPage> pages(String q, int limit, List<String> tags) throws Exception {
+        List<SearchService.SearchPage> out = new ArrayList<>();
+        String cursor = null;
+        do {
+            SearchService.SearchPage page = search.search(q, "all", limit, cursor, tags, 0, null);
+            out.add(page);
+            cursor = page.nextCursor();
+        } while (cursor != null && out.size() < 20);
+        return out;
+    }
+
+    private static Set<String> ids(List<SearchService.SearchPage> pages) {
+        Set<String> ids = new HashSet<>();
+        for (SearchService.SearchPage p : pages) p.items().forEach(h -> ids.add(h.postID()));
+        return ids;
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.demo.services;
+
+import com.example.demo.Entity.Post;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SuggestServiceTest {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void aTitleThatReadsLikeATagKeepsBothSuggestions() throws Exception {
+        try (LuceneFixture lucene = LuceneFixture.inMemory("per_update", 600_000)) {
+            lucene.indexer.upsert(post("p1", "Denim Jacket", "denim, jacket"));
+            lucene.indexer.upsert(post("p2", "denim", "denim, blue"));
+            SuggestService suggest = lucene.suggest(tmp.resolve("suggest"));
+            suggest.rebuild();
+
+            List<SuggestService.Suggestion> found = suggest.suggest("den", 10);
+            assertEquals(new SuggestService.Suggestion("denim", "tag", 2), found.get(0));
+            assertTrue(found.contains(new SuggestService.Suggestion("denim", "title", 1)), found.toString());
+            assertTrue(found.contains(new SuggestService.Suggestion("Denim Jacket", "title", 1)), found.toString());
+        }
+    }
+
+    @Test
+    void aRebuildDropsWhatTheIndexNoLongerHolds() throws Exception {
+        try (LuceneFixture lucene = LuceneFixture.inMemory("per_update", 600_000)) {
+            lucene.indexer.upsert(post("p1", "Denim Jacket", "denim"));
+            SuggestService suggest = lucene.suggest(tmp.resolve("suggest"));
+            // never made it into the main index, like a post a reindex left out
+            suggest.onPostIndexed(post("p2", "Striped Coat", "striped"));
+
+            suggest.rebuild();
+
+            assertEquals(List.of(), suggest.suggest("str", 10));
+            assertEquals(List.of(new SuggestService.Suggestion("denim", "tag", 1), new SuggestService.Suggestion("Denim Jacket", "title", 1)),
+                    suggest.suggest("den", 10));
+        }
+    }
+
+    private static Post post(String id, String title, String tags) {
+        return new Post(id, title, "https://example.invalid/" + id + ".jpg", "2025-01-01", tags, "alt");
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.demo.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.http.HttpHeaders;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveRateLimiterTest {
+
+    @Test
+    void readsRetryAfterInSecondsOrMilliseconds() {
+        assertEquals(Optional.of(2000L), AdaptiveRateLimiter.retryAfterToMillis(headers(Map.of("retry-after", "2"))));
+        assertEquals(Optional.of(1500L), AdaptiveRateLimiter.retryAfterToMillis(headers(Map.of("retry-after-ms", "1500"))));
+        // the finer one wins when both are sent
+        assertEquals(Optional.of(250L), AdaptiveRateLimiter.retryAfterToMillis(headers(Map.of("retry-after", "1", "retry-after-ms", "250"))));
+        // an http date is not understood, the caller falls back to its default pause
+        assertEquals(Optional.empty(), AdaptiveRateLimiter.retryAfterToMillis(headers(Map.of("retry-after", "Wed, 21 Oct 2015 07:28:00 GMT"))));
+        assertEquals(Optional.empty(), AdaptiveRateLimiter.retryAfterToMillis(headers(Map.of())));
+    }
+
+    @Test
+    void parsesOpenAiResetDurations() {
+        assertEquals(Optional.of(20L), AdaptiveRateLimiter.parseDurationMillis("20ms"));
+        assertEquals(Optional.of(1000L), AdaptiveRateLimiter.parseDurationMillis("1s"));
+        assertEquals(Optional.of(1500L), AdaptiveRateLimiter.parseDurationMillis("1.5s"));
+        assertEquals(Optional.of(360_000L), AdaptiveRateLimiter.parseDurationMillis("6m0s"));
+        assertEquals(Optional.of(3_723_000L), AdaptiveRateLimiter.parseDurationMillis("1h2m3s"));
+        assertEquals(Optional.empty(), AdaptiveRateLimiter.parseDurationMillis(""));
+        assertEquals(Optional.empty(), AdaptiveRateLimiter.parseDurationMillis("soon"));
+    }
+
+    @Test
+    void a429PausesEveryoneAndHalvesTheRate() {
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter("test", 6000, 10_000);
+        assertEquals(0, limiter.reserveMillis());
+
+        assertEquals(300, limiter.onResponse(429, headers(Map.of("retry-after-ms", "300"))));
+        assertEquals(3000, limiter.currentRatePerMinute(), 0.001);
+        assertEquals(1, limiter.rateLimitedCount());
+        long wait = limiter.reserveMillis();
+        assertTrue(wait > 100 && wait <= 300, "waited " + wait);
+        // without a header the default pause applies
+        assertEquals(10_000, limiter.onResponse(429, headers(Map.of())));
+    }
+
+    @Test
+    void waitsForTheResetWhenTheWindowIsUsedUp() {
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter("test", 6000, 10_000);
+        limiter.onResponse(200, headers(Map.of("x-ratelimit-remaining-requests", "5", "x-ratelimit-reset-requests", "1s")));
+        assertTrue(limiter.reserveMillis() < 100);
+
+        limiter.onResponse(200, headers(Map.of("x-ratelimit-remaining-requests", "0", "x-ratelimit-reset-requests", "1s")));
+        long wait = limiter.reserveMillis();
+        assertTrue(wait > 500 && wait <= 1000, "waited " + wait);
+    }
+
+    @Test
+    void aSlotBeyondTheCallersDeadlineIsLeftToOthers() {
+        AdaptiveRateLimiter limiter = new AdaptiveRateLimiter("test", 6000, 10_000);
+        limiter.onResponse(429, headers(Map.of("retry-after-ms", "500")));
+
+        assertEquals(-1, limiter.reserveMillis(100));
+        // the refused reservation did not move the next slot back
+        long wait = limiter.reserveMillis(1000);
+        assertTrue(wait > 200 && wait <= 500, "waited " + wait);
+    }
+
+    private static HttpHeaders headers(Map<String, String> values) {
+        Map<String, List<String>> map = new HashMap<>();
+        values.forEach((k, v) -> map.put(k, List.of(v)));
+        return HttpHeaders.of(map, (k, v) -> true);
+    }
+}
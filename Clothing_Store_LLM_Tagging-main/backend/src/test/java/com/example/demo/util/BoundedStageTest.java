@@ -0,0 +1,25 @@
+package com.example.demo.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BoundedStageTest {
+
+    @Test
+    void runsWhatFitsAndRejectsOnceClosed() throws Exception {
+        CountDownLatch ran = new CountDownLatch(3);
+        BoundedStage stage = new BoundedStage("test", 1, 1);
+        // more tasks than workers and queue, the submitter waits for room instead of losing one
+        for (int i = 0; i < 3; i++) stage.submit(ran::countDown);
+        assertTrue(ran.await(5, TimeUnit.SECONDS));
+
+        stage.close();
+        assertThrows(RejectedExecutionException.class, () -> stage.submit(() -> {}));
+    }
+}
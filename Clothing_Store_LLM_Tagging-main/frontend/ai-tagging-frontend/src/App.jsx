@@ -10,6 +10,7 @@ import Pager from "./components/PageNavigation.jsx";
 
 import usePagedSearch from "./scripts/usePageSearch.js";
 import { makeTags } from "./scripts/tagManager.js";
+import { postImageUrl } from "./api.js";
 
 export default function App() {
   const [query, setQuery] = useState("");
@@ -25,7 +26,7 @@ export default function App() {
 
   // backend responce mapped to frontend
   const mapRow = useCallback(
-    (d) => ({ id: d.postID, title: d.title, imageUrl: d.imageURL, tags: makeTags(d, mode), }),
+    (d) => ({ id: d.postID, title: d.title, imageUrl: d.postID ? postImageUrl(d.postID) : (d.thumbnailURL || d.imageURL), tags: makeTags(d, mode), }),
     
     [mode]
   );
@@ -50,7 +51,7 @@ export default function App() {
     const mapped = {
       id: res.id,
       title: res.title,
-      imageUrl: res.imageURL,
+      imageUrl: res.id ? postImageUrl(res.id) : (res.thumbnailURL || res.imageURL),
       _llmTags: res.llmTags || "",
       _altText: res.altText || "",
     };
@@ -19,14 +19,16 @@ async function getJSON(res) {
 
 
 
-//posts from backend are fetched, pagination is then applied and finally a portion of the results is returned
-export async function searchPostsPaged(query, mode, page = 1, pageSize = 12, opts = {}) {
+//fetches one page of posts, the cursor from the previous page continues where it ended (null for the first page)
+export async function searchPostsPaged(query, mode, cursor = null, pageSize = 12, opts = {}) {
 
-  const MAX = 10000; 
   const params = new URLSearchParams();
   if (query) params.set("q", query);
   if (mode)  params.set("mode", mode);
-  params.set("limit", String(MAX)); 
+  params.set("limit", String(pageSize));
+  if (cursor) params.set("cursor", cursor);
+  //only these fields are loaded for each hit, leaving it out returns all of them
+  if (opts.fields?.length) params.set("fields", opts.fields.join(","));
 
 
   const res = await fetch(`${API_BASE}/search?${params}`, {
@@ -36,20 +38,33 @@ export async function searchPostsPaged(query, mode, page = 1, pageSize = 12, opt
   const data = await getJSON(res);
 
   if (Array.isArray(data)) {
-    const total = data.length;
-    const start = (page - 1) * pageSize;
-    const end   = start + pageSize;
-    return { items: data.slice(start, end), total };
+    return { items: data, total: data.length, nextCursor: null };
   }
 
   const rows  = data.items ?? [];
   const total = data.total ?? rows.length;
-  const start = (page - 1) * pageSize;
-  const end   = start + pageSize;
-  return { items: rows.slice(start, end), total };
+  return { items: rows, total, nextCursor: data.nextCursor ?? null };
 }
 
 
+//typeahead suggestions (titles and tags) for what has been typed so far
+export async function suggest(prefix, limit = 8, opts = {}) {
+
+  const params = new URLSearchParams({ q: prefix, limit: String(limit) });
+  const res = await fetch(`${API_BASE}/search/suggest?${params}`, {
+    headers: { Accept: "application/json" },
+    signal: opts.signal,
+  });
+  const data = await getJSON(res);
+  return Array.isArray(data) ? data : [];
+}
+
+
+//image of a post served through the backend's image cache, size is "original", "thumb" or one of the resized widths
+export function postImageUrl(postId, size = "thumb") {
+  return `${API_BASE}/images/posts/${encodeURIComponent(postId)}?size=${size}`;
+}
+
 //Uploads image to backennd, then the images meta data is returned.
 export async function uploadImage(file) {
 
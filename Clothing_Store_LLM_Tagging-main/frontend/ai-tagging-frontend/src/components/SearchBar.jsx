@@ -1,5 +1,25 @@
+import { useEffect, useState } from "react";
+import { suggest } from "../api.js";
+
 //simple search bar that stores input text in value then changes the state with onchange
+//suggestions for the typed text are shown in a datalist, requests are debounced and older ones cancelled
 export default function SearchBar({ value, onChange }) {
+  const [options, setOptions] = useState([]);
+
+  useEffect(() => {
+    const prefix = (value ?? "").trim();
+    if (!prefix) { setOptions([]); return; }
+
+    const ac = new AbortController();
+    const timer = setTimeout(() => {
+      suggest(prefix, 8, { signal: ac.signal })
+        .then(rows => setOptions(rows.map(r => r.text)))
+        .catch(() => {});
+    }, 120);
+
+    return () => { clearTimeout(timer); ac.abort(); };
+  }, [value]);
+
   return (
     <div className="searchbar">
       <input
@@ -8,7 +28,11 @@ export default function SearchBar({ value, onChange }) {
         value={value}
         onChange={(e) => onChange(e.target.value)}
         aria-label="Search"
+        list="searchbar-suggestions"
       />
+      <datalist id="searchbar-suggestions">
+        {options.map(o => <option key={o} value={o} />)}
+      </datalist>
     </div>
   );
 }
@@ -1,6 +1,10 @@
-import { useEffect, useState } from "react";
+import { useEffect, useRef, useState } from "react";
 import { searchPostsPaged } from "../api.js";
 
+// the grid shows the image, the title and the tags of the current mode, the long alt text is only fetched in alt mode
+const gridFields = (mode) =>
+  ["postID", "title", "imageURL", "thumbnailURL", mode === "alt" ? "altText" : "llmTags"];
+
 // Custom hook to fetch paged posts with loading/error state
 export default function usePageSearch({ query, mode, page, pageSize, mapRow }) {
   const [items, setItems] = useState([]);
@@ -8,6 +12,9 @@ export default function usePageSearch({ query, mode, page, pageSize, mapRow }) {
   const [loading, setLoading] = useState(false);
   const [err, setErr] = useState("");
 
+  // cursor that starts each page we have seen, reset whenever the query or mode changes
+  const cursors = useRef({ key: "", byPage: { 1: null } });
+
   useEffect(() => {
     const ac = new AbortController();
 
@@ -16,8 +23,24 @@ export default function usePageSearch({ query, mode, page, pageSize, mapRow }) {
         setLoading(true);
         setErr("");
 
-        const { items: rows = [], total: t } = await searchPostsPaged(
-          (query ?? "").trim() || "*", mode, page, pageSize, { signal: ac.signal } );
+        const q = (query ?? "").trim() || "*";
+        const key = `${q}|${mode}|${pageSize}`;
+        if (cursors.current.key !== key) cursors.current = { key, byPage: { 1: null } };
+        const byPage = cursors.current.byPage;
+
+        // walks forward from the deepest known page when a page is opened without its cursor
+        let p = page;
+        while (p > 1 && !(p in byPage)) p--;
+
+        let res;
+        for (;;) {
+          res = await searchPostsPaged(q, mode, byPage[p], pageSize, { signal: ac.signal, fields: gridFields(mode) });
+          if (res.nextCursor) byPage[p + 1] = res.nextCursor;
+          if (p === page || !res.nextCursor) break;
+          p++;
+        }
+
+        const { items: rows = [], total: t } = res;
         setItems(rows.map(mapRow));
 
         setTotal(typeof t === "number" ? t : rows.length);